@@ -122,7 +122,7 @@ public class MainActivity extends AppCompatActivity implements LocationHelper.On
 			  .append ("} with ")
 			  .append (location.getAccuracy ())
 			  .append (" of precision. (")
-			  .append (getTimeString (location.getExtras ().getLong ("requestTime")))
+			  .append (getTimeString (locationHelper.getRequestElapsedTime ()))
 			  .append (")\n");
 
 		this.textView.setText (buffer.toString ());
@@ -0,0 +1,82 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the distance math and of the geofence evaluation over a whole trace
+ **/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+public class DistanceBenchmark {
+
+	private static final int GEOFENCES = 50000;
+
+	private FixTrace trace;
+	private GeofenceEngine geofenceEngine;
+	private double[] distances;
+
+	@Setup
+	public void setup () throws IOException {
+		trace = FixTrace.load ();
+
+		// Spread the geofences around the bounding box of the trace
+		double minLatitude = Double.MAX_VALUE, maxLatitude = -Double.MAX_VALUE;
+		double minLongitude = Double.MAX_VALUE, maxLongitude = -Double.MAX_VALUE;
+		for (int i = 0; i < trace.size; i++) {
+			minLatitude = Math.min (minLatitude, trace.latitudes[i]);
+			maxLatitude = Math.max (maxLatitude, trace.latitudes[i]);
+			minLongitude = Math.min (minLongitude, trace.longitudes[i]);
+			maxLongitude = Math.max (maxLongitude, trace.longitudes[i]);
+		}
+
+		distances = new double[trace.size];
+
+		geofenceEngine = new GeofenceEngine (60000);
+		Random random = new Random (7);
+		for (int i = 0; i < GEOFENCES; i++) {
+			double latitude = minLatitude + random.nextDouble () * (maxLatitude - minLatitude);
+			double longitude = minLongitude + random.nextDouble () * (maxLongitude - minLongitude);
+			geofenceEngine.add (Geofence.circle ("fence" + i, latitude, longitude, 50 + random.nextDouble () * 250));
+		}
+	}
+
+	@Benchmark
+	public double haversine () {
+		double total = 0;
+		for (int i = 1; i < trace.size; i++) {
+			total += GeoMath.distance (trace.latitudes[i - 1], trace.longitudes[i - 1], trace.latitudes[i], trace.longitudes[i]);
+		}
+
+		return total;
+	}
+
+	@Benchmark
+	public double[] batchHaversine () {
+		GeoMath.distances (trace.latitudes[0], trace.longitudes[0], trace.latitudes, trace.longitudes, 0, trace.size, distances, GeoMath.MODE_HAVERSINE);
+		return distances;
+	}
+
+	@Benchmark
+	public double[] batchFast () {
+		GeoMath.distances (trace.latitudes[0], trace.longitudes[0], trace.latitudes, trace.longitudes, 0, trace.size, distances, GeoMath.MODE_FAST);
+		return distances;
+	}
+
+	@Benchmark
+	public void geofences () {
+		for (int i = 0; i < trace.size; i++) {
+			geofenceEngine.evaluate (trace.latitudes[i], trace.longitudes[i], trace.times[i]);
+		}
+	}
+}
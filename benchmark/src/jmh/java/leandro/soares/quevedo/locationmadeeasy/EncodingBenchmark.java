@@ -0,0 +1,97 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding a whole trace with the binary track format
+ **/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+public class EncodingBenchmark {
+
+	private FixTrace trace;
+	private ByteBuffer buffer;
+	private byte[] encoded;
+	private File file;
+
+	@Setup
+	public void setup () throws IOException {
+		trace = FixTrace.load ();
+		buffer = ByteBuffer.allocate (trace.size * TrackFormat.MAX_RECORD_SIZE);
+
+		// Record the trace once, to benchmark the decoding
+		file = File.createTempFile ("benchmark", ".track");
+		file.delete ();
+		TrackRecorder recorder = new TrackRecorder (file);
+		for (int i = 0; i < trace.size; i++) {
+			recorder.append (trace.latitudes[i], trace.longitudes[i], trace.accuracies[i], trace.speeds[i], trace.bearings[i], trace.times[i], trace.providers[i]);
+		}
+		recorder.close ();
+
+		RandomAccessFile input = new RandomAccessFile (file, "r");
+		encoded = new byte[(int) input.length ()];
+		input.readFully (encoded);
+		input.close ();
+	}
+
+	@TearDown
+	public void tearDown () {
+		file.delete ();
+	}
+
+	/**
+	 * The same delta encoding done by the recorder, without the file channel
+	 **/
+	@Benchmark
+	public int encode () {
+		buffer.clear ();
+
+		long latitude = 0, longitude = 0, time = 0;
+		for (int i = 0; i < trace.size; i++) {
+			long quantizedLatitude = Math.round (trace.latitudes[i] * TrackFormat.COORDINATE_SCALE);
+			long quantizedLongitude = Math.round (trace.longitudes[i] * TrackFormat.COORDINATE_SCALE);
+
+			buffer.put ((byte) TrackFormat.RECORD_DELTA);
+			buffer.put ((byte) trace.providers[i]);
+			TrackFormat.writeSignedVarLong (buffer, quantizedLatitude - latitude);
+			TrackFormat.writeSignedVarLong (buffer, quantizedLongitude - longitude);
+			TrackFormat.writeSignedVarLong (buffer, Math.round (trace.accuracies[i] * TrackFormat.ACCURACY_SCALE));
+			TrackFormat.writeSignedVarLong (buffer, Math.round (trace.speeds[i] * TrackFormat.SPEED_SCALE));
+			TrackFormat.writeSignedVarLong (buffer, Math.round (trace.bearings[i] * TrackFormat.BEARING_SCALE));
+			TrackFormat.writeSignedVarLong (buffer, trace.times[i] - time);
+
+			latitude = quantizedLatitude;
+			longitude = quantizedLongitude;
+			time = trace.times[i];
+		}
+
+		return buffer.position ();
+	}
+
+	@Benchmark
+	public double decode () throws IOException {
+		TrackReader reader = new TrackReader (new ByteArrayInputStream (encoded));
+
+		double total = 0;
+		while (reader.next ()) {
+			total += reader.getLatitude ();
+		}
+
+		return total;
+	}
+}
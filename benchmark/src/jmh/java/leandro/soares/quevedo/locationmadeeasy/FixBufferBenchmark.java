@@ -0,0 +1,56 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of storing the fixes of a whole trace, on the ring buffer and on the tracking batches
+ **/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+public class FixBufferBenchmark {
+
+	private FixTrace trace;
+	private FixRingBuffer ringBuffer;
+	private Integer[] fixIndexes;
+
+	@Setup
+	public void setup () throws IOException {
+		trace = FixTrace.load ();
+		ringBuffer = new FixRingBuffer (64);
+		fixIndexes = new Integer[trace.size];
+		for (int i = 0; i < trace.size; i++) {
+			fixIndexes[i] = i;
+		}
+	}
+
+	@Benchmark
+	public int ringBuffer () {
+		for (int i = 0; i < trace.size; i++) {
+			ringBuffer.add (trace.latitudes[i], trace.longitudes[i], trace.accuracies[i], trace.speeds[i], trace.bearings[i], trace.times[i], trace.providers[i]);
+		}
+
+		return ringBuffer.size ();
+	}
+
+	@Benchmark
+	public void batcher (Blackhole blackhole) {
+		FixBatcher<Integer> batcher = new FixBatcher<> (20, 60000);
+		for (int i = 0; i < trace.size; i++) {
+			if (batcher.add (fixIndexes[i], trace.times[i])) {
+				blackhole.consume (batcher.drain ());
+			}
+		}
+		blackhole.consume (batcher.drain ());
+	}
+}
@@ -0,0 +1,72 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of choosing the best location over a whole trace, per fix selection strategy, and of the filters ahead of it
+ **/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+public class FixSelectionBenchmark {
+
+	private FixTrace trace;
+	private String[] providerNames;
+	private FilterPipeline filterPipeline;
+
+	@Setup
+	public void setup () throws IOException {
+		trace = FixTrace.load ();
+		providerNames = new String[trace.size];
+		for (int i = 0; i < trace.size; i++) {
+			providerNames[i] = ProviderCodes.toName (trace.providers[i]);
+		}
+
+		filterPipeline = new FilterPipeline ()
+				.add (new AccuracyGate (200f))
+				.add (new SpeedGate (70.0))
+				.add (new StationaryJitter (10.0, 60000));
+	}
+
+	@Benchmark
+	public int heuristic () {
+		int best = 0;
+		for (int i = 1; i < trace.size; i++) {
+			if (FixComparator.isBetterFix (trace.times[i], trace.accuracies[i], providerNames[i],
+					true, trace.times[best], trace.accuracies[best], providerNames[best])) {
+				best = i;
+			}
+		}
+
+		return best;
+	}
+
+	@Benchmark
+	public double kalman () {
+		KalmanFilter filter = new KalmanFilter (3.0);
+		for (int i = 0; i < trace.size; i++) {
+			filter.update (trace.latitudes[i], trace.longitudes[i], trace.accuracies[i], trace.times[i]);
+		}
+
+		return filter.getLatitude () + filter.getLongitude ();
+	}
+
+	@Benchmark
+	public long filters () {
+		filterPipeline.reset ();
+		for (int i = 0; i < trace.size; i++) {
+			filterPipeline.filter (trace.latitudes[i], trace.longitudes[i], trace.accuracies[i], trace.times[i]);
+		}
+
+		return filterPipeline.getAcceptedCount ();
+	}
+}
@@ -0,0 +1,124 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The fixes fed to the benchmarks, either read from a track recorded with the {@link TrackRecorder}
+ * (Given by the locationmadeeasy.trace system property) or a deterministic synthetic drive
+ **/
+final class FixTrace {
+
+	static final String TRACE_PROPERTY = "locationmadeeasy.trace";
+	private static final int SYNTHETIC_SIZE = 3600;// One hour at 1Hz
+
+	double[] latitudes;
+	double[] longitudes;
+	float[] accuracies;
+	float[] speeds;
+	float[] bearings;
+	long[] times;
+	int[] providers;
+	int size;
+
+	private FixTrace (int capacity) {
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		accuracies = new float[capacity];
+		speeds = new float[capacity];
+		bearings = new float[capacity];
+		times = new long[capacity];
+		providers = new int[capacity];
+	}
+
+	static FixTrace load () throws IOException {
+		String path = System.getProperty (TRACE_PROPERTY);
+		if (path != null && !path.isEmpty ()) {
+			return read (new File (path));
+		}
+
+		return synthetic (SYNTHETIC_SIZE, 42);
+	}
+
+	/**
+	 * Reads a recorded track
+	 **/
+	static FixTrace read (File file) throws IOException {
+		FixTrace trace = new FixTrace (1024);
+		TrackReader reader = new TrackReader (file);
+		try {
+			while (reader.next ()) {
+				trace.ensureCapacity (trace.size + 1);
+				int i = trace.size++;
+				trace.latitudes[i] = reader.getLatitude ();
+				trace.longitudes[i] = reader.getLongitude ();
+				trace.accuracies[i] = reader.getAccuracy ();
+				trace.speeds[i] = reader.getSpeed ();
+				trace.bearings[i] = reader.getBearing ();
+				trace.times[i] = reader.getTime ();
+				trace.providers[i] = ProviderCodes.toCode (reader.getProvider ());
+			}
+		} finally {
+			reader.close ();
+		}
+
+		if (trace.size < 2) {
+			throw new IOException ("The trace needs at least 2 fixes");
+		}
+
+		return trace;
+	}
+
+	/**
+	 * A drive with stops, turns, GPS noise and coarse network fixes mixed in
+	 **/
+	static FixTrace synthetic (int size, long seed) {
+		Random random = new Random (seed);
+		FixTrace trace = new FixTrace (size);
+
+		double latitude = -30.0346, longitude = -51.2177;
+		double bearing = 45.0, speed = 0.0;
+		long time = 1500000000000L;
+
+		for (int i = 0; i < size; i++) {
+			// Alternate between driving and waiting at stops
+			boolean stopped = (i / 120) % 4 == 3;
+			speed = stopped ? 0.0 : Math.max (0.0, Math.min (25.0, speed + random.nextGaussian ()));
+			bearing = (bearing + random.nextGaussian () * 5.0 + 360.0) % 360.0;
+
+			double distance = speed;// One second
+			latitude += distance * Math.cos (Math.toRadians (bearing)) / GeoMath.METERS_PER_DEGREE;
+			longitude += distance * Math.sin (Math.toRadians (bearing)) / GeoMath.metersPerDegreeLongitude (latitude);
+			time += 1000;
+
+			boolean network = i % 10 == 9;
+			double noise = network ? 150.0 : 8.0;
+
+			trace.latitudes[i] = latitude + random.nextGaussian () * noise / GeoMath.METERS_PER_DEGREE;
+			trace.longitudes[i] = longitude + random.nextGaussian () * noise / GeoMath.metersPerDegreeLongitude (latitude);
+			trace.accuracies[i] = (float) (noise * (1.0 + random.nextDouble ()));
+			trace.speeds[i] = network ? 0f : (float) speed;
+			trace.bearings[i] = network ? 0f : (float) bearing;
+			trace.times[i] = time;
+			trace.providers[i] = network ? ProviderCodes.NETWORK : ProviderCodes.GPS;
+		}
+		trace.size = size;
+
+		return trace;
+	}
+
+	private void ensureCapacity (int capacity) {
+		if (capacity <= latitudes.length) return;
+
+		int newCapacity = Math.max (capacity, latitudes.length * 2);
+		latitudes = Arrays.copyOf (latitudes, newCapacity);
+		longitudes = Arrays.copyOf (longitudes, newCapacity);
+		accuracies = Arrays.copyOf (accuracies, newCapacity);
+		speeds = Arrays.copyOf (speeds, newCapacity);
+		bearings = Arrays.copyOf (bearings, newCapacity);
+		times = Arrays.copyOf (times, newCapacity);
+		providers = Arrays.copyOf (providers, newCapacity);
+	}
+}
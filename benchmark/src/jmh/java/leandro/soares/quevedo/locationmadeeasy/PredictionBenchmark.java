@@ -0,0 +1,63 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a frame prediction, alone and while the provider thread keeps publishing fixes
+ **/
+@State (Scope.Group)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+public class PredictionBenchmark {
+
+	private FixTrace trace;
+	private PositionPredictor predictor;
+	private int next;
+
+	@Setup
+	public void setup () throws IOException {
+		trace = FixTrace.load ();
+		predictor = new PositionPredictor ();
+		publish ();
+	}
+
+	@State (Scope.Thread)
+	public static class Frame {
+		final double[] out = new double[3];
+	}
+
+	@Benchmark
+	@Group ("uncontended")
+	public double predict (Frame frame) {
+		predictor.getPredictedLocation (System.nanoTime (), frame.out);
+		return frame.out[PositionPredictor.INDEX_LATITUDE];
+	}
+
+	@Benchmark
+	@Group ("contended")
+	@GroupThreads (3)
+	public double predictWhilePublishing (Frame frame) {
+		predictor.getPredictedLocation (System.nanoTime (), frame.out);
+		return frame.out[PositionPredictor.INDEX_LATITUDE];
+	}
+
+	@Benchmark
+	@Group ("contended")
+	@GroupThreads (1)
+	public void publish () {
+		int i = next;
+		next = i + 1 == trace.size ? 0 : i + 1;
+		predictor.update (trace.latitudes[i], trace.longitudes[i], trace.accuracies[i], -1f, -1f, System.nanoTime ());
+	}
+}
@@ -0,0 +1,158 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A source the tests push the fixes through, delivered on the looper of each registration
+ */
+final class FakeLocationSource implements LocationSource {
+
+	private final List<Registration> registrations = new ArrayList<> ();
+	private int registrationCount;
+	private Handler lastHandler;
+
+	@Override
+	public boolean isProviderEnabled (String provider) {
+		return true;
+	}
+
+	@Override
+	public Location getLastKnownLocation (String provider) {
+		return null;
+	}
+
+	@Override
+	public synchronized void requestLocationUpdates (String provider, long minTime, float minDistance, LocationListener listener, Looper looper) {
+		removeUpdates (listener);
+		registrations.add (new Registration (provider, minTime, listener, new Handler (looper)));
+		registrationCount++;
+		notifyAll ();
+	}
+
+	@Override
+	public synchronized void removeUpdates (LocationListener listener) {
+		for (int i = registrations.size () - 1; i >= 0; i--) {
+			if (registrations.get (i).listener == listener) {
+				registrations.remove (i);
+			}
+		}
+		notifyAll ();
+	}
+
+	/**
+	 * Waits for the provider to be registered
+	 *
+	 * @return False if it was not within the timeout
+	 */
+	synchronized boolean awaitRegistration (String provider, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis () + timeout;
+		while (find (provider) == null) {
+			long remaining = end - System.currentTimeMillis ();
+			if (remaining <= 0) return false;
+			wait (remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for every provider to be unregistered
+	 *
+	 * @return False if they were not within the timeout
+	 */
+	synchronized boolean awaitRelease (long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis () + timeout;
+		while (!registrations.isEmpty ()) {
+			long remaining = end - System.currentTimeMillis ();
+			if (remaining <= 0) return false;
+			wait (remaining);
+		}
+		return true;
+	}
+
+	synchronized boolean isRegistered () {
+		return !registrations.isEmpty ();
+	}
+
+	/**
+	 * The update interval (In millis) the provider is registered with, -1 if it is not
+	 */
+	synchronized long getMinTime (String provider) {
+		Registration registration = find (provider);
+		return registration != null ? registration.minTime : -1;
+	}
+
+	/**
+	 * How many times any provider was registered
+	 */
+	synchronized int getRegistrationCount () {
+		return registrationCount;
+	}
+
+	/**
+	 * Delivers the fix to the listeners of its provider
+	 */
+	synchronized void deliver (final Location location) {
+		for (final Registration registration : registrations) {
+			if (!registration.provider.equals (location.getProvider ())) continue;
+
+			lastHandler = registration.handler;
+			registration.handler.post (new Runnable () {
+				@Override
+				public void run () {
+					registration.listener.onLocationChanged (location);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Waits for the listeners to handle the fixes delivered so far
+	 *
+	 * @return False if they did not within the timeout
+	 */
+	boolean awaitDelivery (long timeout) throws InterruptedException {
+		Handler handler;
+		synchronized (this) {
+			handler = lastHandler;
+		}
+		if (handler == null) return true;
+
+		final CountDownLatch latch = new CountDownLatch (1);
+		handler.post (new Runnable () {
+			@Override
+			public void run () {
+				latch.countDown ();
+			}
+		});
+		return latch.await (timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private Registration find (String provider) {
+		for (Registration registration : registrations) {
+			if (registration.provider.equals (provider)) return registration;
+		}
+		return null;
+	}
+
+	private static final class Registration {
+		final String provider;
+		final long minTime;
+		final LocationListener listener;
+		final Handler handler;
+
+		Registration (String provider, long minTime, LocationListener listener, Handler handler) {
+			this.provider = provider;
+			this.minTime = minTime;
+			this.listener = listener;
+			this.handler = handler;
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.Manifest;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.GrantPermissionRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the fixes through the helper, on a device, where the Location objects are real
+ */
+@RunWith (AndroidJUnit4.class)
+public class LocationHelperInstrumentedTest {
+
+	private static final long WAIT = 5000;
+
+	// Runs the listeners on the provider thread, so they have run once the fixes are delivered
+	private static final Executor DIRECT = new Executor () {
+		@Override
+		public void execute (Runnable task) {
+			task.run ();
+		}
+	};
+
+	@Rule
+	public GrantPermissionRule permissionRule = GrantPermissionRule.grant (Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION);
+
+	private static Location fix (double latitude, double longitude, float accuracy, long time) {
+		return fix (LocationManager.GPS_PROVIDER, latitude, longitude, accuracy, time);
+	}
+
+	private static Location fix (String provider, double latitude, double longitude, float accuracy, long time) {
+		Location location = new Location (provider);
+		location.setLatitude (latitude);
+		location.setLongitude (longitude);
+		location.setAccuracy (accuracy);
+		location.setTime (time);
+		return location;
+	}
+
+	/**
+	 * A helper on the fake source, with a listener that ignores the events
+	 */
+	private static LocationHelper newHelper (FakeLocationSource source) {
+		LocationHelper helper = new LocationHelper (InstrumentationRegistry.getTargetContext (), new LocationHelper.OnLocationUpdateListener () {
+			@Override
+			public void onLocationRequestStart () {
+			}
+
+			@Override
+			public void onLocationRetrieved (Location location) {
+			}
+
+			@Override
+			public void onLocationRequestError (String message) {
+			}
+		});
+		helper.setLocationSource (source);
+		return helper;
+	}
+
+	@Test
+	public void kalmanStrategy_selectsFusedLocations () {
+		Context context = InstrumentationRegistry.getTargetContext ();
+		LocationHelper helper = new LocationHelper (context, null);
+		helper.setLocationStrategy (new KalmanLocationStrategy ());
+
+		long now = System.currentTimeMillis ();
+		helper.setBestLocation (fix (-30.03, -51.23, 10f, now));
+		helper.setBestLocation (fix (-30.0301, -51.2301, 10f, now + 1000));
+
+		Location best = helper.getBestLocation ();
+		assertEquals (KalmanLocationStrategy.FUSED_PROVIDER, best.getProvider ());
+		assertNotNull (best.getExtras ());
+		assertEquals (-30.03, best.getLatitude (), 1e-3);
+	}
+
+	@Test
+	public void persistedLocation_restoresOnColdStart () {
+		Context context = InstrumentationRegistry.getTargetContext ();
+		long now = System.currentTimeMillis ();
+		new LocationHelper (context, null).setBestLocation (fix (-30.03, -51.23, 12f, now));
+
+		// A new helper, as in the next session
+		LocationHelper helper = new LocationHelper (context, null);
+		Location restored = helper.readPersistedLocation ();
+		assertNotNull (restored);
+		assertNotNull (restored.getExtras ());
+
+		helper.setBestLocation (restored);
+		Location best = helper.getBestLocation ();
+		assertEquals (LocationManager.GPS_PROVIDER, best.getProvider ());
+		assertEquals (-30.03, best.getLatitude (), 1e-6);
+		assertEquals (-51.23, best.getLongitude (), 1e-6);
+		assertEquals (12f, best.getAccuracy (), 0.01f);
+		assertEquals (now, best.getTime ());
+	}
+
+	@Test
+	public void filteredFixes_stillAnswerTheRequests () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		// Never refreshes, a stationary device has every fix after the first rejected
+		helper.setFilterPipeline (new FilterPipeline ().add (new StationaryJitter (20, 0)));
+
+		long now = System.currentTimeMillis ();
+		RequestFuture<Location> first = helper.requestCurrentLocation (0, 0);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		source.deliver (fix (-30.03, -51.23, 10f, now));
+		assertEquals (-30.03, first.get (WAIT, TimeUnit.MILLISECONDS).getLatitude (), 1e-9);
+
+		RequestFuture<Location> second = helper.requestCurrentLocation (0, 0);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		source.deliver (fix (-30.03001, -51.23, 10f, now + 1000));
+		assertNotNull (second.get (WAIT, TimeUnit.MILLISECONDS));
+
+		// The jitter itself was still kept out of the buffer
+		assertEquals (1, helper.getRecentFixes ().size ());
+		assertTrue (source.awaitRelease (WAIT));
+	}
+
+	@Test
+	public void startTracking_rejectsAnInvalidBatchSizeOnTheCaller () {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		try {
+			helper.startTracking (0, 0, null);
+			fail ();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertFalse (helper.isTracking ());
+		assertEquals (0, source.getRegistrationCount ());
+	}
+
+	@Test
+	public void predictor_ignoresTheFixesTheStrategyDropped () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		PositionPredictor predictor = new PositionPredictor ();
+		helper.setPositionPredictor (predictor);
+
+		assertTrue (helper.startTracking (100, 0, null));
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		assertTrue (source.awaitRegistration (LocationManager.NETWORK_PROVIDER, WAIT));
+
+		// A network fix without speed, 300m off and a second after the GPS one
+		long now = System.currentTimeMillis ();
+		source.deliver (fix (LocationManager.GPS_PROVIDER, -30.03, -51.23, 5f, now));
+		source.deliver (fix (LocationManager.NETWORK_PROVIDER, -30.03 + 300 / GeoMath.METERS_PER_DEGREE, -51.23, 40f, now + 1000));
+		assertTrue (source.awaitDelivery (WAIT));
+
+		double[] out = new double[3];
+		assertTrue (predictor.getPredictedLocation (System.nanoTime () + 5000000000L, out));
+		assertEquals (-30.03, out[PositionPredictor.INDEX_LATITUDE], 1e-6);
+		assertEquals (-51.23, out[PositionPredictor.INDEX_LONGITUDE], 1e-6);
+
+		helper.stopTracking ();
+		assertTrue (source.awaitRelease (WAIT));
+	}
+
+	@Test
+	public void restartedTracking_deliversTheLastBatchToItsOwnListener () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		helper.setListenerExecutor (DIRECT);
+
+		final List<Location> first = new CopyOnWriteArrayList<> ();
+		final List<Location> second = new CopyOnWriteArrayList<> ();
+		assertTrue (helper.startTracking (10, 0, new LocationHelper.OnLocationBatchListener () {
+			@Override
+			public void onLocationBatchRetrieved (List<Location> locations) {
+				first.addAll (locations);
+			}
+		}));
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+
+		long now = System.currentTimeMillis ();
+		source.deliver (fix (-30.03, -51.23, 5f, now));
+		source.deliver (fix (-30.031, -51.23, 5f, now + 1000));
+		assertTrue (source.awaitDelivery (WAIT));
+
+		assertTrue (helper.startTracking (10, 0, new LocationHelper.OnLocationBatchListener () {
+			@Override
+			public void onLocationBatchRetrieved (List<Location> locations) {
+				second.addAll (locations);
+			}
+		}));
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		source.deliver (fix (-30.032, -51.23, 5f, now + 2000));
+		assertTrue (source.awaitDelivery (WAIT));
+
+		assertEquals (2, first.size ());
+		assertTrue (second.isEmpty ());
+
+		// Released before the last batch is delivered, on the same thread
+		helper.stopTracking ();
+		assertTrue (source.awaitRelease (WAIT));
+		assertTrue (source.awaitDelivery (WAIT));
+		assertEquals (2, first.size ());
+		assertEquals (1, second.size ());
+	}
+
+	@Test
+	public void requestCurrentLocation_answersFromTheCacheWithinTheLimits () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+
+		// A GPS fix stamped ahead of the device clock
+		long now = System.currentTimeMillis ();
+		RequestFuture<Location> live = helper.requestCurrentLocation (0, 0);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		source.deliver (fix (-30.03, -51.23, 30f, now + 2000));
+		assertEquals (30f, live.get (WAIT, TimeUnit.MILLISECONDS).getAccuracy (), 0f);
+		assertTrue (source.awaitRelease (WAIT));
+		int registrations = source.getRegistrationCount ();
+
+		// Within the limits, the providers are not started
+		Location cached = helper.requestCurrentLocation (60000, 50).get (WAIT, TimeUnit.MILLISECONDS);
+		assertTrue (cached.getAccuracy () <= 50);
+		assertEquals (registrations, source.getRegistrationCount ());
+
+		// Too coarse for the request, it waits for the providers
+		RequestFuture<Location> accurate = helper.requestCurrentLocation (60000, 4);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		assertTrue (source.getRegistrationCount () > registrations);
+		assertFalse (accurate.isDone ());
+		source.deliver (fix (-30.03, -51.23, 3f, System.currentTimeMillis ()));
+		assertEquals (3f, accurate.get (WAIT, TimeUnit.MILLISECONDS).getAccuracy (), 0f);
+	}
+
+	/**
+	 * Records the refined locations as "accuracy:isFinal"
+	 */
+	private static final class RefinedRecorder implements LocationHelper.OnLocationRefinedListener {
+		final List<String> refinements = new CopyOnWriteArrayList<> ();
+
+		@Override
+		public void onLocationRefined (Location location, boolean isFinal) {
+			refinements.add ((int) location.getAccuracy () + ":" + isFinal);
+		}
+	}
+
+	@Test
+	public void refinedLocation_endsAtTheTargetAccuracy () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		helper.setListenerExecutor (DIRECT);
+		// No cached fix, the refinement starts from the providers
+		helper.setCachedLocationLimits (0, 0);
+
+		RefinedRecorder recorder = new RefinedRecorder ();
+		RequestFuture<Location> future = helper.requestRefinedLocation (10f, 60000, recorder);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+
+		long now = System.currentTimeMillis ();
+		source.deliver (fix (-30.03, -51.23, 50f, now));
+		source.deliver (fix (-30.03, -51.23, 60f, now + 1000));
+		source.deliver (fix (-30.03, -51.23, 8f, now + 2000));
+
+		assertEquals (8f, future.get (WAIT, TimeUnit.MILLISECONDS).getAccuracy (), 0f);
+		assertEquals ("[50:false, 8:true]", recorder.refinements.toString ());
+		assertTrue (source.awaitRelease (WAIT));
+	}
+
+	@Test
+	public void refinedLocation_endsAtTheDeadlineWithTheBestFix () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		helper.setListenerExecutor (DIRECT);
+		helper.setCachedLocationLimits (0, 0);
+
+		RefinedRecorder recorder = new RefinedRecorder ();
+		RequestFuture<Location> future = helper.requestRefinedLocation (5f, 500, recorder);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		source.deliver (fix (-30.03, -51.23, 40f, System.currentTimeMillis ()));
+
+		assertEquals (40f, future.get (WAIT, TimeUnit.MILLISECONDS).getAccuracy (), 0f);
+		assertTrue (source.awaitRelease (WAIT));
+		assertTrue (source.awaitDelivery (WAIT));
+		// Delivered once more as final, the listener knows the request ended
+		assertEquals ("[40:false, 40:true]", recorder.refinements.toString ());
+
+		// Without any fix, it times out
+		RequestFuture<Location> empty = helper.requestRefinedLocation (5f, 200, new RefinedRecorder ());
+		try {
+			empty.get (WAIT, TimeUnit.MILLISECONDS);
+			fail ();
+		} catch (ExecutionException e) {
+			assertTrue (empty.isTimedOut ());
+		}
+	}
+
+	@Test
+	public void requests_raceFixesTimeoutsAndCancellations () throws Exception {
+		final FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		helper.setListenerExecutor (DIRECT);
+		DefaultLocationMetrics metrics = new DefaultLocationMetrics ();
+		helper.setMetricsRecorder (metrics);
+
+		final int requests = 300;
+		final List<RequestFuture<Location>> futures = new ArrayList<> ();
+		for (int i = 0; i < requests; i++) {
+			futures.add (helper.requestCurrentLocation (0, 0));
+		}
+		// And requests only seen through their timeout listener
+		final AtomicInteger timeoutCalls = new AtomicInteger ();
+		Random random = new Random (1);
+		for (int i = 0; i < requests; i++) {
+			helper.requestCurrentLocationWithTimeout (0, 0, 1 + random.nextInt (50), new LocationHelper.OnLocationTimeoutListener () {
+				@Override
+				public void onLocationTimedOut () {
+					timeoutCalls.incrementAndGet ();
+				}
+			});
+		}
+
+		final Queue<Throwable> errors = new ConcurrentLinkedQueue<> ();
+		final long end = System.currentTimeMillis () + 20000;
+		Thread provider = new Thread (new Runnable () {
+			@Override
+			public void run () {
+				try {
+					// Until every request finished and the providers were released
+					int i = 0;
+					while (System.currentTimeMillis () < end && (!allDone (futures) || source.isRegistered ())) {
+						source.deliver (fix (-30.03 + i * 1e-5, -51.23, 5f, System.currentTimeMillis ()));
+						i++;
+						Thread.sleep (1);
+					}
+				} catch (Throwable e) {
+					errors.add (e);
+				}
+			}
+		});
+		Thread canceller = new Thread (new Runnable () {
+			@Override
+			public void run () {
+				try {
+					for (int i = 0; i < requests; i += 3) {
+						futures.get (i).cancel (false);
+					}
+				} catch (Throwable e) {
+					errors.add (e);
+				}
+			}
+		});
+		provider.start ();
+		canceller.start ();
+		for (int i = 1; i < requests; i += 3) {
+			futures.get (i).withTimeout (random.nextInt (20));
+		}
+		canceller.join ();
+		provider.join ();
+		assertTrue (errors.toString (), errors.isEmpty ());
+
+		int cancelled = 0;
+		for (RequestFuture<Location> future : futures) {
+			if (future.isCancelled ()) cancelled++;
+		}
+
+		// Each request ends once: answered by a fix, timed out or cancelled. The last listener-only ones may still be timing out
+		long deadline = System.currentTimeMillis () + WAIT;
+		while (metrics.getLiveFixes () + metrics.getTimeouts () + cancelled < 2 * requests && System.currentTimeMillis () < deadline) {
+			Thread.sleep (10);
+		}
+		assertTrue (source.awaitRelease (WAIT));
+		assertTrue (source.awaitDelivery (WAIT));
+		assertEquals (2 * requests, metrics.getLiveFixes () + metrics.getTimeouts () + cancelled);
+
+		int completed = 0, timedOut = 0;
+		for (RequestFuture<Location> future : futures) {
+			assertTrue (future.isDone ());
+			int outcomes = 0;
+			if (future.getNow (null) != null) {
+				completed++;
+				outcomes++;
+			}
+			if (future.isCancelled ()) {
+				outcomes++;
+			}
+			if (future.isTimedOut ()) {
+				timedOut++;
+				outcomes++;
+			}
+			assertEquals (1, outcomes);
+		}
+
+		// Every timeout counted once, the listener-only ones calling their listener once
+		assertEquals (timedOut + timeoutCalls.get (), metrics.getTimeouts ());
+		assertTrue (metrics.getLiveFixes () >= completed);
+		assertNotNull (helper.getBestLocation ());
+	}
+
+	private static boolean allDone (List<RequestFuture<Location>> futures) {
+		for (RequestFuture<Location> future : futures) {
+			if (!future.isDone ()) return false;
+		}
+		return true;
+	}
+
+	@Test
+	public void powerBudget_appliesToTheTrackingProviders () throws Exception {
+		FakeLocationSource source = new FakeLocationSource ();
+		LocationHelper helper = newHelper (source);
+		helper.setAdaptiveScheduler (new AdaptiveScheduler (AdaptiveScheduler.POWER_LOW));
+
+		// Walking on a low budget, the network only, once a minute
+		assertTrue (helper.startTracking (100, 0, null));
+		assertTrue (source.awaitRegistration (LocationManager.NETWORK_PROVIDER, WAIT));
+		assertEquals (60000, source.getMinTime (LocationManager.NETWORK_PROVIDER));
+		assertEquals (-1, source.getMinTime (LocationManager.GPS_PROVIDER));
+
+		// Applied right away, not on the next activity change
+		helper.setPowerBudget (AdaptiveScheduler.POWER_HIGH);
+		assertTrue (source.awaitRegistration (LocationManager.GPS_PROVIDER, WAIT));
+		assertEquals (5000, source.getMinTime (LocationManager.GPS_PROVIDER));
+		assertEquals (5000, source.getMinTime (LocationManager.NETWORK_PROVIDER));
+
+		helper.stopTracking ();
+		assertTrue (source.awaitRelease (WAIT));
+	}
+}
@@ -0,0 +1,33 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Rejects the fixes less accurate than a limit
+ **/
+public final class AccuracyGate implements LocationFilter {
+
+	private final float maxAccuracy;
+
+	/**
+	 * @param maxAccuracy The worst accuracy (In meters) accepted, fixes without accuracy are accepted
+	 **/
+	public AccuracyGate (float maxAccuracy) {
+		if (maxAccuracy <= 0) {
+			throw new IllegalArgumentException ("The accuracy must be positive");
+		}
+
+		this.maxAccuracy = maxAccuracy;
+	}
+
+	@Override
+	public boolean accept (double latitude, double longitude, float accuracy, long time) {
+		return accuracy <= maxAccuracy;
+	}
+
+	@Override
+	public void onAccepted (double latitude, double longitude, float accuracy, long time) {
+	}
+
+	@Override
+	public void reset () {
+	}
+}
@@ -0,0 +1,187 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Picks the providers and their update rates from the current speed and a power budget
+ * <p>
+ * The speed is smoothed and the activity (stationary, walking or driving) only changes after a few consistent
+ * fixes, so the providers are not re-registered on every speed spike. The stationary profile is the exception: its
+ * fixes are minutes apart, so it is left on the first fix above the stationary speed.
+ **/
+public final class AdaptiveScheduler {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final int POWER_LOW = 0;
+	public static final int POWER_BALANCED = 1;
+	public static final int POWER_HIGH = 2;
+
+	public static final int ACTIVITY_STATIONARY = 0;
+	public static final int ACTIVITY_WALKING = 1;
+	public static final int ACTIVITY_DRIVING = 2;
+
+	private static final float STATIONARY_SPEED = 0.5f;// m/s
+	private static final float WALKING_SPEED = 3.0f;// m/s
+	private static final float SPEED_SMOOTHING = 0.3f;
+	private static final int STABLE_FIXES = 3;
+
+	private static final long SECOND = 1000;
+	private static final long MINUTE = SECOND * 60;
+
+	// Indexed by [activity][power budget]
+	private static final Profile[][] PROFILES = {
+			{// Stationary, network only
+					new Profile (false, true, 5 * MINUTE, 50),
+					new Profile (false, true, 2 * MINUTE, 25),
+					new Profile (false, true, 30 * SECOND, 10)
+			},
+			{// Walking
+					new Profile (false, true, MINUTE, 25),
+					new Profile (true, true, 20 * SECOND, 10),
+					new Profile (true, true, 5 * SECOND, 5)
+			},
+			{// Driving
+					new Profile (true, false, 15 * SECOND, 50),
+					new Profile (true, true, 5 * SECOND, 20),
+					new Profile (true, true, SECOND, 5)
+			}
+	};
+	//</editor-fold>
+
+	private int powerBudget;
+	private int activity = ACTIVITY_WALKING;// Medium cadence until the speed is known
+
+	private float smoothedSpeed = -1;
+	private int candidateActivity = -1;
+	private int candidateCount;
+
+	private boolean hasLastFix;
+	private double lastLatitude, lastLongitude;
+	private long lastTime;
+
+	public AdaptiveScheduler (int powerBudget) {
+		setPowerBudget (powerBudget);
+	}
+
+	/**
+	 * Changes the budget, while tracking use {@link LocationHelper#setPowerBudget(int)} to apply it to the providers
+	 *
+	 * @param powerBudget One of POWER_LOW, POWER_BALANCED or POWER_HIGH
+	 * @return True when the budget changed and the providers must be registered again
+	 **/
+	public synchronized boolean setPowerBudget (int powerBudget) {
+		if (powerBudget < POWER_LOW || powerBudget > POWER_HIGH) {
+			throw new IllegalArgumentException ("Unknown power budget " + powerBudget);
+		}
+
+		if (this.powerBudget == powerBudget) return false;
+
+		this.powerBudget = powerBudget;
+		return true;
+	}
+
+	/**
+	 * Feeds a fix into the speed estimation
+	 *
+	 * @param speed The reported speed (In m/s), or a negative value when unknown
+	 * @return True when the profile changed and the providers must be registered again
+	 **/
+	public synchronized boolean update (double latitude, double longitude, float speed, long time) {
+		// Without a reported speed, use the one implied by the previous fix
+		if (speed < 0 && hasLastFix && time > lastTime) {
+			speed = (float) (GeoMath.distance (lastLatitude, lastLongitude, latitude, longitude) / ((time - lastTime) / 1000.0));
+		}
+
+		hasLastFix = true;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastTime = time;
+
+		if (speed < 0) return false;
+
+		// Waiting for a few sparse stationary fixes would keep a device that started moving without GPS for minutes
+		if (activity == ACTIVITY_STATIONARY && speed >= STATIONARY_SPEED) {
+			smoothedSpeed = speed;
+			return setActivity (classify (speed));
+		}
+
+		smoothedSpeed = smoothedSpeed < 0 ? speed : smoothedSpeed + SPEED_SMOOTHING * (speed - smoothedSpeed);
+
+		int newActivity = classify (smoothedSpeed);
+		if (newActivity == activity) {
+			candidateActivity = -1;
+			return false;
+		}
+
+		// Only switch after a few consistent fixes
+		if (newActivity != candidateActivity) {
+			candidateActivity = newActivity;
+			candidateCount = 0;
+		}
+
+		if (++candidateCount < STABLE_FIXES) return false;
+
+		setActivity (newActivity);
+		return true;
+	}
+
+	/**
+	 * Forces the activity, for instance when a stop was detected by other means
+	 *
+	 * @return True when the profile changed
+	 **/
+	public synchronized boolean setActivity (int activity) {
+		if (activity < ACTIVITY_STATIONARY || activity > ACTIVITY_DRIVING) {
+			throw new IllegalArgumentException ("Unknown activity " + activity);
+		}
+
+		boolean changed = this.activity != activity;
+		this.activity = activity;
+		this.candidateActivity = -1;
+
+		return changed;
+	}
+
+	private static int classify (float speed) {
+		if (speed < STATIONARY_SPEED) {
+			return ACTIVITY_STATIONARY;
+		} else if (speed < WALKING_SPEED) {
+			return ACTIVITY_WALKING;
+		} else {
+			return ACTIVITY_DRIVING;
+		}
+	}
+
+	public synchronized int getActivity () {
+		return activity;
+	}
+
+	/**
+	 * The smoothed speed (In m/s), or a negative value when unknown
+	 **/
+	public synchronized float getSpeed () {
+		return smoothedSpeed;
+	}
+
+	/**
+	 * The providers and rates for the current activity and power budget
+	 **/
+	public synchronized Profile getProfile () {
+		return PROFILES[activity][powerBudget];
+	}
+
+	/**
+	 * Which providers to use and how often
+	 **/
+	public static final class Profile {
+		public final boolean useGps;
+		public final boolean useNetwork;
+		public final long minTime;// Millis
+		public final float minDistance;// Meters
+
+		Profile (boolean useGps, boolean useNetwork, long minTime, float minDistance) {
+			this.useGps = useGps;
+			this.useNetwork = useNetwork;
+			this.minTime = minTime;
+			this.minDistance = minDistance;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The {@link ReverseGeocoder} backend using the platform Geocoder, one lookup per coordinate of the batch
+ **/
+public final class AndroidGeocoderBackend implements ReverseGeocoder.Backend<Address> {
+
+	private final Geocoder geocoder;
+
+	public AndroidGeocoderBackend (Context context) {
+		this (context, Locale.getDefault ());
+	}
+
+	public AndroidGeocoderBackend (Context context, Locale locale) {
+		this.geocoder = new Geocoder (context.getApplicationContext (), locale);
+	}
+
+	/**
+	 * Whether the platform has a geocoder service at all
+	 **/
+	public static boolean isAvailable () {
+		return Geocoder.isPresent ();
+	}
+
+	@Override
+	public List<Address> lookup (double[] latitudes, double[] longitudes) throws IOException {
+		List<Address> result = new ArrayList<> (latitudes.length);
+		for (int i = 0; i < latitudes.length; i++) {
+			List<Address> addresses = geocoder.getFromLocation (latitudes[i], longitudes[i], 1);
+			result.add (addresses == null || addresses.isEmpty () ? null : addresses.get (0));
+		}
+
+		return result;
+	}
+}
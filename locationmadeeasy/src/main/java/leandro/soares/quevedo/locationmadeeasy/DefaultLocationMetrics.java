@@ -0,0 +1,143 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Low overhead metrics, kept on lock-free counters and fixed-bucket histograms per provider
+ **/
+public final class DefaultLocationMetrics implements LocationMetricsRecorder {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	private static final long[] TIME_TO_FIRST_FIX_BOUNDS = {100, 250, 500, 1000, 2000, 5000, 10000, 20000, 40000, 60000, 120000};// Millis
+	private static final long[] ACCURACY_BOUNDS = {5, 10, 20, 50, 100, 200, 500, 1000, 2000};// Meters
+	private static final long[] DISPATCH_BOUNDS = {10000, 50000, 100000, 500000, 1000000, 5000000, 16000000, 50000000};// Nanos
+	private static final int PROVIDER_COUNT = ProviderCodes.FUSED + 1;
+	//</editor-fold>
+
+	private static final DefaultLocationMetrics GLOBAL = new DefaultLocationMetrics ();
+
+	private final Histogram[] timeToFirstFix = new Histogram[PROVIDER_COUNT];
+	private final Histogram[] accuracy = new Histogram[PROVIDER_COUNT];
+	private final Histogram dispatchTime = new Histogram (DISPATCH_BOUNDS);
+
+	private final AtomicLong cacheHits = new AtomicLong ();
+	private final AtomicLong liveFixes = new AtomicLong ();
+	private final AtomicLong timedRequests = new AtomicLong ();
+	private final AtomicLong timeouts = new AtomicLong ();
+
+	public DefaultLocationMetrics () {
+		for (int i = 0; i < PROVIDER_COUNT; i++) {
+			timeToFirstFix[i] = new Histogram (TIME_TO_FIRST_FIX_BOUNDS);
+			accuracy[i] = new Histogram (ACCURACY_BOUNDS);
+		}
+	}
+
+	/**
+	 * The process-wide instance used by every helper, unless another recorder is set
+	 **/
+	public static DefaultLocationMetrics getGlobal () {
+		return GLOBAL;
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Recording">
+	@Override
+	public void recordTimeToFirstFix (String provider, long millis) {
+		timeToFirstFix[ProviderCodes.toCode (provider)].record (millis);
+	}
+
+	@Override
+	public void recordFixAccuracy (String provider, float accuracy) {
+		this.accuracy[ProviderCodes.toCode (provider)].record (Math.round (accuracy));
+	}
+
+	@Override
+	public void recordCacheHit () {
+		cacheHits.incrementAndGet ();
+	}
+
+	@Override
+	public void recordLiveFix () {
+		liveFixes.incrementAndGet ();
+	}
+
+	@Override
+	public void recordTimedRequest () {
+		timedRequests.incrementAndGet ();
+	}
+
+	@Override
+	public void recordTimeout () {
+		timeouts.incrementAndGet ();
+	}
+
+	@Override
+	public void recordDispatchTime (long nanos) {
+		dispatchTime.record (nanos);
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Reading">
+
+	/**
+	 * The time to first fix histogram of the provider (In millis)
+	 **/
+	public Histogram getTimeToFirstFix (String provider) {
+		return timeToFirstFix[ProviderCodes.toCode (provider)];
+	}
+
+	/**
+	 * The fix accuracy histogram of the provider (In meters)
+	 **/
+	public Histogram getAccuracy (String provider) {
+		return accuracy[ProviderCodes.toCode (provider)];
+	}
+
+	/**
+	 * The listener dispatch time histogram (In nanos)
+	 **/
+	public Histogram getDispatchTime () {
+		return dispatchTime;
+	}
+
+	public long getCacheHits () {
+		return cacheHits.get ();
+	}
+
+	public long getLiveFixes () {
+		return liveFixes.get ();
+	}
+
+	/**
+	 * The ratio of requests answered by a cached location, from 0 to 1
+	 **/
+	public double getCacheHitRate () {
+		long hits = cacheHits.get ();
+		long total = hits + liveFixes.get ();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long getTimeouts () {
+		return timeouts.get ();
+	}
+
+	/**
+	 * The ratio of timed requests that timed out, from 0 to 1
+	 **/
+	public double getTimeoutRate () {
+		long total = timedRequests.get ();
+		return total == 0 ? 0 : (double) timeouts.get () / total;
+	}
+
+	public void reset () {
+		for (int i = 0; i < PROVIDER_COUNT; i++) {
+			timeToFirstFix[i].reset ();
+			accuracy[i].reset ();
+		}
+		dispatchTime.reset ();
+		cacheHits.set (0);
+		liveFixes.set (0);
+		timedRequests.set (0);
+		timeouts.set (0);
+	}
+	//</editor-fold>
+}
@@ -0,0 +1,29 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+
+/**
+ * Keeps either the current best location or the new one, based on their age, accuracy and provider
+ **/
+public class DefaultLocationStrategy implements LocationStrategy {
+
+	@Override
+	public Location select (Location location, Location currentBestLocation) {
+		boolean isBetter;
+		if (currentBestLocation == null) {
+			isBetter = true;
+		} else {
+			isBetter = FixComparator.isBetterFix (
+					location.getTime (), location.getAccuracy (), location.getProvider (),
+					true, currentBestLocation.getTime (), currentBestLocation.getAccuracy (), currentBestLocation.getProvider ()
+			);
+		}
+
+		return isBetter ? location : currentBestLocation;
+	}
+
+	@Override
+	public void reset () {
+		// Stateless
+	}
+}
@@ -0,0 +1,71 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the provider fixes through a chain of {@link LocationFilter}, a fix rejected by any of them is dropped
+ **/
+public final class FilterPipeline {
+
+	private final List<LocationFilter> filters = new ArrayList<> ();
+	private long acceptedCount;
+	private long rejectedCount;
+
+	/**
+	 * Appends a filter to the end of the chain
+	 **/
+	public synchronized FilterPipeline add (LocationFilter filter) {
+		filters.add (filter);
+		return this;
+	}
+
+	public synchronized boolean remove (LocationFilter filter) {
+		return filters.remove (filter);
+	}
+
+	public synchronized void clear () {
+		filters.clear ();
+	}
+
+	/**
+	 * Runs the fix through the filters, only updating their state when all of them accept it
+	 *
+	 * @return True when the fix was accepted
+	 **/
+	public synchronized boolean filter (double latitude, double longitude, float accuracy, long time) {
+		for (int i = 0; i < filters.size (); i++) {
+			if (!filters.get (i).accept (latitude, longitude, accuracy, time)) {
+				rejectedCount++;
+				return false;
+			}
+		}
+
+		for (int i = 0; i < filters.size (); i++) {
+			filters.get (i).onAccepted (latitude, longitude, accuracy, time);
+		}
+
+		acceptedCount++;
+		return true;
+	}
+
+	/**
+	 * Resets every filter and the counters
+	 **/
+	public synchronized void reset () {
+		for (int i = 0; i < filters.size (); i++) {
+			filters.get (i).reset ();
+		}
+
+		acceptedCount = 0;
+		rejectedCount = 0;
+	}
+
+	public synchronized long getAcceptedCount () {
+		return acceptedCount;
+	}
+
+	public synchronized long getRejectedCount () {
+		return rejectedCount;
+	}
+}
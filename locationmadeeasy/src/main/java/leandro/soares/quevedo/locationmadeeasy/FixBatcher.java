@@ -0,0 +1,72 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Accumulates fixes until either the batch size or the batch time window is reached
+ **/
+final class FixBatcher<T> {
+
+	private final int maxBatchSize;
+	private final long maxBatchWindow;
+
+	private ArrayList<T> batch;
+	private long batchStartTime;
+
+	/**
+	 * @param maxBatchSize   The amount of fixes that forces a flush
+	 * @param maxBatchWindow The time (In millis) since the first fix of the batch that forces a flush
+	 **/
+	FixBatcher (int maxBatchSize, long maxBatchWindow) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException ("The batch size must be at least 1");
+		}
+
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchWindow = maxBatchWindow;
+		this.batch = new ArrayList<> (maxBatchSize);
+	}
+
+	/**
+	 * Adds a fix to the current batch
+	 *
+	 * @return True when the batch should be flushed
+	 **/
+	boolean add (T fix, long now) {
+		if (batch.isEmpty ()) {
+			// The first fix opens the time window
+			batchStartTime = now;
+		}
+
+		batch.add (fix);
+
+		return isFull (now);
+	}
+
+	/**
+	 * Checks whether the batch reached its size or its time window
+	 **/
+	boolean isFull (long now) {
+		if (batch.isEmpty ()) return false;
+
+		return batch.size () >= maxBatchSize || (maxBatchWindow > 0 && now - batchStartTime >= maxBatchWindow);
+	}
+
+	boolean isEmpty () {
+		return batch.isEmpty ();
+	}
+
+	/**
+	 * Retrieves the current batch and starts a new one
+	 **/
+	List<T> drain () {
+		if (batch.isEmpty ()) return Collections.emptyList ();
+
+		List<T> result = Collections.unmodifiableList (batch);
+		batch = new ArrayList<> (maxBatchSize);
+
+		return result;
+	}
+}
@@ -0,0 +1,65 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * The classic pass/fail heuristic to determine the best fix between two of them
+ **/
+final class FixComparator {
+
+	private static final long TWO_MINUTES = 1000 * 60 * 2;
+	private static final int SIGNIFICANT_ACCURACY_DELTA = 200;// Meters
+
+	private FixComparator () {
+	}
+
+	/**
+	 * Method to determine whether a fix is better than the current best fix
+	 *
+	 * @param bestProvider The provider of the current best fix, null when there is no current best fix
+	 **/
+	static boolean isBetterFix (long time, float accuracy, String provider, boolean hasBest, long bestTime, float bestAccuracy, String bestProvider) {
+		if (!hasBest) {
+			// A new location is always better than no location
+			return true;
+		}
+
+		// Check whether the new location fix is newer or older
+		long timeDelta = time - bestTime;
+		boolean isSignificantlyNewer = timeDelta > TWO_MINUTES;
+		boolean isSignificantlyOlder = timeDelta < -TWO_MINUTES;
+		boolean isNewer = timeDelta > 0;
+
+		// If it's been more than two minutes since the current location, use the new location,
+		// because the user has likely moved.
+		if (isSignificantlyNewer) {
+			return true;
+			// If the new location is more than two minutes older, it must be worse.
+		} else if (isSignificantlyOlder) {
+			return false;
+		}
+
+		// Check whether the new location fix is more or less accurate
+		int accuracyDelta = (int) (accuracy - bestAccuracy);
+		boolean isLessAccurate = accuracyDelta > 0;
+		boolean isMoreAccurate = accuracyDelta < 0;
+		boolean isSignificantlyLessAccurate = accuracyDelta > SIGNIFICANT_ACCURACY_DELTA;
+
+		// Check if the old and new location are from the same provider
+		boolean isFromSameProvider = isSameProvider (provider, bestProvider);
+
+		// Determine location quality using a combination of timeliness and accuracy
+		if (isMoreAccurate) {
+			return true;
+		} else if (isNewer && !isLessAccurate) {
+			return true;
+		} else {
+			return isNewer && !isSignificantlyLessAccurate && isFromSameProvider;
+		}
+	}
+
+	/**
+	 * Checks whether two providers are the same
+	 **/
+	static boolean isSameProvider (String provider1, String provider2) {
+		return provider1 == null ? provider2 == null : provider1.equals (provider2);
+	}
+}
@@ -0,0 +1,866 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A queryable history of the fixes, kept in a directory of append-only segment files
+ * <p>
+ * Each segment holds up to a fixed number of fixed-size records in time order, so a time is found by binary search.
+ * A full segment is sealed: it gets a sidecar index of the Z-order codes of its fixes, sorted, and a summary of its
+ * time span and bounding box, then it is mapped read-only. A bounding box query skips the segments outside the time
+ * span or the box, and reads the fixes of the others from the few code ranges covering the box. The segment being
+ * written is kept in memory, appended to its file and synced periodically, and any record cut by a crash is dropped on
+ * open.
+ * <p>
+ * Thread safe, the visitors are called holding the lock of the history.
+ **/
+public final class FixHistory implements Closeable {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final int INDEX_LATITUDE = 0;
+	public static final int INDEX_LONGITUDE = 1;
+	public static final int INDEX_ACCURACY = 2;
+	public static final int INDEX_TIME = 3;
+
+	private static final int MAGIC = 0x4C4D4648;// "LMFH"
+	private static final int INDEX_MAGIC = 0x4C4D4849;// "LMHI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;// Magic and version
+	private static final int INDEX_HEADER_SIZE = 48;// Magic, version, count, reserved, time span and bounding box
+	private static final int RECORD_SIZE = 32;// Time, latitude, longitude, accuracy, speed, bearing and provider
+
+	// The index keys are the code shifted over the record index
+	private static final int INDEX_BITS = 15;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+	private static final int MAX_SEGMENT_CAPACITY = 1 << INDEX_BITS;
+	private static final int DEFAULT_SEGMENT_CAPACITY = 4096;
+	private static final long DEFAULT_SYNC_INTERVAL = 30 * 1000;
+	private static final int FLUSH_RECORDS = 256;
+
+	private static final int SCAN_THRESHOLD = 256;// Records, smaller time slices are scanned instead of using the index
+	private static final int MAX_RANGES = 32;
+	private static final double COORDINATE_SCALE = 1e7;
+	private static final double NEAREST_START_RADIUS = 50;// Meters
+	private static final double NEAREST_GROWTH = 4;
+	//</editor-fold>
+
+	private final File directory;
+	private final int segmentCapacity;
+	private final long syncInterval;
+
+	// Sealed segments in time order, followed by the one being written
+	private final List<Segment> segments = new ArrayList<> ();
+	private Segment active;
+	private RandomAccessFile activeFile;
+	private int flushedCount;
+
+	private long lastSyncTime;
+	private long lastTime = Long.MIN_VALUE;
+	private long size;
+	private boolean closed;
+
+	public FixHistory (File directory) throws IOException {
+		this (directory, DEFAULT_SEGMENT_CAPACITY, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * @param segmentCapacity The number of fixes of a segment, between 16 and 32768
+	 * @param syncInterval    The interval (In millis) between the syncs to the disk
+	 **/
+	public FixHistory (File directory, int segmentCapacity, long syncInterval) throws IOException {
+		if (segmentCapacity < MIN_SEGMENT_CAPACITY || segmentCapacity > MAX_SEGMENT_CAPACITY) {
+			throw new IllegalArgumentException ("Invalid segment capacity");
+		}
+		if (!directory.isDirectory () && !directory.mkdirs ()) {
+			throw new IOException ("Could not create the history at " + directory);
+		}
+
+		this.directory = directory;
+		this.segmentCapacity = segmentCapacity;
+		this.syncInterval = syncInterval;
+
+		int[] ids = listSegments ();
+		for (int i = 0; i < ids.length; i++) {
+			boolean last = i == ids.length - 1;
+			Segment segment = last ? openActive (ids[i]) : openSealed (ids[i]);
+
+			if (segment == active && segment.count >= segmentCapacity) {
+				seal ();
+			} else if (segment != active) {
+				segments.add (segment);
+			}
+
+			if (segment.count > 0) {
+				lastTime = segment.lastTime;
+				size += segment.count;
+			}
+		}
+
+		if (active == null) {
+			createActive (ids.length == 0 ? 0 : ids[ids.length - 1] + 1);
+		}
+		this.lastSyncTime = System.currentTimeMillis ();
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Writing">
+
+	/**
+	 * Appends a fix to the history
+	 *
+	 * @param time     The fix time (In millis)
+	 * @param provider One of the {@link ProviderCodes}
+	 * @return False if the fix is older than the last one, the history only takes the fixes in time order
+	 **/
+	public synchronized boolean append (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider) throws IOException {
+		if (closed) {
+			throw new IOException ("The history is closed");
+		}
+		if (time < lastTime) return false;
+
+		int latitudeE7 = (int) Math.round (clamp (latitude, 90.0) * COORDINATE_SCALE);
+		int longitudeE7 = (int) Math.round (clamp (longitude, 180.0) * COORDINATE_SCALE);
+
+		ByteBuffer records = active.records;
+		int offset = active.count * RECORD_SIZE;
+		records.putLong (offset, time);
+		records.putInt (offset + 8, latitudeE7);
+		records.putInt (offset + 12, longitudeE7);
+		records.putFloat (offset + 16, accuracy);
+		records.putFloat (offset + 20, speed);
+		records.putFloat (offset + 24, bearing);
+		records.putInt (offset + 28, provider);
+		active.include (latitudeE7, longitudeE7, time);
+
+		lastTime = time;
+		size++;
+
+		if (active.count >= segmentCapacity) {
+			int id = active.id;
+			seal ();
+			createActive (id + 1);
+		} else if (active.count - flushedCount >= FLUSH_RECORDS) {
+			flush ();
+		}
+
+		// Periodic sync, so a crash loses at most one interval of fixes
+		long now = System.currentTimeMillis ();
+		if (now - lastSyncTime >= syncInterval) {
+			sync ();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes the appended fixes and syncs the segment to the disk
+	 **/
+	public synchronized void sync () throws IOException {
+		if (closed) return;
+
+		flush ();
+		activeFile.getChannel ().force (false);
+		lastSyncTime = System.currentTimeMillis ();
+	}
+
+	@Override
+	public synchronized void close () throws IOException {
+		if (closed) return;
+
+		try {
+			sync ();
+		} finally {
+			closed = true;
+			activeFile.close ();
+		}
+	}
+
+	/**
+	 * The number of fixes in the history
+	 **/
+	public synchronized long getSize () {
+		return size;
+	}
+
+	private void flush () throws IOException {
+		if (flushedCount == active.count) return;
+
+		ByteBuffer pending = active.records.duplicate ();
+		pending.limit (active.count * RECORD_SIZE);
+		pending.position (flushedCount * RECORD_SIZE);
+
+		FileChannel channel = activeFile.getChannel ();
+		long position = HEADER_SIZE + (long) flushedCount * RECORD_SIZE;
+		while (pending.hasRemaining ()) {
+			position += channel.write (pending, position);
+		}
+		flushedCount = active.count;
+	}
+
+	/**
+	 * Writes the index of the active segment and maps it, the caller creates the next active segment
+	 **/
+	private void seal () throws IOException {
+		flush ();
+		activeFile.getChannel ().force (false);
+		activeFile.close ();
+
+		writeIndex (active);
+		segments.add (openSealed (active.id));
+		active = null;
+		activeFile = null;
+	}
+
+	private void createActive (int id) throws IOException {
+		RandomAccessFile file = new RandomAccessFile (dataFile (id), "rw");
+		ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE);
+		header.putInt (MAGIC).putInt (VERSION).flip ();
+		file.setLength (0);
+		file.getChannel ().write (header, 0);
+
+		active = new Segment (id, ByteBuffer.allocate (segmentCapacity * RECORD_SIZE));
+		activeFile = file;
+		flushedCount = 0;
+	}
+
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Queries">
+
+	/**
+	 * Where the device was at the time, interpolated between the fixes around it
+	 *
+	 * @param time The time (In millis)
+	 * @param out  Receives the latitude, longitude and accuracy radius (In meters), at the INDEX constants
+	 * @return False when the time is outside the recorded span
+	 **/
+	public synchronized boolean getLocationAt (long time, double[] out) {
+		if (size == 0) return false;
+
+		Segment segment = findSegment (time);
+		if (segment == null) return false;
+
+		// The last fix at or before the time, and the one after it, possibly on the next segment
+		int before = segment.upperBound (time) - 1;
+		Segment nextSegment = segment;
+		int after = before + 1;
+		if (after >= segment.count) {
+			nextSegment = nextSegment (segment);
+			after = 0;
+		}
+
+		if (nextSegment == null || segment.time (before) == time) {
+			if (segment.time (before) != time) return false;
+
+			out[INDEX_LATITUDE] = segment.latitude (before) / COORDINATE_SCALE;
+			out[INDEX_LONGITUDE] = segment.longitude (before) / COORDINATE_SCALE;
+			out[INDEX_ACCURACY] = segment.accuracy (before);
+			return true;
+		}
+
+		long startTime = segment.time (before);
+		double fraction = (double) (time - startTime) / (nextSegment.time (after) - startTime);
+
+		double startLongitude = segment.longitude (before) / COORDINATE_SCALE;
+		double endLongitude = nextSegment.longitude (after) / COORDINATE_SCALE;
+		// The shorter way across the antimeridian
+		if (endLongitude - startLongitude > 180.0) {
+			endLongitude -= 360.0;
+		} else if (startLongitude - endLongitude > 180.0) {
+			endLongitude += 360.0;
+		}
+		double longitude = startLongitude + (endLongitude - startLongitude) * fraction;
+		if (longitude > 180.0) {
+			longitude -= 360.0;
+		} else if (longitude < -180.0) {
+			longitude += 360.0;
+		}
+
+		out[INDEX_LATITUDE] = interpolate (segment.latitude (before), nextSegment.latitude (after), fraction) / COORDINATE_SCALE;
+		out[INDEX_LONGITUDE] = longitude;
+		out[INDEX_ACCURACY] = interpolate (segment.accuracy (before), nextSegment.accuracy (after), fraction);
+		return true;
+	}
+
+	/**
+	 * Visits the fixes inside the bounding box and the time span, in time order
+	 * (The box must not cross the antimeridian)
+	 *
+	 * @param fromTime The start (In millis), inclusive
+	 * @param toTime   The end (In millis), inclusive
+	 **/
+	public synchronized void query (double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, long fromTime, long toTime, FixVisitor visitor) {
+		if (minLatitude > maxLatitude || minLongitude > maxLongitude) {
+			throw new IllegalArgumentException ("Invalid bounding box");
+		}
+
+		Box box = new Box (minLatitude, minLongitude, maxLatitude, maxLongitude);
+		if (box.isEmpty () || fromTime > toTime) return;
+
+		int segmentCount = segments.size () + 1;
+		for (int i = 0; i < segmentCount; i++) {
+			Segment segment = i < segments.size () ? segments.get (i) : active;
+			if (segment.count == 0 || segment.lastTime < fromTime) continue;
+			if (segment.firstTime > toTime) return;
+			if (!box.intersects (segment)) continue;
+
+			if (!querySegment (segment, box, fromTime, toTime, visitor)) return;
+		}
+	}
+
+	/**
+	 * Finds the fix nearest to the point, searching boxes of growing radius around it
+	 *
+	 * @param out Receives the latitude, longitude, accuracy radius (In meters) and time (In millis), at the INDEX constants
+	 * @return False when the history is empty
+	 **/
+	public synchronized boolean findNearest (double latitude, double longitude, double[] out) {
+		if (size == 0) return false;
+
+		NearestVisitor nearest = new NearestVisitor (latitude, longitude);
+		double radius = NEAREST_START_RADIUS;
+		while (true) {
+			// The bounding box of the circle of the radius (Matuschek), any fix closer than the radius is inside it
+			double angle = radius / GeoMath.EARTH_RADIUS;
+			double minLatitude = latitude - Math.toDegrees (angle);
+			double maxLatitude = latitude + Math.toDegrees (angle);
+			boolean wholeEarth = angle >= Math.PI;
+
+			if (minLatitude <= -90.0 || maxLatitude >= 90.0 || wholeEarth) {
+				// A pole is inside the circle, every longitude is
+				query (Math.max (minLatitude, -90.0), -180.0, Math.min (maxLatitude, 90.0), 180.0, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+			} else {
+				double sine = Math.sin (angle) / Math.cos (Math.toRadians (latitude));
+				double deltaLongitude = sine >= 1.0 ? 180.0 : Math.toDegrees (Math.asin (sine));
+				double minLongitude = longitude - deltaLongitude;
+				double maxLongitude = longitude + deltaLongitude;
+
+				if (deltaLongitude >= 180.0) {
+					query (minLatitude, -180.0, maxLatitude, 180.0, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+				} else if (minLongitude < -180.0) {
+					query (minLatitude, minLongitude + 360.0, maxLatitude, 180.0, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+					query (minLatitude, -180.0, maxLatitude, maxLongitude, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+				} else if (maxLongitude > 180.0) {
+					query (minLatitude, minLongitude, maxLatitude, 180.0, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+					query (minLatitude, -180.0, maxLatitude, maxLongitude - 360.0, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+				} else {
+					query (minLatitude, minLongitude, maxLatitude, maxLongitude, Long.MIN_VALUE, Long.MAX_VALUE, nearest);
+				}
+			}
+
+			// A fix farther than the radius may have a closer one outside the box
+			if (nearest.found && (nearest.distance <= radius || wholeEarth)) break;
+			radius *= NEAREST_GROWTH;
+		}
+
+		out[INDEX_LATITUDE] = nearest.latitude;
+		out[INDEX_LONGITUDE] = nearest.longitude;
+		out[INDEX_ACCURACY] = nearest.accuracy;
+		out[INDEX_TIME] = nearest.time;
+		return true;
+	}
+
+	/**
+	 * Visits the fixes of the segment inside the box and the time span
+	 *
+	 * @return False if the visitor stopped
+	 **/
+	private boolean querySegment (Segment segment, Box box, long fromTime, long toTime, FixVisitor visitor) {
+		int start = segment.lowerBound (fromTime);
+		int end = segment.upperBound (toTime);
+		if (start >= end) return true;
+
+		// Small slices, the active segment and the segments wholly inside the box are read sequentially
+		if (segment.index == null || end - start <= SCAN_THRESHOLD || box.contains (segment)) {
+			for (int i = start; i < end; i++) {
+				if (box.contains (segment.latitude (i), segment.longitude (i)) && !visit (segment, i, visitor)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		long[] ranges = ZOrder.cover (
+				ZOrder.gridX (box.minLongitude),
+				ZOrder.gridY (box.minLatitude),
+				ZOrder.gridX (box.maxLongitude),
+				ZOrder.gridY (box.maxLatitude),
+				MAX_RANGES
+		);
+
+		int[] candidates = new int[16];
+		int candidateCount = 0;
+		for (int r = 0; r < ranges.length; r += 2) {
+			long lastKey = (ranges[r + 1] << INDEX_BITS) | INDEX_MASK;
+			for (int k = segment.keyLowerBound (ranges[r] << INDEX_BITS); k < segment.count; k++) {
+				long key = segment.key (k);
+				if (key > lastKey) break;
+
+				int i = (int) (key & INDEX_MASK);
+				if (i < start || i >= end || !box.contains (segment.latitude (i), segment.longitude (i))) continue;
+
+				if (candidateCount == candidates.length) {
+					candidates = Arrays.copyOf (candidates, candidateCount * 2);
+				}
+				candidates[candidateCount++] = i;
+			}
+		}
+
+		// Back to time order
+		Arrays.sort (candidates, 0, candidateCount);
+		for (int c = 0; c < candidateCount; c++) {
+			if (!visit (segment, candidates[c], visitor)) return false;
+		}
+		return true;
+	}
+
+	private static boolean visit (Segment segment, int i, FixVisitor visitor) {
+		return visitor.onFix (
+				segment.latitude (i) / COORDINATE_SCALE,
+				segment.longitude (i) / COORDINATE_SCALE,
+				segment.accuracy (i),
+				segment.speed (i),
+				segment.bearing (i),
+				segment.time (i),
+				segment.provider (i)
+		);
+	}
+
+	/**
+	 * The last segment starting at or before the time, null if the time is before the history
+	 **/
+	private Segment findSegment (long time) {
+		int low = 0, high = segments.size ();
+		// The active segment goes last, when it has fixes
+		int count = active.count > 0 ? high + 1 : high;
+		high = count - 1;
+
+		Segment found = null;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Segment segment = middle < segments.size () ? segments.get (middle) : active;
+			if (segment.firstTime <= time) {
+				found = segment;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return found;
+	}
+
+	private Segment nextSegment (Segment segment) {
+		int position = segments.indexOf (segment);
+		if (position < 0) return null;
+		if (position + 1 < segments.size ()) return segments.get (position + 1);
+
+		return active.count > 0 ? active : null;
+	}
+
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Segment files">
+
+	private int[] listSegments () {
+		String[] names = directory.list (new FilenameFilter () {
+			@Override
+			public boolean accept (File dir, String name) {
+				return name.matches ("\\d{8}\\.fixes");
+			}
+		});
+		if (names == null) return new int[0];
+
+		int[] ids = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			ids[i] = Integer.parseInt (names[i].substring (0, 8));
+		}
+		Arrays.sort (ids);
+
+		return ids;
+	}
+
+	private File dataFile (int id) {
+		return new File (directory, String.format (Locale.US, "%08d.fixes", id));
+	}
+
+	private File indexFile (int id) {
+		return new File (directory, String.format (Locale.US, "%08d.index", id));
+	}
+
+	/**
+	 * Loads the last segment into memory to keep appending to it, dropping any record cut by a crash
+	 **/
+	private Segment openActive (int id) throws IOException {
+		RandomAccessFile file = new RandomAccessFile (dataFile (id), "rw");
+		FileChannel channel = file.getChannel ();
+
+		int count = checkDataHeader (channel, id);
+		if (count < 0 || count > MAX_SEGMENT_CAPACITY) {
+			file.close ();
+			throw new IOException ("Corrupted history segment " + id);
+		}
+		channel.truncate (HEADER_SIZE + (long) count * RECORD_SIZE);
+
+		Segment segment = new Segment (id, ByteBuffer.allocate (Math.max (count, segmentCapacity) * RECORD_SIZE));
+		ByteBuffer records = segment.records.duplicate ();
+		records.limit (count * RECORD_SIZE);
+		long position = HEADER_SIZE;
+		while (records.hasRemaining ()) {
+			int read = channel.read (records, position);
+			if (read < 0) {
+				file.close ();
+				throw new IOException ("Corrupted history segment " + id);
+			}
+			position += read;
+		}
+
+		for (int i = 0; i < count; i++) {
+			segment.include (segment.latitude (i), segment.longitude (i), segment.time (i));
+		}
+
+		active = segment;
+		activeFile = file;
+		flushedCount = count;
+		return segment;
+	}
+
+	/**
+	 * Maps a full segment and its index, writing the index if a crash came before it was
+	 **/
+	private Segment openSealed (int id) throws IOException {
+		RandomAccessFile file = new RandomAccessFile (dataFile (id), "r");
+		Segment segment;
+		int count;
+		try {
+			FileChannel channel = file.getChannel ();
+			count = checkDataHeader (channel, id);
+			if (count < 0 || count > MAX_SEGMENT_CAPACITY) {
+				throw new IOException ("Corrupted history segment " + id);
+			}
+
+			ByteBuffer records = channel.map (FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) count * RECORD_SIZE);
+			segment = new Segment (id, records);
+			segment.count = count;
+		} finally {
+			file.close ();
+		}
+
+		if (!readIndex (segment)) {
+			// Rebuild the summary from the records
+			segment.count = 0;
+			for (int i = 0; i < count; i++) {
+				segment.include (segment.latitude (i), segment.longitude (i), segment.time (i));
+			}
+			writeIndex (segment);
+			if (!readIndex (segment)) {
+				throw new IOException ("Could not index the history segment " + id);
+			}
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Checks the magic of the data file
+	 *
+	 * @return The number of complete records, or -1 if it is not a history segment
+	 **/
+	private static int checkDataHeader (FileChannel channel, int id) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE);
+		channel.read (header, 0);
+		header.flip ();
+
+		if (header.remaining () < HEADER_SIZE || header.getInt () != MAGIC || header.getInt () != VERSION) {
+			return -1;
+		}
+
+		long records = (channel.size () - HEADER_SIZE) / RECORD_SIZE;
+		return (int) Math.min (records, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Writes the sorted codes and the summary of the segment, replacing the index file at once
+	 **/
+	private void writeIndex (Segment segment) throws IOException {
+		long[] keys = new long[segment.count];
+		for (int i = 0; i < segment.count; i++) {
+			keys[i] = (ZOrder.encode (segment.latitude (i), segment.longitude (i)) << INDEX_BITS) | i;
+		}
+		Arrays.sort (keys);
+
+		ByteBuffer buffer = ByteBuffer.allocate (INDEX_HEADER_SIZE + keys.length * 8);
+		buffer.putInt (INDEX_MAGIC).putInt (VERSION).putInt (segment.count).putInt (0);
+		buffer.putLong (segment.firstTime).putLong (segment.lastTime);
+		buffer.putInt (segment.minLatitude).putInt (segment.maxLatitude);
+		buffer.putInt (segment.minLongitude).putInt (segment.maxLongitude);
+		for (long key : keys) {
+			buffer.putLong (key);
+		}
+		buffer.flip ();
+
+		File indexFile = indexFile (segment.id);
+		File temporaryFile = new File (directory, indexFile.getName () + ".tmp");
+		RandomAccessFile file = new RandomAccessFile (temporaryFile, "rw");
+		try {
+			file.setLength (0);
+			FileChannel channel = file.getChannel ();
+			while (buffer.hasRemaining ()) {
+				channel.write (buffer);
+			}
+			channel.force (false);
+		} finally {
+			file.close ();
+		}
+
+		if (!temporaryFile.renameTo (indexFile)) {
+			throw new IOException ("Could not write " + indexFile);
+		}
+	}
+
+	/**
+	 * Maps the index of the segment and reads its summary
+	 *
+	 * @return False if the index is missing or does not match the segment
+	 **/
+	private boolean readIndex (Segment segment) throws IOException {
+		File indexFile = indexFile (segment.id);
+		if (!indexFile.isFile ()) return false;
+
+		RandomAccessFile file = new RandomAccessFile (indexFile, "r");
+		try {
+			FileChannel channel = file.getChannel ();
+			if (channel.size () != INDEX_HEADER_SIZE + (long) segment.count * 8) return false;
+
+			ByteBuffer header = ByteBuffer.allocate (INDEX_HEADER_SIZE);
+			channel.read (header, 0);
+			header.flip ();
+			if (header.getInt () != INDEX_MAGIC || header.getInt () != VERSION || header.getInt () != segment.count) {
+				return false;
+			}
+
+			header.getInt ();// Reserved
+			segment.firstTime = header.getLong ();
+			segment.lastTime = header.getLong ();
+			segment.minLatitude = header.getInt ();
+			segment.maxLatitude = header.getInt ();
+			segment.minLongitude = header.getInt ();
+			segment.maxLongitude = header.getInt ();
+			segment.index = channel.map (FileChannel.MapMode.READ_ONLY, INDEX_HEADER_SIZE, (long) segment.count * 8);
+		} finally {
+			file.close ();
+		}
+
+		return true;
+	}
+
+	//</editor-fold>
+
+	private static double clamp (double value, double limit) {
+		return Math.max (-limit, Math.min (value, limit));
+	}
+
+	private static double interpolate (double start, double end, double fraction) {
+		return start + (end - start) * fraction;
+	}
+
+	/**
+	 * The fixed-size records of a segment, on the heap while being written and mapped once sealed
+	 **/
+	private static final class Segment {
+
+		final int id;
+		final ByteBuffer records;
+		ByteBuffer index;// The sorted keys, null until sealed
+		int count;
+
+		long firstTime, lastTime;
+		int minLatitude = Integer.MAX_VALUE, maxLatitude = Integer.MIN_VALUE;
+		int minLongitude = Integer.MAX_VALUE, maxLongitude = Integer.MIN_VALUE;
+
+		Segment (int id, ByteBuffer records) {
+			this.id = id;
+			this.records = records;
+		}
+
+		/**
+		 * Grows the summary with the fix appended at the count
+		 **/
+		void include (int latitude, int longitude, long time) {
+			if (count == 0) {
+				firstTime = time;
+				lastTime = time;
+			} else {
+				firstTime = Math.min (firstTime, time);
+				lastTime = Math.max (lastTime, time);
+			}
+
+			minLatitude = Math.min (minLatitude, latitude);
+			maxLatitude = Math.max (maxLatitude, latitude);
+			minLongitude = Math.min (minLongitude, longitude);
+			maxLongitude = Math.max (maxLongitude, longitude);
+			count++;
+		}
+
+		long time (int i) {
+			return records.getLong (i * RECORD_SIZE);
+		}
+
+		int latitude (int i) {
+			return records.getInt (i * RECORD_SIZE + 8);
+		}
+
+		int longitude (int i) {
+			return records.getInt (i * RECORD_SIZE + 12);
+		}
+
+		float accuracy (int i) {
+			return records.getFloat (i * RECORD_SIZE + 16);
+		}
+
+		float speed (int i) {
+			return records.getFloat (i * RECORD_SIZE + 20);
+		}
+
+		float bearing (int i) {
+			return records.getFloat (i * RECORD_SIZE + 24);
+		}
+
+		int provider (int i) {
+			return records.getInt (i * RECORD_SIZE + 28);
+		}
+
+		long key (int k) {
+			return index.getLong (k * 8);
+		}
+
+		/**
+		 * The first record at or after the time
+		 **/
+		int lowerBound (long time) {
+			int low = 0, high = count;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (time (middle) < time) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * The first record after the time
+		 **/
+		int upperBound (long time) {
+			int low = 0, high = count;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (time (middle) <= time) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * The first index key not below the key
+		 **/
+		int keyLowerBound (long key) {
+			int low = 0, high = count;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (key (middle) < key) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * A query box, in the quantized coordinates of the records
+	 **/
+	private static final class Box {
+
+		final int minLatitude, maxLatitude, minLongitude, maxLongitude;
+
+		Box (double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+			this.minLatitude = (int) Math.ceil (clamp (minLatitude, 90.0) * COORDINATE_SCALE);
+			this.maxLatitude = (int) Math.floor (clamp (maxLatitude, 90.0) * COORDINATE_SCALE);
+			this.minLongitude = (int) Math.ceil (clamp (minLongitude, 180.0) * COORDINATE_SCALE);
+			this.maxLongitude = (int) Math.floor (clamp (maxLongitude, 180.0) * COORDINATE_SCALE);
+		}
+
+		boolean isEmpty () {
+			return minLatitude > maxLatitude || minLongitude > maxLongitude;
+		}
+
+		boolean contains (int latitude, int longitude) {
+			return latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude;
+		}
+
+		boolean contains (Segment segment) {
+			return segment.minLatitude >= minLatitude && segment.maxLatitude <= maxLatitude
+					&& segment.minLongitude >= minLongitude && segment.maxLongitude <= maxLongitude;
+		}
+
+		boolean intersects (Segment segment) {
+			return segment.maxLatitude >= minLatitude && segment.minLatitude <= maxLatitude
+					&& segment.maxLongitude >= minLongitude && segment.minLongitude <= maxLongitude;
+		}
+	}
+
+	/**
+	 * Keeps the visited fix nearest to the point
+	 **/
+	private static final class NearestVisitor implements FixVisitor {
+
+		final double targetLatitude, targetLongitude;
+		boolean found;
+		double distance = Double.MAX_VALUE;
+		double latitude, longitude, accuracy;
+		long time;
+
+		NearestVisitor (double targetLatitude, double targetLongitude) {
+			this.targetLatitude = targetLatitude;
+			this.targetLongitude = targetLongitude;
+		}
+
+		@Override
+		public boolean onFix (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider) {
+			double distance = GeoMath.distance (targetLatitude, targetLongitude, latitude, longitude);
+			if (distance < this.distance) {
+				this.found = true;
+				this.distance = distance;
+				this.latitude = latitude;
+				this.longitude = longitude;
+				this.accuracy = accuracy;
+				this.time = time;
+			}
+			return true;
+		}
+	}
+
+	public interface FixVisitor {
+		/**
+		 * @return False to stop the query
+		 **/
+		boolean onFix (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider);
+	}
+}
@@ -0,0 +1,336 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the fixes to many subscribers, each one receiving only as many fixes as it requested
+ * <p>
+ * Modelled on the reactive streams of java.util.concurrent.Flow (Only available from API 30). A subscriber slower than the
+ * fixes never holds the publishing thread, what it did not take yet waits in its own queue, bounded by its overflow strategy.
+ * <p>
+ * Every subscriber shares the same session, started with the first subscription and stopped once the last one ends.
+ **/
+public final class FixPublisher<T> {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	/**
+	 * Keeps only the latest fix not delivered yet, for the consumers that just show where the user is
+	 **/
+	public static final int OVERFLOW_LATEST = 0;
+
+	/**
+	 * Keeps every fix not delivered yet, failing the subscriber once the capacity is exceeded
+	 **/
+	public static final int OVERFLOW_BUFFER = 1;
+
+	/**
+	 * Keeps the newest fixes not delivered yet, dropping the oldest once the capacity is exceeded
+	 **/
+	public static final int OVERFLOW_DROP_OLDEST = 2;
+	//</editor-fold>
+
+	private final SnapshotList<StreamSubscription> subscriptions = new SnapshotList<> ();
+	private final Runnable startTask;
+	private final Runnable stopTask;
+
+	// Guards the session transitions, so a start is never overtaken by its stop
+	private final Object sessionLock = new Object ();
+	private boolean active;
+
+	/**
+	 * @param startTask Runs when the first subscriber arrives, starting the session
+	 * @param stopTask  Runs when the last subscriber leaves, stopping the session
+	 **/
+	public FixPublisher (Runnable startTask, Runnable stopTask) {
+		this.startTask = startTask;
+		this.stopTask = stopTask;
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Publishing">
+
+	/**
+	 * Subscribes to the fixes, the subscriber is called on the executor and receives nothing before requesting it
+	 *
+	 * @param subscriber The subscriber
+	 * @param overflow   What happens to the fixes the subscriber can't take yet, one of the OVERFLOW constants
+	 * @param capacity   The maximum amount of fixes waiting for the subscriber, ignored by {@link #OVERFLOW_LATEST}
+	 * @param executor   Where the subscriber is called, one call at a time
+	 **/
+	public Subscription subscribe (Subscriber<T> subscriber, int overflow, int capacity, Executor executor) {
+		if (overflow < OVERFLOW_LATEST || overflow > OVERFLOW_DROP_OLDEST) {
+			throw new IllegalArgumentException ("Unknown overflow strategy " + overflow);
+		}
+		if (overflow != OVERFLOW_LATEST && capacity <= 0) {
+			throw new IllegalArgumentException ("The capacity must be positive");
+		}
+
+		final StreamSubscription subscription = new StreamSubscription (subscriber, overflow,
+				overflow == OVERFLOW_LATEST ? 1 : capacity, executor);
+		subscriptions.add (subscription);
+		updateSession ();
+
+		// The subscriber hears about the subscription before anything else
+		executor.execute (new Runnable () {
+			@Override
+			public void run () {
+				try {
+					subscription.subscriber.onSubscribe (subscription);
+				} catch (RuntimeException e) {
+					subscription.fail (e);
+					return;
+				}
+				subscription.drain ();
+			}
+		});
+
+		return subscription;
+	}
+
+	/**
+	 * Offers the fix to every subscriber, never blocking
+	 **/
+	public void publish (T item) {
+		for (StreamSubscription subscription : subscriptions.snapshot ()) {
+			subscription.offer (item);
+		}
+	}
+
+	/**
+	 * Ends every subscription with an error, the fixes still waiting are dropped
+	 **/
+	public void fail (String message) {
+		List<StreamSubscription> failed = subscriptions.drain ();
+		for (StreamSubscription subscription : failed) {
+			subscription.terminate (message);
+		}
+
+		if (!failed.isEmpty ()) {
+			updateSession ();
+		}
+	}
+
+	public boolean hasSubscribers () {
+		return !subscriptions.isEmpty ();
+	}
+
+	public int getSubscriberCount () {
+		return subscriptions.size ();
+	}
+
+	/**
+	 * Starts or stops the session, following the subscriptions
+	 **/
+	private void updateSession () {
+		synchronized (sessionLock) {
+			boolean wanted = !subscriptions.isEmpty ();
+			if (wanted == active) return;
+
+			active = wanted;
+			if (wanted) {
+				startTask.run ();
+			} else {
+				stopTask.run ();
+			}
+		}
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Subscriptions">
+	private final class StreamSubscription implements Subscription {
+		final Subscriber<T> subscriber;
+		private final int overflow;
+		private final int capacity;
+		private final Executor executor;
+
+		// The fixes not delivered yet, and the terminal error, guarded by the queue
+		private final ArrayDeque<T> queue = new ArrayDeque<> ();
+		private String error;
+
+		private final AtomicLong requested = new AtomicLong ();
+		// The pending drains, starting with the one that calls onSubscribe
+		private final AtomicInteger pending = new AtomicInteger (1);
+		private volatile boolean cancelled;
+		// Only touched by the drain, which never runs concurrently
+		private boolean terminated;
+
+		StreamSubscription (Subscriber<T> subscriber, int overflow, int capacity, Executor executor) {
+			this.subscriber = subscriber;
+			this.overflow = overflow;
+			this.capacity = capacity;
+			this.executor = executor;
+		}
+
+		@Override
+		public void request (long n) {
+			if (n <= 0) {
+				throw new IllegalArgumentException ("The demand must be positive");
+			}
+
+			while (true) {
+				long current = requested.get ();
+				// Long.MAX_VALUE stands for an unbounded demand
+				long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				if (requested.compareAndSet (current, next)) break;
+			}
+
+			scheduleDrain ();
+		}
+
+		@Override
+		public void cancel () {
+			cancelled = true;
+			synchronized (queue) {
+				queue.clear ();
+			}
+
+			if (subscriptions.remove (this)) {
+				updateSession ();
+			}
+		}
+
+		void offer (T item) {
+			boolean overflowed = false;
+			synchronized (queue) {
+				if (error != null) return;
+
+				if (queue.size () < capacity) {
+					queue.offer (item);
+				} else if (overflow == OVERFLOW_BUFFER) {
+					// The subscriber could not keep up, it would lose fixes it asked to keep
+					queue.clear ();
+					error = "Limite de localizações pendentes excedido";
+					overflowed = true;
+				} else {
+					queue.poll ();
+					queue.offer (item);
+				}
+			}
+
+			if (overflowed && subscriptions.remove (this)) {
+				updateSession ();
+			}
+
+			scheduleDrain ();
+		}
+
+		void terminate (String message) {
+			synchronized (queue) {
+				queue.clear ();
+				error = message;
+			}
+
+			scheduleDrain ();
+		}
+
+		/**
+		 * Cancels the subscription of a subscriber that threw, telling it why, as it can't be trusted with more fixes
+		 **/
+		void fail (RuntimeException e) {
+			cancel ();
+			terminated = true;
+			subscriber.onError ("Falha ao entregar a localização: " + e);
+		}
+
+		private void scheduleDrain () {
+			if (pending.getAndIncrement () == 0) {
+				executor.execute (new Runnable () {
+					@Override
+					public void run () {
+						drain ();
+					}
+				});
+			}
+		}
+
+		/**
+		 * Delivers the fixes the subscriber asked for, then the terminal error, until no drain is pending
+		 **/
+		void drain () {
+			int missed = 1;
+
+			while (true) {
+				if (cancelled || terminated) return;
+
+				long demand = requested.get ();
+				long emitted = 0;
+				while (emitted != demand) {
+					T item;
+					synchronized (queue) {
+						item = queue.poll ();
+					}
+					if (item == null) break;
+
+					try {
+						subscriber.onNext (item);
+					} catch (RuntimeException e) {
+						fail (e);
+						return;
+					}
+					emitted++;
+
+					if (cancelled) return;
+				}
+
+				if (emitted > 0 && demand != Long.MAX_VALUE) {
+					requested.addAndGet (-emitted);
+				}
+
+				String terminalError;
+				synchronized (queue) {
+					terminalError = queue.isEmpty () ? error : null;
+				}
+				if (terminalError != null) {
+					terminated = true;
+					subscriber.onError (terminalError);
+					return;
+				}
+
+				missed = pending.addAndGet (-missed);
+				if (missed == 0) return;
+			}
+		}
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Interfaces and anonymous classes">
+
+	/**
+	 * The receiver of the fixes, its calls never overlap
+	 **/
+	public interface Subscriber<T> {
+		/**
+		 * Called first, request the fixes through the subscription
+		 **/
+		void onSubscribe (Subscription subscription);
+
+		/**
+		 * Called for each fix, never more times than requested
+		 **/
+		void onNext (T item);
+
+		/**
+		 * Called once the subscription ends with an error, nothing else is called after it
+		 **/
+		void onError (String message);
+	}
+
+	/**
+	 * The link between a subscriber and the publisher
+	 **/
+	public interface Subscription {
+		/**
+		 * Adds to the amount of fixes the subscriber can take, Long.MAX_VALUE for no limit
+		 **/
+		void request (long n);
+
+		/**
+		 * Stops the delivery, the session stops once no subscriber is left
+		 **/
+		void cancel ();
+	}
+	//</editor-fold>
+}
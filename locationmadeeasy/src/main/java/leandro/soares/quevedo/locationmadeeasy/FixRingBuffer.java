@@ -0,0 +1,160 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Fixed-capacity ring buffer of fixes, stored on parallel primitive arrays
+ * <p>
+ * Adding a fix only copies its fields, nothing is allocated. Once full, the oldest fix is overwritten.
+ * Outside of this package the buffer is a read-only view: the index 0 is the oldest fix and {@code size () - 1} the newest.
+ * Not thread safe, the copies handed out are never written again.
+ **/
+public final class FixRingBuffer {
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final float[] accuracies;
+	private final float[] speeds;
+	private final float[] bearings;
+	private final long[] times;
+	private final byte[] providers;
+
+	private int head;// Next write position
+	private int size;
+
+	public FixRingBuffer (int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException ("The capacity must be at least 1");
+		}
+
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		accuracies = new float[capacity];
+		speeds = new float[capacity];
+		bearings = new float[capacity];
+		times = new long[capacity];
+		providers = new byte[capacity];
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Writing">
+
+	/**
+	 * Copies a fix into the buffer, overwriting the oldest one when full
+	 *
+	 * @param provider One of the {@link ProviderCodes}
+	 **/
+	void add (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider) {
+		latitudes[head] = latitude;
+		longitudes[head] = longitude;
+		accuracies[head] = accuracy;
+		speeds[head] = speed;
+		bearings[head] = bearing;
+		times[head] = time;
+		providers[head] = (byte) provider;
+
+		head = (head + 1) % latitudes.length;
+		if (size < latitudes.length) {
+			size++;
+		}
+	}
+
+	void clear () {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * A copy of the buffer, independent of the later writes
+	 **/
+	FixRingBuffer copy () {
+		FixRingBuffer copy = new FixRingBuffer (latitudes.length);
+		System.arraycopy (latitudes, 0, copy.latitudes, 0, latitudes.length);
+		System.arraycopy (longitudes, 0, copy.longitudes, 0, longitudes.length);
+		System.arraycopy (accuracies, 0, copy.accuracies, 0, accuracies.length);
+		System.arraycopy (speeds, 0, copy.speeds, 0, speeds.length);
+		System.arraycopy (bearings, 0, copy.bearings, 0, bearings.length);
+		System.arraycopy (times, 0, copy.times, 0, times.length);
+		System.arraycopy (providers, 0, copy.providers, 0, providers.length);
+		copy.head = head;
+		copy.size = size;
+
+		return copy;
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Reading">
+	public int size () {
+		return size;
+	}
+
+	public int capacity () {
+		return latitudes.length;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	public double getLatitude (int index) {
+		return latitudes[toPosition (index)];
+	}
+
+	public double getLongitude (int index) {
+		return longitudes[toPosition (index)];
+	}
+
+	/**
+	 * The accuracy radius (In meters)
+	 **/
+	public float getAccuracy (int index) {
+		return accuracies[toPosition (index)];
+	}
+
+	/**
+	 * The speed (In m/s)
+	 **/
+	public float getSpeed (int index) {
+		return speeds[toPosition (index)];
+	}
+
+	/**
+	 * The bearing (In degrees)
+	 **/
+	public float getBearing (int index) {
+		return bearings[toPosition (index)];
+	}
+
+	/**
+	 * The fix time (In millis)
+	 **/
+	public long getTime (int index) {
+		return times[toPosition (index)];
+	}
+
+	/**
+	 * The provider name, may be null when unknown
+	 **/
+	public String getProvider (int index) {
+		return ProviderCodes.toName (providers[toPosition (index)]);
+	}
+
+	int getProviderCode (int index) {
+		return providers[toPosition (index)];
+	}
+	//</editor-fold>
+
+	/**
+	 * Converts an index, counted from the oldest fix, into an array position
+	 **/
+	private int toPosition (int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException ("Index " + index + " out of " + size + " fixes");
+		}
+
+		int oldest = head - size;
+		if (oldest < 0) {
+			oldest += latitudes.length;
+		}
+
+		int position = oldest + index;
+		return position >= latitudes.length ? position - latitudes.length : position;
+	}
+}
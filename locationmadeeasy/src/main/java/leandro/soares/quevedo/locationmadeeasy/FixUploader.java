@@ -0,0 +1,439 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads the fixes to a server in compressed batches, one request per batch instead of one per fix
+ * <p>
+ * The fixes wait in a bounded queue, refusing new ones once full, until a batch is full or its oldest fix waited for the
+ * batch delay. The batches are then written to an on-disk queue, which survives the process death, and sent in order
+ * by a background thread, retrying with an exponential backoff while the transport fails.
+ * <p>
+ * A batch is gzip-compressed. Uncompressed, it holds the format version and the amount of fixes as a varint, followed
+ * by the fixes: the provider code byte then the latitude, longitude, accuracy, speed, bearing and time as zigzag varints
+ * of the difference to the previous fix (To zero for the first one), quantized as the {@link TrackFormat} does.
+ **/
+public final class FixUploader implements Closeable {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final int BATCH_VERSION = 1;
+
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final long DEFAULT_BATCH_DELAY = 2 * 60 * 1000;
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	private static final int DEFAULT_MAX_QUEUED_BATCHES = 500;
+	private static final long DEFAULT_INITIAL_BACKOFF = 10 * 1000;
+	private static final long DEFAULT_MAX_BACKOFF = 30 * 60 * 1000;
+	private static final long CLOSE_TIMEOUT = 10 * 1000;
+	//</editor-fold>
+
+	private final Transport transport;
+	private final ScheduledExecutorService worker;
+	private final int batchSize;
+	private final long batchDelay;
+	private final int maxQueuedBatches;
+	private final long initialBackoff;
+	private final long maxBackoff;
+
+	// The fixes not batched yet, guarded by this
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final float[] accuracies;
+	private final float[] speeds;
+	private final float[] bearings;
+	private final long[] times;
+	private final int[] providers;
+	private final long[] arrivalTimes;
+	private int count;
+	private boolean delayScheduled;
+	private long refusedCount;
+
+	// Only touched by the worker thread
+	private final UploadQueue queue;
+	private final Random random = new Random ();
+	private long backoff;
+	private ScheduledFuture<?> retryFuture;
+
+	private volatile boolean closed;
+	private volatile int queuedBatchCount;
+	private volatile long sentBatchCount;
+
+	private final Runnable fullBatchTask = new Runnable () {
+		@Override
+		public void run () {
+			writeBatches (false);
+			upload ();
+		}
+	};
+	private final Runnable batchDelayTask = new Runnable () {
+		@Override
+		public void run () {
+			synchronized (FixUploader.this) {
+				delayScheduled = false;
+				// Closing writes what is left
+				if (count == 0 || closed) return;
+
+				// The batch the delay was armed for may have filled meanwhile, the delay counts from the oldest fix left
+				long remaining = arrivalTimes[0] + batchDelay - System.currentTimeMillis ();
+				if (remaining > 0) {
+					scheduleBatchDelay (remaining);
+					return;
+				}
+			}
+			writeBatches (true);
+			upload ();
+		}
+	};
+	private final Runnable retryTask = new Runnable () {
+		@Override
+		public void run () {
+			retryFuture = null;
+			upload ();
+		}
+	};
+
+	/**
+	 * @param directory Where the batches not sent yet are kept, owned by this uploader
+	 **/
+	public FixUploader (File directory, Transport transport) throws IOException {
+		this (directory, transport, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_DELAY, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_QUEUED_BATCHES,
+				DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+	}
+
+	/**
+	 * @param batchSize        The maximum amount of fixes per batch
+	 * @param batchDelay       The maximum time (In millis) a fix waits for its batch to fill
+	 * @param queueCapacity    The maximum amount of fixes waiting to be batched, the next ones are refused
+	 * @param maxQueuedBatches The maximum amount of batches on the disk, the fixes wait in memory after it
+	 * @param initialBackoff   The time (In millis) before the first retry, doubled by each failure
+	 * @param maxBackoff       The maximum time (In millis) between the retries
+	 **/
+	public FixUploader (File directory, Transport transport, int batchSize, long batchDelay, int queueCapacity, int maxQueuedBatches,
+						long initialBackoff, long maxBackoff) throws IOException {
+		if (batchSize < 1 || queueCapacity < batchSize || maxQueuedBatches < 1 || initialBackoff <= 0 || maxBackoff < initialBackoff) {
+			throw new IllegalArgumentException ("Invalid uploader configuration");
+		}
+
+		this.transport = transport;
+		this.batchSize = batchSize;
+		this.batchDelay = batchDelay;
+		this.maxQueuedBatches = maxQueuedBatches;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+
+		this.latitudes = new double[queueCapacity];
+		this.longitudes = new double[queueCapacity];
+		this.accuracies = new float[queueCapacity];
+		this.speeds = new float[queueCapacity];
+		this.bearings = new float[queueCapacity];
+		this.times = new long[queueCapacity];
+		this.providers = new int[queueCapacity];
+		this.arrivalTimes = new long[queueCapacity];
+
+		this.queue = new UploadQueue (directory);
+		this.queuedBatchCount = queue.size ();
+
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor (1, new ThreadFactory () {
+			@Override
+			public Thread newThread (Runnable runnable) {
+				Thread thread = new Thread (runnable, "LocationHelper-uploader");
+				thread.setDaemon (true);
+				return thread;
+			}
+		});
+		// A retry far in the future must not hold the close
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+		this.worker = executor;
+
+		// Send what the previous process left behind
+		if (queuedBatchCount > 0) {
+			worker.execute (retryTask);
+		}
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Fixes">
+
+	/**
+	 * Adds a fix to the next batch, never blocking
+	 *
+	 * @param time     The fix time (In millis)
+	 * @param provider One of the {@link ProviderCodes}
+	 * @return False when the fix was refused, because the queue is full or the uploader closed
+	 **/
+	public synchronized boolean offer (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider) {
+		if (closed) return false;
+
+		if (count == latitudes.length) {
+			refusedCount++;
+			return false;
+		}
+
+		latitudes[count] = latitude;
+		longitudes[count] = longitude;
+		accuracies[count] = accuracy;
+		speeds[count] = speed;
+		bearings[count] = bearing;
+		times[count] = time;
+		providers[count] = provider;
+		arrivalTimes[count] = System.currentTimeMillis ();
+		count++;
+
+		if (count % batchSize == 0) {
+			worker.execute (fullBatchTask);
+		} else if (!delayScheduled) {
+			scheduleBatchDelay (batchDelay);
+		}
+
+		return true;
+	}
+
+	private synchronized void scheduleBatchDelay (long delay) {
+		delayScheduled = true;
+		worker.schedule (batchDelayTask, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Batches every waiting fix right away and sends the batches
+	 **/
+	public synchronized void flush () {
+		if (closed) return;
+
+		worker.execute (new Runnable () {
+			@Override
+			public void run () {
+				writeBatches (true);
+
+				// Send right away instead of waiting for the retry, a single retry stays scheduled if it fails again
+				if (retryFuture != null) {
+					retryFuture.cancel (false);
+					retryFuture = null;
+				}
+				upload ();
+			}
+		});
+	}
+
+	/**
+	 * The fixes waiting to be batched
+	 **/
+	public synchronized int getPendingFixCount () {
+		return count;
+	}
+
+	/**
+	 * The fixes refused because the queue was full
+	 **/
+	public synchronized long getRefusedFixCount () {
+		return refusedCount;
+	}
+
+	/**
+	 * The batches on the disk waiting to be sent
+	 **/
+	public int getQueuedBatchCount () {
+		return queuedBatchCount;
+	}
+
+	public long getSentBatchCount () {
+		return sentBatchCount;
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Batches">
+
+	/**
+	 * Moves the waiting fixes into batches on the disk, on the worker thread
+	 *
+	 * @param partial Whether a batch smaller than the batch size may be written
+	 **/
+	private void writeBatches (boolean partial) {
+		while (true) {
+			// Backpressure, the fixes wait in memory until the server catches up
+			if (!closed && queue.size () >= maxQueuedBatches) return;
+
+			ByteBuffer encoded;
+			int size;
+			synchronized (this) {
+				if (count == 0 || (!partial && count < batchSize)) return;
+
+				size = Math.min (count, batchSize);
+				encoded = encode (size);
+			}
+
+			try {
+				queue.append (compress (encoded));
+				queuedBatchCount = queue.size ();
+			} catch (IOException e) {
+				// Such as a full disk, the fixes stay in memory for the next attempt
+				e.printStackTrace ();
+				return;
+			}
+
+			// Only this thread removes fixes, the ones offered meanwhile are behind the batch
+			synchronized (this) {
+				count -= size;
+				shift (size);
+			}
+		}
+	}
+
+	/**
+	 * Sends the queued batches in order, on the worker thread
+	 **/
+	private void upload () {
+		while (!closed && retryFuture == null) {
+			byte[] batch;
+			try {
+				batch = queue.peek ();
+			} catch (IOException e) {
+				e.printStackTrace ();
+				return;
+			}
+			if (batch == null) return;
+
+			try {
+				transport.send (batch);
+			} catch (IOException e) {
+				scheduleRetry ();
+				return;
+			}
+
+			backoff = 0;
+			sentBatchCount++;
+			try {
+				queue.remove ();
+				queuedBatchCount = queue.size ();
+			} catch (IOException e) {
+				e.printStackTrace ();
+				return;
+			}
+
+			// There is room on the disk again
+			writeBatches (false);
+		}
+	}
+
+	private void scheduleRetry () {
+		backoff = backoff == 0 ? initialBackoff : Math.min (backoff * 2, maxBackoff);
+
+		// Jitter, so a fleet does not retry in lockstep after an outage
+		long delay = backoff / 2 + (long) (random.nextDouble () * (backoff / 2));
+		retryFuture = worker.schedule (retryTask, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Delta-encodes the first fixes, uncompressed
+	 **/
+	private ByteBuffer encode (int size) {
+		ByteBuffer buffer = ByteBuffer.allocate (11 + size * TrackFormat.MAX_RECORD_SIZE);
+		buffer.put ((byte) BATCH_VERSION);
+		TrackFormat.writeVarLong (buffer, size);
+
+		long lastLatitude = 0, lastLongitude = 0, lastAccuracy = 0, lastSpeed = 0, lastBearing = 0, lastTime = 0;
+		for (int i = 0; i < size; i++) {
+			long latitude = Math.round (latitudes[i] * TrackFormat.COORDINATE_SCALE);
+			long longitude = Math.round (longitudes[i] * TrackFormat.COORDINATE_SCALE);
+			long accuracy = Math.round (accuracies[i] * TrackFormat.ACCURACY_SCALE);
+			long speed = Math.round (speeds[i] * TrackFormat.SPEED_SCALE);
+			long bearing = Math.round (bearings[i] * TrackFormat.BEARING_SCALE);
+
+			buffer.put ((byte) providers[i]);
+			TrackFormat.writeSignedVarLong (buffer, latitude - lastLatitude);
+			TrackFormat.writeSignedVarLong (buffer, longitude - lastLongitude);
+			TrackFormat.writeSignedVarLong (buffer, accuracy - lastAccuracy);
+			TrackFormat.writeSignedVarLong (buffer, speed - lastSpeed);
+			TrackFormat.writeSignedVarLong (buffer, bearing - lastBearing);
+			TrackFormat.writeSignedVarLong (buffer, times[i] - lastTime);
+
+			lastLatitude = latitude;
+			lastLongitude = longitude;
+			lastAccuracy = accuracy;
+			lastSpeed = speed;
+			lastBearing = bearing;
+			lastTime = times[i];
+		}
+
+		buffer.flip ();
+		return buffer;
+	}
+
+	private static byte[] compress (ByteBuffer encoded) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream (encoded.remaining () / 2 + 32);
+		GZIPOutputStream gzip = new GZIPOutputStream (output);
+		gzip.write (encoded.array (), encoded.arrayOffset () + encoded.position (), encoded.remaining ());
+		gzip.close ();
+
+		return output.toByteArray ();
+	}
+
+	/**
+	 * Drops the first fixes, already batched
+	 **/
+	private void shift (int size) {
+		System.arraycopy (latitudes, size, latitudes, 0, count);
+		System.arraycopy (longitudes, size, longitudes, 0, count);
+		System.arraycopy (accuracies, size, accuracies, 0, count);
+		System.arraycopy (speeds, size, speeds, 0, count);
+		System.arraycopy (bearings, size, bearings, 0, count);
+		System.arraycopy (times, size, times, 0, count);
+		System.arraycopy (providers, size, providers, 0, count);
+		System.arraycopy (arrivalTimes, size, arrivalTimes, 0, count);
+	}
+	//</editor-fold>
+
+	/**
+	 * Writes the waiting fixes to the disk and stops the background thread, the batches not sent yet are sent by the
+	 * next uploader opened on the same directory. Blocks while a batch is being sent
+	 **/
+	@Override
+	public void close () throws IOException {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+
+		worker.execute (new Runnable () {
+			@Override
+			public void run () {
+				writeBatches (true);
+			}
+		});
+		worker.shutdown ();
+
+		try {
+			// Otherwise the worker is still sending, it stops right after and the queue is left to the process end
+			if (worker.awaitTermination (CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				queue.close ();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+		}
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Interfaces and anonymous classes">
+
+	/**
+	 * How the batches reach the server
+	 **/
+	public interface Transport {
+		/**
+		 * Sends one gzip-compressed batch, this is called on a background thread.
+		 * Returning removes the batch from the queue, so a batch the server refused for good should not throw
+		 *
+		 * @throws IOException When the batch should be sent again later, the batches behind it wait
+		 **/
+		void send (byte[] batch) throws IOException;
+	}
+	//</editor-fold>
+}
@@ -0,0 +1,327 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Geodesic math over plain coordinates, with batch variants working on primitive arrays
+ * <p>
+ * The batch methods allocate nothing per coordinate. Large inputs are split among the available processors.
+ **/
+public final class GeoMath {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final double EARTH_RADIUS = 6371008.8;// Meters
+	public static final double METERS_PER_DEGREE = 111320.0;
+
+	/**
+	 * Great-circle math, exact on the sphere
+	 **/
+	public static final int MODE_HAVERSINE = 0;
+	/**
+	 * Equirectangular approximation, distances within 0.1% and bearings within 0.1° of the great-circle result.
+	 * Coordinates farther than {@link #FAST_MODE_MAX_DISTANCE} or near the poles fall back to the great-circle math
+	 **/
+	public static final int MODE_FAST = 1;
+
+	public static final double FAST_MODE_MAX_DISTANCE = 100000;// Meters
+	private static final double FAST_MODE_MIN_COSINE = 0.2;// Near the poles (Above ~78°) the approximation degrades
+
+	private static final int PARALLEL_THRESHOLD = 16384;
+	private static final double RADIANS = Math.PI / 180.0;
+	//</editor-fold>
+
+	private static ExecutorService parallelExecutor;
+
+	private GeoMath () {
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Single coordinate">
+
+	/**
+	 * The great-circle distance (In meters) between two coordinates, using the haversine formula
+	 **/
+	public static double distance (double latitude1, double longitude1, double latitude2, double longitude2) {
+		double phi1 = latitude1 * RADIANS;
+		double phi2 = latitude2 * RADIANS;
+		double sinHalfDeltaPhi = Math.sin ((phi2 - phi1) / 2.0);
+		double sinHalfDeltaLambda = Math.sin ((longitude2 - longitude1) * RADIANS / 2.0);
+
+		double a = sinHalfDeltaPhi * sinHalfDeltaPhi + Math.cos (phi1) * Math.cos (phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+		return 2.0 * EARTH_RADIUS * Math.asin (Math.min (1.0, Math.sqrt (a)));
+	}
+
+	/**
+	 * The distance (In meters) between two coordinates
+	 *
+	 * @param mode MODE_HAVERSINE or MODE_FAST
+	 **/
+	public static double distance (double latitude1, double longitude1, double latitude2, double longitude2, int mode) {
+		if (mode == MODE_FAST) {
+			return fastDistance (latitude1, longitude1, Math.cos (latitude1 * RADIANS), Math.sin (latitude1 * RADIANS), latitude2, longitude2);
+		}
+
+		return distance (latitude1, longitude1, latitude2, longitude2);
+	}
+
+	/**
+	 * The initial great-circle bearing (In degrees, clockwise from north) from the first to the second coordinate
+	 **/
+	public static double bearing (double latitude1, double longitude1, double latitude2, double longitude2) {
+		double phi1 = latitude1 * RADIANS;
+		double phi2 = latitude2 * RADIANS;
+		double deltaLambda = (longitude2 - longitude1) * RADIANS;
+
+		double y = Math.sin (deltaLambda) * Math.cos (phi2);
+		double x = Math.cos (phi1) * Math.sin (phi2) - Math.sin (phi1) * Math.cos (phi2) * Math.cos (deltaLambda);
+		return normalizeBearing (Math.atan2 (y, x) / RADIANS);
+	}
+
+	/**
+	 * The amount of meters in one degree of longitude at the latitude
+	 **/
+	public static double metersPerDegreeLongitude (double latitude) {
+		return METERS_PER_DEGREE * Math.max (Math.cos (latitude * RADIANS), 1e-6);
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Batch">
+
+	/**
+	 * Computes the distance (In meters) from the origin to each coordinate
+	 *
+	 * @param out  Receives the distances, at least as long as the coordinates
+	 * @param mode MODE_HAVERSINE or MODE_FAST
+	 **/
+	public static void distances (double latitude, double longitude, double[] latitudes, double[] longitudes, double[] out, int mode) {
+		run (OPERATION_DISTANCE, latitude, longitude, latitudes, longitudes, out, mode, 0, latitudes.length);
+	}
+
+	/**
+	 * Computes the distance (In meters) from the origin to the coordinates in the range, the result goes to the same range of the output
+	 **/
+	public static void distances (double latitude, double longitude, double[] latitudes, double[] longitudes, int offset, int length, double[] out, int mode) {
+		run (OPERATION_DISTANCE, latitude, longitude, latitudes, longitudes, out, mode, offset, offset + length);
+	}
+
+	/**
+	 * Computes the bearing (In degrees, clockwise from north) from the origin to each coordinate
+	 *
+	 * @param out  Receives the bearings, at least as long as the coordinates
+	 * @param mode MODE_HAVERSINE or MODE_FAST
+	 **/
+	public static void bearings (double latitude, double longitude, double[] latitudes, double[] longitudes, double[] out, int mode) {
+		run (OPERATION_BEARING, latitude, longitude, latitudes, longitudes, out, mode, 0, latitudes.length);
+	}
+
+	/**
+	 * Computes the bearing (In degrees) from the origin to the coordinates in the range, the result goes to the same range of the output
+	 **/
+	public static void bearings (double latitude, double longitude, double[] latitudes, double[] longitudes, int offset, int length, double[] out, int mode) {
+		run (OPERATION_BEARING, latitude, longitude, latitudes, longitudes, out, mode, offset, offset + length);
+	}
+
+	/**
+	 * Finds the coordinates within the radius of the origin
+	 *
+	 * @param radius The radius (In meters)
+	 * @param out    Receives whether each coordinate is within the radius
+	 * @return The amount of coordinates within the radius
+	 **/
+	public static int withinRadius (double latitude, double longitude, double[] latitudes, double[] longitudes, double radius, boolean[] out) {
+		if (latitudes.length != longitudes.length || out.length < latitudes.length) {
+			throw new IllegalArgumentException ("The coordinate and output arrays must have matching lengths");
+		}
+
+		// The fast mode is exact enough for a radius check, the far coordinates use the haversine math anyway
+		double cosLatitude = Math.cos (latitude * RADIANS);
+		double sinLatitude = Math.sin (latitude * RADIANS);
+
+		int count = 0;
+		for (int i = 0; i < latitudes.length; i++) {
+			out[i] = fastDistance (latitude, longitude, cosLatitude, sinLatitude, latitudes[i], longitudes[i]) <= radius;
+			if (out[i]) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Finds the coordinate closest to the origin
+	 *
+	 * @return The index of the closest coordinate, -1 when there are none
+	 **/
+	public static int nearest (double latitude, double longitude, double[] latitudes, double[] longitudes) {
+		if (latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException ("The coordinate arrays must have matching lengths");
+		}
+
+		double cosLatitude = Math.cos (latitude * RADIANS);
+		double sinLatitude = Math.sin (latitude * RADIANS);
+
+		int nearest = -1;
+		double nearestDistance = Double.MAX_VALUE;
+		for (int i = 0; i < latitudes.length; i++) {
+			double distance = fastDistance (latitude, longitude, cosLatitude, sinLatitude, latitudes[i], longitudes[i]);
+			if (distance < nearestDistance) {
+				nearestDistance = distance;
+				nearest = i;
+			}
+		}
+
+		return nearest;
+	}
+
+	private static final int OPERATION_DISTANCE = 0;
+	private static final int OPERATION_BEARING = 1;
+
+	/**
+	 * Runs the operation, splitting large inputs among the processors
+	 **/
+	private static void run (final int operation, final double latitude, final double longitude, final double[] latitudes, final double[] longitudes,
+							 final double[] out, final int mode, int from, int to) {
+		if (from < 0 || from > to || to > latitudes.length || to > longitudes.length || to > out.length) {
+			throw new IllegalArgumentException ("The range must fit the coordinate and output arrays");
+		}
+		if (mode != MODE_HAVERSINE && mode != MODE_FAST) {
+			throw new IllegalArgumentException ("Unknown mode " + mode);
+		}
+
+		int processors = Runtime.getRuntime ().availableProcessors ();
+		int length = to - from;
+		if (length < PARALLEL_THRESHOLD || processors < 2) {
+			compute (operation, latitude, longitude, latitudes, longitudes, out, mode, from, to);
+			return;
+		}
+
+		// One chunk per processor, the calling thread takes the last one
+		int chunks = Math.min (processors, length / (PARALLEL_THRESHOLD / 4));
+		int chunkSize = (length + chunks - 1) / chunks;
+		final CountDownLatch latch = new CountDownLatch (chunks - 1);
+		ExecutorService executor = getParallelExecutor ();
+
+		for (int chunk = 0; chunk < chunks - 1; chunk++) {
+			final int chunkFrom = from + chunk * chunkSize;
+			final int chunkTo = Math.min (to, chunkFrom + chunkSize);
+			executor.execute (new Runnable () {
+				@Override
+				public void run () {
+					try {
+						compute (operation, latitude, longitude, latitudes, longitudes, out, mode, chunkFrom, chunkTo);
+					} finally {
+						latch.countDown ();
+					}
+				}
+			});
+		}
+
+		compute (operation, latitude, longitude, latitudes, longitudes, out, mode, from + (chunks - 1) * chunkSize, to);
+
+		try {
+			latch.await ();
+		} catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+			throw new IllegalStateException ("Interrupted while computing", e);
+		}
+	}
+
+	private static void compute (int operation, double latitude, double longitude, double[] latitudes, double[] longitudes, double[] out, int mode, int from, int to) {
+		double cosLatitude = Math.cos (latitude * RADIANS);
+		double sinLatitude = Math.sin (latitude * RADIANS);
+
+		if (operation == OPERATION_DISTANCE) {
+			if (mode == MODE_FAST) {
+				for (int i = from; i < to; i++) {
+					out[i] = fastDistance (latitude, longitude, cosLatitude, sinLatitude, latitudes[i], longitudes[i]);
+				}
+			} else {
+				for (int i = from; i < to; i++) {
+					out[i] = haversine (latitude, longitude, cosLatitude, latitudes[i], longitudes[i]);
+				}
+			}
+		} else {
+			if (mode == MODE_FAST) {
+				for (int i = from; i < to; i++) {
+					out[i] = fastBearing (latitude, longitude, cosLatitude, sinLatitude, latitudes[i], longitudes[i]);
+				}
+			} else {
+				for (int i = from; i < to; i++) {
+					out[i] = bearing (latitude, longitude, latitudes[i], longitudes[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Haversine with the cosine of the origin precomputed
+	 **/
+	private static double haversine (double latitude1, double longitude1, double cosLatitude1, double latitude2, double longitude2) {
+		double sinHalfDeltaPhi = Math.sin ((latitude2 - latitude1) * RADIANS / 2.0);
+		double sinHalfDeltaLambda = Math.sin ((longitude2 - longitude1) * RADIANS / 2.0);
+
+		double a = sinHalfDeltaPhi * sinHalfDeltaPhi + cosLatitude1 * Math.cos (latitude2 * RADIANS) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+		return 2.0 * EARTH_RADIUS * Math.asin (Math.min (1.0, Math.sqrt (a)));
+	}
+
+	/**
+	 * Equirectangular distance, the cosine of the mean latitude comes from a first order expansion around the origin
+	 **/
+	private static double fastDistance (double latitude1, double longitude1, double cosLatitude1, double sinLatitude1, double latitude2, double longitude2) {
+		double deltaPhi = (latitude2 - latitude1) * RADIANS;
+		double deltaLambda = wrapLongitude (longitude2 - longitude1) * RADIANS;
+		double cosMean = cosLatitude1 - sinLatitude1 * deltaPhi / 2.0;
+
+		double x = deltaLambda * cosMean;
+		double distance = EARTH_RADIUS * Math.sqrt (x * x + deltaPhi * deltaPhi);
+		if (distance > FAST_MODE_MAX_DISTANCE || cosLatitude1 < FAST_MODE_MIN_COSINE) {
+			return haversine (latitude1, longitude1, cosLatitude1, latitude2, longitude2);
+		}
+
+		return distance;
+	}
+
+	private static double fastBearing (double latitude1, double longitude1, double cosLatitude1, double sinLatitude1, double latitude2, double longitude2) {
+		double deltaPhi = (latitude2 - latitude1) * RADIANS;
+		double deltaLambda = wrapLongitude (longitude2 - longitude1) * RADIANS;
+		double cosMean = cosLatitude1 - sinLatitude1 * deltaPhi / 2.0;
+
+		double x = deltaLambda * cosMean;
+		if (EARTH_RADIUS * Math.sqrt (x * x + deltaPhi * deltaPhi) > FAST_MODE_MAX_DISTANCE || cosLatitude1 < FAST_MODE_MIN_COSINE) {
+			return bearing (latitude1, longitude1, latitude2, longitude2);
+		}
+
+		// The meridians converge, so the initial bearing turns by half the longitude delta times the sine of the latitude
+		double sinMean = sinLatitude1 + cosLatitude1 * deltaPhi / 2.0;
+		return normalizeBearing ((Math.atan2 (x, deltaPhi) - deltaLambda * sinMean / 2.0) / RADIANS);
+	}
+
+	private static double wrapLongitude (double delta) {
+		if (delta > 180.0) return delta - 360.0;
+		if (delta < -180.0) return delta + 360.0;
+		return delta;
+	}
+
+	private static double normalizeBearing (double bearing) {
+		return bearing < 0 ? bearing + 360.0 : bearing;
+	}
+
+	private static synchronized ExecutorService getParallelExecutor () {
+		if (parallelExecutor == null) {
+			parallelExecutor = Executors.newFixedThreadPool (Runtime.getRuntime ().availableProcessors (), new ThreadFactory () {
+				@Override
+				public Thread newThread (Runnable runnable) {
+					Thread thread = new Thread (runnable, "LocationHelper-geomath");
+					thread.setDaemon (true);
+					return thread;
+				}
+			});
+		}
+
+		return parallelExecutor;
+	}
+	//</editor-fold>
+}
@@ -0,0 +1,142 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * A circular or polygonal area evaluated by the {@link GeofenceEngine}
+ **/
+public final class Geofence {
+
+	public static final int TYPE_CIRCLE = 1;
+	public static final int TYPE_POLYGON = 2;
+
+	private final String id;
+	private final int type;
+
+	// Circle
+	private final double latitude, longitude, radius;
+
+	// Polygon vertices
+	private final double[] latitudes, longitudes;
+
+	// Bounding box, the minimum longitude is above the maximum when the box crosses the antimeridian
+	final double minLatitude, maxLatitude, minLongitude, maxLongitude;
+
+	private Geofence (String id, int type, double latitude, double longitude, double radius, double[] latitudes, double[] longitudes,
+					  double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+		this.id = id;
+		this.type = type;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.radius = radius;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.minLatitude = minLatitude;
+		this.maxLatitude = maxLatitude;
+		this.minLongitude = minLongitude;
+		this.maxLongitude = maxLongitude;
+	}
+
+	/**
+	 * Creates a circular geofence
+	 *
+	 * @param radius The radius (In meters)
+	 **/
+	public static Geofence circle (String id, double latitude, double longitude, double radius) {
+		if (radius <= 0) {
+			throw new IllegalArgumentException ("The radius must be positive");
+		}
+
+		double latitudeDelta = radius / GeoMath.METERS_PER_DEGREE;
+		double longitudeDelta = radius / GeoMath.metersPerDegreeLongitude (Math.min (90.0, Math.abs (latitude) + latitudeDelta));
+
+		double minLongitude = longitude - longitudeDelta;
+		double maxLongitude = longitude + longitudeDelta;
+		if (longitudeDelta >= 180.0) {
+			// Around a pole, every longitude
+			minLongitude = -180.0;
+			maxLongitude = 180.0;
+		} else if (minLongitude < -180.0) {
+			minLongitude += 360.0;
+		} else if (maxLongitude > 180.0) {
+			maxLongitude -= 360.0;
+		}
+
+		return new Geofence (id, TYPE_CIRCLE, latitude, longitude, radius, null, null,
+				Math.max (-90.0, latitude - latitudeDelta), Math.min (90.0, latitude + latitudeDelta), minLongitude, maxLongitude);
+	}
+
+	/**
+	 * Creates a polygonal geofence, the vertices must not cross the antimeridian
+	 **/
+	public static Geofence polygon (String id, double[] latitudes, double[] longitudes) {
+		if (latitudes.length != longitudes.length || latitudes.length < 3) {
+			throw new IllegalArgumentException ("A polygon needs at least 3 vertices");
+		}
+
+		double minLatitude = Double.MAX_VALUE, maxLatitude = -Double.MAX_VALUE;
+		double minLongitude = Double.MAX_VALUE, maxLongitude = -Double.MAX_VALUE;
+		for (int i = 0; i < latitudes.length; i++) {
+			minLatitude = Math.min (minLatitude, latitudes[i]);
+			maxLatitude = Math.max (maxLatitude, latitudes[i]);
+			minLongitude = Math.min (minLongitude, longitudes[i]);
+			maxLongitude = Math.max (maxLongitude, longitudes[i]);
+		}
+
+		return new Geofence (id, TYPE_POLYGON, 0, 0, 0, latitudes.clone (), longitudes.clone (), minLatitude, maxLatitude, minLongitude, maxLongitude);
+	}
+
+	/**
+	 * Checks whether the coordinate is inside the geofence
+	 **/
+	public boolean contains (double latitude, double longitude) {
+		// Cheap rejection first
+		if (latitude < minLatitude || latitude > maxLatitude) return false;
+		if (crossesAntimeridian () ? longitude < minLongitude && longitude > maxLongitude : longitude < minLongitude || longitude > maxLongitude) {
+			return false;
+		}
+
+		if (type == TYPE_CIRCLE) {
+			return GeoMath.distance (this.latitude, this.longitude, latitude, longitude, GeoMath.MODE_FAST) <= radius;
+		}
+
+		// Ray casting over the vertices
+		boolean inside = false;
+		for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+			if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+					&& longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i]) / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+				inside = !inside;
+			}
+		}
+
+		return inside;
+	}
+
+	/**
+	 * Whether the bounding box wraps from the east of the antimeridian to the west of it
+	 **/
+	boolean crossesAntimeridian () {
+		return minLongitude > maxLongitude;
+	}
+
+	public String getId () {
+		return id;
+	}
+
+	public int getType () {
+		return type;
+	}
+
+	public double getLatitude () {
+		return latitude;
+	}
+
+	public double getLongitude () {
+		return longitude;
+	}
+
+	/**
+	 * The radius of a circular geofence (In meters)
+	 **/
+	public double getRadius () {
+		return radius;
+	}
+}
@@ -0,0 +1,344 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates any amount of geofences against each fix, emitting enter, exit and dwell transitions
+ * <p>
+ * The geofences are indexed on a uniform latitude/longitude grid, so each fix only checks the geofences of its cell.
+ * Geofences too large for the grid are kept apart and checked on every fix. The transitions are collected under the
+ * lock of the engine and the listener is called after releasing it, so the listener may call back into the engine.
+ **/
+public final class GeofenceEngine {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final int TRANSITION_ENTER = 1;
+	public static final int TRANSITION_EXIT = 2;
+	public static final int TRANSITION_DWELL = 4;
+
+	private static final double DEFAULT_CELL_SIZE = 0.01;// Degrees, about 1km
+	private static final int MAX_CELLS_PER_GEOFENCE = 1024;
+	//</editor-fold>
+
+	private final double cellSize;
+	private final long dwellTime;
+
+	private final Map<String, Geofence> geofences = new HashMap<> ();
+	private final Map<Long, List<Geofence>> cells = new HashMap<> ();
+	private final List<Geofence> largeGeofences = new ArrayList<> ();
+
+	// Geofences the last evaluated fix was inside of
+	private final Map<Geofence, InsideState> insideStates = new HashMap<> ();
+	private long evaluation;
+
+	// The transitions of the fix being evaluated, dispatched once the engine is unlocked
+	private final List<Geofence> pendingGeofences = new ArrayList<> ();
+	private int[] pendingTransitions = new int[8];
+	private int pendingCount;
+
+	private OnGeofenceTransitionListener listener;
+
+	/**
+	 * @param dwellTime The time (In millis) inside a geofence that triggers the dwell transition
+	 **/
+	public GeofenceEngine (long dwellTime) {
+		this (dwellTime, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param dwellTime The time (In millis) inside a geofence that triggers the dwell transition
+	 * @param cellSize  The size of the index cells (In degrees), it should be close to the typical geofence size
+	 **/
+	public GeofenceEngine (long dwellTime, double cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException ("The cell size must be positive");
+		}
+
+		this.dwellTime = dwellTime;
+		this.cellSize = cellSize;
+	}
+
+	public synchronized void setOnGeofenceTransitionListener (OnGeofenceTransitionListener listener) {
+		this.listener = listener;
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Index">
+
+	/**
+	 * Adds a geofence, replacing any other with the same id
+	 **/
+	public synchronized void add (Geofence geofence) {
+		remove (geofence.getId ());
+		geofences.put (geofence.getId (), geofence);
+
+		int minRow = row (geofence.minLatitude), maxRow = row (geofence.maxLatitude);
+		int[] columns = columnRanges (geofence);
+
+		long columnCount = 0;
+		for (int range = 0; range < columns.length; range += 2) {
+			columnCount += columns[range + 1] - columns[range] + 1;
+		}
+		if ((maxRow - minRow + 1) * columnCount > MAX_CELLS_PER_GEOFENCE) {
+			largeGeofences.add (geofence);
+			return;
+		}
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int range = 0; range < columns.length; range += 2) {
+				for (int column = columns[range]; column <= columns[range + 1]; column++) {
+					Long key = key (row, column);
+					List<Geofence> cell = cells.get (key);
+					if (cell == null) {
+						cell = new ArrayList<> (2);
+						cells.put (key, cell);
+					}
+					cell.add (geofence);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a geofence, without emitting its exit transition
+	 *
+	 * @return True when the geofence existed
+	 **/
+	public synchronized boolean remove (String id) {
+		Geofence geofence = geofences.remove (id);
+		if (geofence == null) return false;
+
+		insideStates.remove (geofence);
+		if (largeGeofences.remove (geofence)) return true;
+
+		int[] columns = columnRanges (geofence);
+		for (int row = row (geofence.minLatitude); row <= row (geofence.maxLatitude); row++) {
+			for (int range = 0; range < columns.length; range += 2) {
+				for (int column = columns[range]; column <= columns[range + 1]; column++) {
+					Long key = key (row, column);
+					List<Geofence> cell = cells.get (key);
+					if (cell != null && cell.remove (geofence) && cell.isEmpty ()) {
+						cells.remove (key);
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	public synchronized void clear () {
+		geofences.clear ();
+		cells.clear ();
+		largeGeofences.clear ();
+		insideStates.clear ();
+	}
+
+	public synchronized int size () {
+		return geofences.size ();
+	}
+
+	public synchronized Geofence get (String id) {
+		return geofences.get (id);
+	}
+
+	/**
+	 * Bulk loads geofences from a text source, one per line:
+	 * <pre>
+	 * circle,id,latitude,longitude,radius
+	 * polygon,id,latitude1,longitude1,latitude2,longitude2,latitude3,longitude3[,...]
+	 * </pre>
+	 * Empty lines and lines starting with # are ignored.
+	 *
+	 * @return The amount of loaded geofences
+	 **/
+	public int load (Reader source) throws IOException {
+		BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader (source);
+
+		int count = 0;
+		int lineNumber = 0;
+		String line;
+		while ((line = reader.readLine ()) != null) {
+			lineNumber++;
+			line = line.trim ();
+			if (line.isEmpty () || line.startsWith ("#")) continue;
+
+			try {
+				add (parse (line.split (",")));
+				count++;
+			} catch (RuntimeException e) {
+				throw new IOException ("Invalid geofence at line " + lineNumber + ": " + e.getMessage ());
+			}
+		}
+
+		return count;
+	}
+
+	private static Geofence parse (String[] fields) {
+		String type = fields[0].trim ();
+		String id = fields[1].trim ();
+
+		if ("circle".equals (type) && fields.length == 5) {
+			return Geofence.circle (id, Double.parseDouble (fields[2]), Double.parseDouble (fields[3]), Double.parseDouble (fields[4]));
+		} else if ("polygon".equals (type) && fields.length % 2 == 0) {
+			int vertices = (fields.length - 2) / 2;
+			double[] latitudes = new double[vertices];
+			double[] longitudes = new double[vertices];
+			for (int i = 0; i < vertices; i++) {
+				latitudes[i] = Double.parseDouble (fields[2 + i * 2]);
+				longitudes[i] = Double.parseDouble (fields[3 + i * 2]);
+			}
+			return Geofence.polygon (id, latitudes, longitudes);
+		}
+
+		throw new IllegalArgumentException ("Unknown geofence format");
+	}
+
+	private int row (double latitude) {
+		return (int) Math.floor (latitude / cellSize);
+	}
+
+	private int column (double longitude) {
+		return (int) Math.floor (longitude / cellSize);
+	}
+
+	/**
+	 * The column ranges of the bounding box, as inclusive start and end pairs, two ranges when it crosses the antimeridian
+	 **/
+	private int[] columnRanges (Geofence geofence) {
+		if (geofence.crossesAntimeridian ()) {
+			return new int[] {column (geofence.minLongitude), column (180.0), column (-180.0), column (geofence.maxLongitude)};
+		}
+
+		return new int[] {column (geofence.minLongitude), column (geofence.maxLongitude)};
+	}
+
+	private static Long key (int row, int column) {
+		return ((long) row << 32) | (column & 0xFFFFFFFFL);
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Evaluation">
+
+	/**
+	 * Evaluates a fix, calling the listener for every transition once the engine is unlocked
+	 *
+	 * @param time The fix time (In millis)
+	 **/
+	public void evaluate (double latitude, double longitude, long time) {
+		OnGeofenceTransitionListener listener;
+		List<Geofence> transitionGeofences = null;
+		int[] transitions = null;
+
+		synchronized (this) {
+			listener = this.listener;
+			evaluation++;
+			pendingCount = 0;
+
+			List<Geofence> cell = cells.get (key (row (latitude), column (longitude)));
+			if (cell != null) {
+				for (int i = 0; i < cell.size (); i++) {
+					check (cell.get (i), latitude, longitude, time);
+				}
+			}
+
+			for (int i = 0; i < largeGeofences.size (); i++) {
+				check (largeGeofences.get (i), latitude, longitude, time);
+			}
+
+			// Any geofence not seen on this evaluation was left
+			Iterator<Map.Entry<Geofence, InsideState>> iterator = insideStates.entrySet ().iterator ();
+			while (iterator.hasNext ()) {
+				Map.Entry<Geofence, InsideState> entry = iterator.next ();
+				if (entry.getValue ().evaluation != evaluation) {
+					iterator.remove ();
+					addTransition (entry.getKey (), TRANSITION_EXIT);
+				}
+			}
+
+			// Copied out, the fixes without transitions allocate nothing
+			if (pendingCount > 0 && listener != null) {
+				transitionGeofences = new ArrayList<> (pendingGeofences.subList (0, pendingCount));
+				transitions = Arrays.copyOf (pendingTransitions, pendingCount);
+			}
+			for (int i = 0; i < pendingCount; i++) {
+				pendingGeofences.set (i, null);
+			}
+		}
+
+		if (transitionGeofences == null) return;
+
+		for (int i = 0; i < transitions.length; i++) {
+			listener.onGeofenceTransition (transitionGeofences.get (i), transitions[i], time);
+		}
+	}
+
+	private void check (Geofence geofence, double latitude, double longitude, long time) {
+		if (!geofence.contains (latitude, longitude)) return;
+
+		InsideState state = insideStates.get (geofence);
+		if (state == null) {
+			state = new InsideState (time);
+			insideStates.put (geofence, state);
+			addTransition (geofence, TRANSITION_ENTER);
+		}
+
+		state.evaluation = evaluation;
+
+		if (!state.dwelling && time - state.enterTime >= dwellTime) {
+			state.dwelling = true;
+			addTransition (geofence, TRANSITION_DWELL);
+		}
+	}
+
+	private void addTransition (Geofence geofence, int transition) {
+		if (pendingCount == pendingTransitions.length) {
+			pendingTransitions = Arrays.copyOf (pendingTransitions, pendingCount * 2);
+		}
+
+		if (pendingCount < pendingGeofences.size ()) {
+			pendingGeofences.set (pendingCount, geofence);
+		} else {
+			pendingGeofences.add (geofence);
+		}
+		pendingTransitions[pendingCount++] = transition;
+	}
+
+	/**
+	 * Whether the last evaluated fix was inside the geofence
+	 **/
+	public synchronized boolean isInside (String id) {
+		Geofence geofence = geofences.get (id);
+		return geofence != null && insideStates.containsKey (geofence);
+	}
+	//</editor-fold>
+
+	private static final class InsideState {
+		final long enterTime;
+		long evaluation;
+		boolean dwelling;
+
+		InsideState (long enterTime) {
+			this.enterTime = enterTime;
+		}
+	}
+
+	/**
+	 * The geofence transition listener
+	 **/
+	public interface OnGeofenceTransitionListener {
+		/**
+		 * Called on each transition
+		 *
+		 * @param transition One of TRANSITION_ENTER, TRANSITION_EXIT or TRANSITION_DWELL
+		 **/
+		void onGeofenceTransition (Geofence geofence, int transition, long time);
+	}
+}
@@ -0,0 +1,105 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with fixed bucket bounds
+ * <p>
+ * Recording a value is a binary search over the bounds plus two atomic increments, nothing is allocated.
+ **/
+public final class Histogram {
+
+	private final long[] bounds;
+	private final AtomicLongArray counts;
+	private final AtomicLong sum = new AtomicLong ();
+
+	/**
+	 * @param bounds The inclusive upper bound of each bucket, in ascending order. A last bucket holds the values above them
+	 **/
+	public Histogram (long... bounds) {
+		for (int i = 1; i < bounds.length; i++) {
+			if (bounds[i] <= bounds[i - 1]) {
+				throw new IllegalArgumentException ("The bounds must be ascending");
+			}
+		}
+
+		this.bounds = bounds.clone ();
+		this.counts = new AtomicLongArray (bounds.length + 1);
+	}
+
+	public void record (long value) {
+		// First bucket whose bound is >= value
+		int low = 0, high = bounds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (bounds[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		counts.incrementAndGet (low);
+		sum.addAndGet (value);
+	}
+
+	/**
+	 * The amount of buckets, including the overflow one
+	 **/
+	public int getBucketCount () {
+		return counts.length ();
+	}
+
+	/**
+	 * The upper bound of the bucket, Long.MAX_VALUE for the overflow one
+	 **/
+	public long getBucketBound (int bucket) {
+		return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+	}
+
+	public long getCount (int bucket) {
+		return counts.get (bucket);
+	}
+
+	public long getTotalCount () {
+		long total = 0;
+		for (int i = 0; i < counts.length (); i++) {
+			total += counts.get (i);
+		}
+		return total;
+	}
+
+	public double getMean () {
+		long total = getTotalCount ();
+		return total == 0 ? 0 : (double) sum.get () / total;
+	}
+
+	/**
+	 * The upper bound of the bucket holding the percentile, an approximation limited by the bucket bounds
+	 *
+	 * @param percentile From 0 to 100
+	 **/
+	public long getPercentile (double percentile) {
+		long total = getTotalCount ();
+		if (total == 0) return 0;
+
+		long target = (long) Math.ceil (total * percentile / 100.0);
+		long accumulated = 0;
+		for (int i = 0; i < counts.length (); i++) {
+			accumulated += counts.get (i);
+			if (accumulated >= target) {
+				return getBucketBound (i);
+			}
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	public void reset () {
+		for (int i = 0; i < counts.length (); i++) {
+			counts.set (i, 0);
+		}
+		sum.set (0);
+	}
+}
@@ -0,0 +1,86 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts each batch of the {@link FixUploader} to an HTTP endpoint
+ * <p>
+ * Answers 2xx are sent, 408, 429 and 5xx are retried later, and any other answer drops the batch.
+ **/
+public final class HttpFixTransport implements FixUploader.Transport {
+
+	private static final int DEFAULT_TIMEOUT = 15 * 1000;
+
+	private final URL url;
+	private final int timeout;
+	private final Map<String, String> headers = new LinkedHashMap<> ();
+
+	public HttpFixTransport (URL url) {
+		this (url, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout The connect and read timeout (In millis)
+	 **/
+	public HttpFixTransport (URL url, int timeout) {
+		this.url = url;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Adds a header to every request, for instance the authorization
+	 **/
+	public synchronized HttpFixTransport setHeader (String name, String value) {
+		headers.put (name, value);
+		return this;
+	}
+
+	@Override
+	public void send (byte[] batch) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection ();
+		connection.setRequestMethod ("POST");
+		connection.setConnectTimeout (timeout);
+		connection.setReadTimeout (timeout);
+		connection.setDoOutput (true);
+		connection.setFixedLengthStreamingMode (batch.length);
+		connection.setRequestProperty ("Content-Type", "application/octet-stream");
+		connection.setRequestProperty ("Content-Encoding", "gzip");
+		connection.setRequestProperty ("X-Batch-Version", String.valueOf (FixUploader.BATCH_VERSION));
+		synchronized (this) {
+			for (Map.Entry<String, String> header : headers.entrySet ()) {
+				connection.setRequestProperty (header.getKey (), header.getValue ());
+			}
+		}
+
+		OutputStream output = connection.getOutputStream ();
+		try {
+			output.write (batch);
+		} finally {
+			output.close ();
+		}
+
+		int code = connection.getResponseCode ();
+		if (code == 408 || code == 429 || code >= 500) {
+			throw new IOException ("HTTP " + code);
+		}
+
+		// Drain the answer, so the connection can be reused
+		InputStream input = code < 400 ? connection.getInputStream () : connection.getErrorStream ();
+		if (input != null) {
+			try {
+				byte[] buffer = new byte[512];
+				while (input.read (buffer) >= 0) {
+					// Discarded
+				}
+			} finally {
+				input.close ();
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Constant-velocity Kalman filter that fuses fixes from any provider into a single smoothed estimate
+ * <p>
+ * The state is kept in meters on a local plane around an origin, each axis with its own position/velocity pair.
+ * Each fix is weighted by its reported accuracy, which is used as the standard deviation of the measurement.
+ * This class is pure Java, so it can be exercised on the JVM.
+ **/
+public final class KalmanFilter {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	private static final double METERS_PER_DEGREE = 111320.0;
+	private static final double MIN_ACCURACY = 1.0;// Meters
+	private static final double UNKNOWN_ACCURACY = 100.0;// Meters
+	private static final double MAX_ORIGIN_DISTANCE = 10000.0;// Meters
+	//</editor-fold>
+
+	private final double accelerationNoise;
+
+	private boolean initialized;
+	private long time;
+
+	// The plane origin
+	private double originLatitude, originLongitude, metersPerDegreeLongitude;
+
+	// State and covariance of the x (east) axis
+	private double x, vx, xVariance, xCovariance, vxVariance;
+	// State and covariance of the y (north) axis
+	private double y, vy, yVariance, yCovariance, vyVariance;
+
+	/**
+	 * @param accelerationNoise The expected acceleration standard deviation (In m/s²), higher values follow the fixes more closely
+	 **/
+	public KalmanFilter (double accelerationNoise) {
+		if (accelerationNoise <= 0) {
+			throw new IllegalArgumentException ("The acceleration noise must be positive");
+		}
+
+		this.accelerationNoise = accelerationNoise;
+	}
+
+	/**
+	 * Feeds a new fix into the filter
+	 *
+	 * @param accuracy The fix accuracy (In meters), zero when unknown
+	 * @param time     The fix time (In millis)
+	 **/
+	public void update (double latitude, double longitude, float accuracy, long time) {
+		double sigma = accuracy > 0 ? Math.max (accuracy, MIN_ACCURACY) : UNKNOWN_ACCURACY;
+		double variance = sigma * sigma;
+
+		if (!initialized) {
+			setOrigin (latitude, longitude);
+			x = 0;
+			y = 0;
+			vx = 0;
+			vy = 0;
+			// The velocity is unknown, so start with a large uncertainty
+			xVariance = yVariance = variance;
+			xCovariance = yCovariance = 0;
+			vxVariance = vyVariance = 100.0;
+			this.time = time;
+			this.initialized = true;
+			return;
+		}
+
+		// Fixes older than the estimate are applied without going back in time
+		double dt = Math.max (0, time - this.time) / 1000.0;
+		if (time > this.time) {
+			this.time = time;
+		}
+
+		predict (dt);
+
+		// Measurement in the local plane
+		double mx = (longitude - originLongitude) * metersPerDegreeLongitude;
+		double my = (latitude - originLatitude) * METERS_PER_DEGREE;
+
+		// X axis correction
+		double s = xVariance + variance;
+		double kp = xVariance / s;
+		double kv = xCovariance / s;
+		double innovation = mx - x;
+		x += kp * innovation;
+		vx += kv * innovation;
+		double newVelocityVariance = vxVariance - kv * xCovariance;
+		double newCovariance = xCovariance - kp * xCovariance;
+		xVariance = xVariance - kp * xVariance;
+		xCovariance = newCovariance;
+		vxVariance = newVelocityVariance;
+
+		// Y axis correction
+		s = yVariance + variance;
+		kp = yVariance / s;
+		kv = yCovariance / s;
+		innovation = my - y;
+		y += kp * innovation;
+		vy += kv * innovation;
+		newVelocityVariance = vyVariance - kv * yCovariance;
+		newCovariance = yCovariance - kp * yCovariance;
+		yVariance = yVariance - kp * yVariance;
+		yCovariance = newCovariance;
+		vyVariance = newVelocityVariance;
+
+		// Keep the linearization accurate when moving far away from the origin
+		if (Math.abs (x) > MAX_ORIGIN_DISTANCE || Math.abs (y) > MAX_ORIGIN_DISTANCE) {
+			double latitudeNow = getLatitude ();
+			double longitudeNow = getLongitude ();
+			setOrigin (latitudeNow, longitudeNow);
+			x = 0;
+			y = 0;
+		}
+	}
+
+	/**
+	 * Projects the state forward, growing the covariance with the white acceleration noise model
+	 **/
+	private void predict (double dt) {
+		if (dt <= 0) return;
+
+		double q = accelerationNoise * accelerationNoise;
+		double dt2 = dt * dt;
+		double q11 = q * dt2 * dt / 3.0;
+		double q12 = q * dt2 / 2.0;
+		double q22 = q * dt;
+
+		x += vx * dt;
+		xVariance = xVariance + 2 * dt * xCovariance + dt2 * vxVariance + q11;
+		xCovariance = xCovariance + dt * vxVariance + q12;
+		vxVariance = vxVariance + q22;
+
+		y += vy * dt;
+		yVariance = yVariance + 2 * dt * yCovariance + dt2 * vyVariance + q11;
+		yCovariance = yCovariance + dt * vyVariance + q12;
+		vyVariance = vyVariance + q22;
+	}
+
+	private void setOrigin (double latitude, double longitude) {
+		this.originLatitude = latitude;
+		this.originLongitude = longitude;
+		this.metersPerDegreeLongitude = METERS_PER_DEGREE * Math.max (Math.cos (Math.toRadians (latitude)), 1e-6);
+	}
+
+	/**
+	 * Discards the current estimate
+	 **/
+	public void reset () {
+		this.initialized = false;
+	}
+
+	public boolean isInitialized () {
+		return initialized;
+	}
+
+	public double getLatitude () {
+		return originLatitude + y / METERS_PER_DEGREE;
+	}
+
+	public double getLongitude () {
+		return originLongitude + x / metersPerDegreeLongitude;
+	}
+
+	/**
+	 * The estimate accuracy (In meters), as the standard deviation of the position
+	 **/
+	public float getAccuracy () {
+		return (float) Math.sqrt ((xVariance + yVariance) / 2.0);
+	}
+
+	/**
+	 * The position variance of the east and north axis (In square meters)
+	 **/
+	public double getVarianceEast () {
+		return xVariance;
+	}
+
+	public double getVarianceNorth () {
+		return yVariance;
+	}
+
+	/**
+	 * The estimated speed (In m/s)
+	 **/
+	public float getSpeed () {
+		return (float) Math.sqrt (vx * vx + vy * vy);
+	}
+
+	/**
+	 * The estimated bearing (In degrees, clockwise from north)
+	 **/
+	public float getBearing () {
+		double bearing = Math.toDegrees (Math.atan2 (vx, vy));
+		return (float) (bearing < 0 ? bearing + 360.0 : bearing);
+	}
+
+	/**
+	 * The time of the latest fix (In millis)
+	 **/
+	public long getTime () {
+		return time;
+	}
+}
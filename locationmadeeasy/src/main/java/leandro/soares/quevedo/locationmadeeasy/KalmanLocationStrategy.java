@@ -0,0 +1,58 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+import android.os.Bundle;
+
+/**
+ * Fuses the fixes of every provider with a {@link KalmanFilter}, producing a smoothed location
+ **/
+public class KalmanLocationStrategy implements LocationStrategy {
+
+	public static final String FUSED_PROVIDER = "fused";
+	private static final double DEFAULT_ACCELERATION_NOISE = 3.0;// m/s²
+
+	private final KalmanFilter filter;
+
+	public KalmanLocationStrategy () {
+		this (DEFAULT_ACCELERATION_NOISE);
+	}
+
+	/**
+	 * @param accelerationNoise The expected acceleration standard deviation (In m/s²)
+	 **/
+	public KalmanLocationStrategy (double accelerationNoise) {
+		this.filter = new KalmanFilter (accelerationNoise);
+	}
+
+	@Override
+	public Location select (Location location, Location currentBestLocation) {
+		filter.update (location.getLatitude (), location.getLongitude (), location.hasAccuracy () ? location.getAccuracy () : 0f, location.getTime ());
+
+		Location fused = new Location (FUSED_PROVIDER);
+		// An empty bundle like the platform fixes carry, so the callers can attach their extras
+		fused.setExtras (new Bundle ());
+		fused.setLatitude (filter.getLatitude ());
+		fused.setLongitude (filter.getLongitude ());
+		fused.setAccuracy (filter.getAccuracy ());
+		fused.setSpeed (filter.getSpeed ());
+		fused.setBearing (filter.getBearing ());
+		fused.setTime (filter.getTime ());
+		if (location.hasAltitude ()) {
+			fused.setAltitude (location.getAltitude ());
+		}
+
+		return fused;
+	}
+
+	@Override
+	public void reset () {
+		filter.reset ();
+	}
+
+	/**
+	 * The underlying filter
+	 **/
+	public KalmanFilter getFilter () {
+		return filter;
+	}
+}
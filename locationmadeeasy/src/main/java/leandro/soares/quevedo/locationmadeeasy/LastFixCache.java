@@ -0,0 +1,143 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the last best fix in a small fixed-layout memory-mapped file, so it survives process death and reboots
+ * <p>
+ * Writing is just a few stores on the mapped page, the kernel persists it later. A checksum guards against torn
+ * writes, in which case the cache is simply reported as empty.
+ **/
+final class LastFixCache {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	private static final int MAGIC = 0x4C4D4546;// "LMEF"
+	private static final int VERSION = 1;
+
+	// Layout: magic(4) version(4) latitude(8) longitude(8) accuracy(4) time(8) provider(4) crc(8)
+	private static final int OFFSET_LATITUDE = 8;
+	private static final int OFFSET_LONGITUDE = 16;
+	private static final int OFFSET_ACCURACY = 24;
+	private static final int OFFSET_TIME = 28;
+	private static final int OFFSET_PROVIDER = 36;
+	private static final int OFFSET_CRC = 40;
+	static final int SIZE = 48;
+	//</editor-fold>
+
+	private final File file;
+	private final byte[] scratch = new byte[OFFSET_CRC];
+	private final CRC32 crc = new CRC32 ();
+	private MappedByteBuffer buffer;
+
+	LastFixCache (File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Stores the fix, replacing the previous one
+	 *
+	 * @return False when the file could not be mapped
+	 **/
+	synchronized boolean write (double latitude, double longitude, float accuracy, long time, int provider) {
+		if (!map ()) return false;
+
+		buffer.putInt (0, MAGIC);
+		buffer.putInt (4, VERSION);
+		buffer.putDouble (OFFSET_LATITUDE, latitude);
+		buffer.putDouble (OFFSET_LONGITUDE, longitude);
+		buffer.putFloat (OFFSET_ACCURACY, accuracy);
+		buffer.putLong (OFFSET_TIME, time);
+		buffer.putInt (OFFSET_PROVIDER, provider);
+		buffer.putLong (OFFSET_CRC, checksum ());
+
+		return true;
+	}
+
+	/**
+	 * Retrieves the stored fix
+	 *
+	 * @return The fix, or null when there is no valid fix stored
+	 **/
+	synchronized Fix read () {
+		if (!map ()) return null;
+
+		if (buffer.getInt (0) != MAGIC || buffer.getInt (4) != VERSION) return null;
+		if (buffer.getLong (OFFSET_CRC) != checksum ()) return null;
+
+		return new Fix (
+				buffer.getDouble (OFFSET_LATITUDE),
+				buffer.getDouble (OFFSET_LONGITUDE),
+				buffer.getFloat (OFFSET_ACCURACY),
+				buffer.getLong (OFFSET_TIME),
+				buffer.getInt (OFFSET_PROVIDER)
+		);
+	}
+
+	/**
+	 * Invalidates the stored fix
+	 **/
+	synchronized void clear () {
+		if (map ()) {
+			buffer.putInt (0, 0);
+		}
+	}
+
+	private long checksum () {
+		for (int i = 0; i < scratch.length; i++) {
+			scratch[i] = buffer.get (i);
+		}
+
+		crc.reset ();
+		crc.update (scratch, 0, scratch.length);
+		return crc.getValue ();
+	}
+
+	/**
+	 * Maps the file on the first access, keeping the mapping for the process lifetime
+	 **/
+	private boolean map () {
+		if (buffer != null) return true;
+
+		RandomAccessFile randomAccessFile = null;
+		try {
+			randomAccessFile = new RandomAccessFile (file, "rw");
+			// The mapping stays valid after the file is closed
+			buffer = randomAccessFile.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, SIZE);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace ();
+			return false;
+		} finally {
+			if (randomAccessFile != null) {
+				try {
+					randomAccessFile.close ();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * A fix read from the cache
+	 **/
+	static final class Fix {
+		final double latitude;
+		final double longitude;
+		final float accuracy;
+		final long time;
+		final int provider;
+
+		Fix (double latitude, double longitude, float accuracy, long time, int provider) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.accuracy = accuracy;
+			this.time = time;
+			this.provider = provider;
+		}
+	}
+}
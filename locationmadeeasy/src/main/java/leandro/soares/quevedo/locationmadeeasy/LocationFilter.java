@@ -0,0 +1,25 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * A stage of the {@link FilterPipeline}, deciding whether a provider fix should reach the location selection
+ **/
+public interface LocationFilter {
+
+	/**
+	 * Checks the fix, without changing the filter state
+	 *
+	 * @param accuracy The accuracy (In meters), zero when unknown
+	 * @return False to reject the fix
+	 **/
+	boolean accept (double latitude, double longitude, float accuracy, long time);
+
+	/**
+	 * Called when the fix was accepted by every filter of the pipeline
+	 **/
+	void onAccepted (double latitude, double longitude, float accuracy, long time);
+
+	/**
+	 * Forgets the previous fixes
+	 **/
+	void reset ();
+}
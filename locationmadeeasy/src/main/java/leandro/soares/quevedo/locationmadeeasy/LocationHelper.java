@@ -14,6 +14,8 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -21,33 +23,109 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.Fragment;
 import android.util.Log;
 
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class LocationHelper {
 
 	//<editor-fold desc="Constants" defaultstate="collapsed">
 	public static final int REQUEST_CODE = 13301;
 	private static final long ONE_MINUTE = 1000 * 60;
-	private static final long TWO_MINUTES = ONE_MINUTE * 2;
 	private static final long DISTANCE_FOR_UPDATES = 10;// Meters
+	private static final String PERSISTED_LOCATION_FILE = "locationmadeeasy.fix";
+	private static final int RECENT_FIXES_CAPACITY = 64;
+	private static final long MAX_PREDICTION_FIX_AGE = 5 * 1000;
+	private static final long REFINEMENT_MIN_TIME = 1000;
 	//</editor-fold>
 
 	private Fragment fragment;
-	private String currentTask;
 	private Context context;
-	private Location bestLocation;
+	private final AtomicReference<LocationState> locationState = new AtomicReference<> (LocationState.EMPTY);
+	private LocationStrategy locationStrategy = new DefaultLocationStrategy ();
 	private OnLocationUpdateListener listener;
 	private CustomDialogHandler customEnableProvidersDialog;
 	private static long lastProviderRequestTime;
+	private static LastFixCache lastFixCache;
 
-	private LocationMinifiedListener gpsListener, networkListener, passiveListener;
+	private long cachedLocationMaxAge = ONE_MINUTE;
+	private float cachedLocationMaxAccuracy;
+
+	// Requests waiting for the permissions, changed on the main thread, and requests waiting for a fix, changed on the provider thread
+	private final SnapshotList<PendingRequest> pendingRequests = new SnapshotList<> ();
+	private final SnapshotList<PendingRequest> activeRequests = new SnapshotList<> ();
+
+	// A single subscription per provider, shared by the requests and the tracking session
+	private final ProviderSubscription gpsSubscription = new ProviderSubscription (LocationManager.GPS_PROVIDER, "GPS");
+	private final ProviderSubscription networkSubscription = new ProviderSubscription (LocationManager.NETWORK_PROVIDER, "Network");
+	private final ProviderSubscription passiveSubscription = new ProviderSubscription (LocationManager.PASSIVE_PROVIDER, "Passive");
+	private LocationSource subscribedSource;
 
 	private long beginRequestTime;
 
-	private OnLocationTimeoutListener timeoutListener;
-	private int timeoutTime;
+	private final FixRingBuffer recentFixes = new FixRingBuffer (RECENT_FIXES_CAPACITY);
+	private TrackRecorder trackRecorder;
+	private FixUploader fixUploader;
+	private FixHistory fixHistory;
+	private GeofenceEngine geofenceEngine;
+	private StayPointDetector stayPointDetector;
+	private PositionPredictor positionPredictor;
+	private FilterPipeline filterPipeline;
+	private AdaptiveScheduler adaptiveScheduler;
+	private LocationSource locationSource;
+	private volatile PlatformLocationSource platformLocationSource;
+	private LocationMetricsRecorder metricsRecorder = DefaultLocationMetrics.getGlobal ();
+	private final boolean[] firstFixSeen = new boolean[ProviderCodes.FUSED + 1];
+
+	private volatile boolean streaming;
+	private boolean streamingPending;
+	private final FixPublisher<Location> locationPublisher = new FixPublisher<> (new Runnable () {
+		@Override
+		public void run () {
+			// The first subscriber, the permissions are checked on the main thread
+			getMainHandler ().post (new Runnable () {
+				@Override
+				public void run () {
+					startStreaming ();
+				}
+			});
+		}
+	}, new Runnable () {
+		@Override
+		public void run () {
+			// The last subscriber left
+			getWorkerHandler ().post (new Runnable () {
+				@Override
+				public void run () {
+					stopStreaming ();
+				}
+			});
+		}
+	});
+
+	private volatile boolean tracking;
+	private boolean trackingPending;
+	private int trackingBatchSize;
+	private long trackingBatchWindow;
+	private FixBatcher<Location> batcher;
+	// The listener of the last call, kept to resume the session after the permissions, and the one of the running session,
+	// only touched on the provider thread
+	private volatile OnLocationBatchListener batchListener;
+	private OnLocationBatchListener sessionBatchListener;
+	private Handler mainHandler;
+	private Handler workerHandler;
+	private Executor listenerExecutor;
+	private final Runnable batchWindowTask = new Runnable () {
+		@Override
+		public void run () {
+			// The window of the current batch has expired
+			flushLocationBatch ();
+		}
+	};
 
 	private static final boolean DEBUG_MODE = false;
 
@@ -74,15 +152,15 @@ public final class LocationHelper {
 	 */
 	public boolean checkLocationProviders () {
 		// Check the location manager
-		LocationManager locationManager = getLocationManager ();
-		if (locationManager == null) {
+		LocationSource locationSource = getLocationSource ();
+		if (locationSource == null) {
 			return false;
 		}
 
 		// Getting GPS status
-		boolean isGPSEnabled = locationManager.isProviderEnabled (LocationManager.GPS_PROVIDER);
+		boolean isGPSEnabled = locationSource.isProviderEnabled (LocationManager.GPS_PROVIDER);
 		// Getting network status
-		boolean isNetworkEnabled = locationManager.isProviderEnabled (LocationManager.NETWORK_PROVIDER);
+		boolean isNetworkEnabled = locationSource.isProviderEnabled (LocationManager.NETWORK_PROVIDER);
 
 		// If none location provider enabled, request user to enable them
 		if (!isGPSEnabled && !isNetworkEnabled) {
@@ -118,16 +196,16 @@ public final class LocationHelper {
 			return false;
 		} else {
 			// Check the location manager
-			LocationManager locationManager = getLocationManager ();
+			LocationSource locationSource = getLocationSource ();
 
-			if (locationManager == null) {
+			if (locationSource == null) {
 				return false;
 			}
 
 			// Getting GPS status
-			boolean isGPSEnabled = locationManager.isProviderEnabled (LocationManager.GPS_PROVIDER);
+			boolean isGPSEnabled = locationSource.isProviderEnabled (LocationManager.GPS_PROVIDER);
 			// Getting network status
-			boolean isNetworkEnabled = locationManager.isProviderEnabled (LocationManager.NETWORK_PROVIDER);
+			boolean isNetworkEnabled = locationSource.isProviderEnabled (LocationManager.NETWORK_PROVIDER);
 
 			// If none location provider enabled, request user to enable them
 			return isGPSEnabled || isNetworkEnabled;
@@ -164,17 +242,18 @@ public final class LocationHelper {
 			try {
 				if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
 					// Try to continue the current task (PS: the task does the permission check again)
-					continueCurrentTask ();
+					continuePendingTasks ();
 				} else {
 					if (checkPermissionRationale (Manifest.permission.ACCESS_FINE_LOCATION) && checkPermissionRationale (Manifest.permission.ACCESS_COARSE_LOCATION)) {
 						requestPermissions ();
 					} else {
 						showApplicationSettings ();
-						listener.onLocationRequestError ("Permissão negada");
+						notifyError ("Permissão negada");
+						failPendingRequests ("Permissão negada");
 					}
 				}
 			} catch (Exception e) {
-				listener.onLocationRequestError (e.getMessage ());
+				notifyError (e.getMessage ());
 			}
 
 			return true;
@@ -188,7 +267,7 @@ public final class LocationHelper {
 
 			// Try to continue the current task, only if we got now valid permissions and providers
 			if (checkPermissionsAndProviders ()) {
-				continueCurrentTask ();
+				continuePendingTasks ();
 			}
 
 			return true;
@@ -199,14 +278,44 @@ public final class LocationHelper {
 
 	/**
 	 * Begins the process of retrieving user's location
+	 *
+	 * @return The handle of the request, used to cancel it or to set a deadline
 	 **/
-	public void requestCurrentLocation () {
-		currentTask = "requestCurrentLocation";
+	public RequestFuture<Location> requestCurrentLocation () {
+		return requestCurrentLocation (cachedLocationMaxAge, cachedLocationMaxAccuracy);
+	}
 
-		// Check the permissions
-		if (checkPermissions ()) {
-			startLocationRequest ();
-		}
+	/**
+	 * Begins the process of retrieving user's location, answered from the cached fixes when one meets the limits.
+	 * The providers are only started when none does
+	 *
+	 * @param maxAge           The maximum age (In millis) of a cached fix
+	 * @param requiredAccuracy The maximum accuracy radius (In meters) of a cached fix, zero to accept any accuracy
+	 * @return The handle of the request, used to cancel it or to set a deadline
+	 **/
+	public RequestFuture<Location> requestCurrentLocation (long maxAge, float requiredAccuracy) {
+		PendingRequest request = new PendingRequest (maxAge, requiredAccuracy, 0, null);
+		submitRequestOnMainThread (request);
+
+		return request.future;
+	}
+
+	/**
+	 * Begins a progressive request, delivering a coarse location right away (From the cached fixes) and then each more accurate
+	 * fix, until one reaches the target accuracy or the deadline passes. The providers are released right after
+	 *
+	 * @param targetAccuracy The accuracy radius (In meters) that ends the request
+	 * @param deadline       The maximum time (In millis) to refine the location, the request then completes with the most
+	 *                       accurate fix delivered, delivering it again as final, or times out if there was none
+	 * @param listener       The listener of each delivered fix, called on the listener executor. A timeout or a
+	 *                       cancellation only shows on the returned future
+	 * @return The handle of the request, completed with the final location
+	 **/
+	public RequestFuture<Location> requestRefinedLocation (float targetAccuracy, long deadline, OnLocationRefinedListener listener) {
+		PendingRequest request = new PendingRequest (targetAccuracy, deadline, listener);
+		submitRequestOnMainThread (request);
+
+		return request.future;
 	}
 
 	/**
@@ -216,45 +325,370 @@ public final class LocationHelper {
 	 * @param callback The timeout callback
 	 **/
 	public boolean requestCurrentLocationWithTimeout (int timeout, OnLocationTimeoutListener callback) {
-		currentTask = "requestCurrentLocationWithTimeout";
-		// Sets the timeout listener
-		this.timeoutListener = callback;
-		this.timeoutTime = timeout;
+		return requestCurrentLocationWithTimeout (cachedLocationMaxAge, cachedLocationMaxAccuracy, timeout, callback);
+	}
 
-		// Check the permissions
+	/**
+	 * Begins the process of retrieving user's location, with time limit, answered from the cached fixes when one meets the limits
+	 *
+	 * @param maxAge           The maximum age (In millis) of a cached fix
+	 * @param requiredAccuracy The maximum accuracy radius (In meters) of a cached fix, zero to accept any accuracy
+	 * @param timeout          The limit time (In millis), counted once the request starts
+	 * @param callback         The timeout callback
+	 * @return False when the request could not start, always true when called off the main thread
+	 **/
+	public boolean requestCurrentLocationWithTimeout (long maxAge, float requiredAccuracy, int timeout, OnLocationTimeoutListener callback) {
+		return submitRequestOnMainThread (new PendingRequest (maxAge, requiredAccuracy, timeout, callback));
+	}
+
+	/**
+	 * Cancels every outstanding request, releasing the providers they were using
+	 **/
+	public void cancelAllRequests () {
+		List<PendingRequest> requests = new ArrayList<> (pendingRequests.snapshot ());
+		requests.addAll (activeRequests.snapshot ());
+
+		for (PendingRequest request : requests) {
+			request.future.cancel (false);
+		}
+	}
+
+	/**
+	 * Begins a long-running tracking session, the providers stay registered until {@link #stopTracking()} is called
+	 * and the fixes are delivered in batches
+	 *
+	 * @param maxBatchSize   The amount of fixes that triggers the delivery of a batch
+	 * @param maxBatchWindow The time (In millis) after the first fix of a batch that triggers its delivery, zero to disable
+	 * @param callback       The batch callback
+	 * @throws IllegalArgumentException If the batch size is less than 1
+	 **/
+	public boolean startTracking (int maxBatchSize, long maxBatchWindow, OnLocationBatchListener callback) {
+		// Checked here, the session itself starts on the provider thread, where the exception would kill the process
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException ("The batch size must be at least 1");
+		}
+
+		// Kept for when the permissions are granted
+		this.batchListener = callback;
+		this.trackingBatchSize = maxBatchSize;
+		this.trackingBatchWindow = maxBatchWindow;
+
+		// Check the permissions, the session starts once they are granted
 		if (!checkPermissions ()) {
+			this.trackingPending = true;
 			return false;
 		}
 
-		// Starts the request
-		if (startLocationRequest ()) {
+		this.trackingPending = false;
+
+		// Check the location manager
+		final LocationSource locationSource = getLocationSource ();
+		if (locationSource == null) {
 			return false;
 		}
 
-		// If we are on debug mode, ignore the updates
-		//if (DEBUG_MODE) return;
-
-		// Starts a task after the timeout specified time
-		Timer timer = new Timer ();
-		timer.schedule (new TimerTask () {
+		final int batchSize = maxBatchSize;
+		final long batchWindow = maxBatchWindow;
+		final OnLocationBatchListener sessionListener = callback;
+		runOnWorkerThread (new Runnable () {
 			@Override
 			public void run () {
-				// If we don't disposed the timeoutListener after the timeout, cancel the request!
-				if (timeoutListener != null) {
-					// Calls the listener, we have an timeout event
-					timeoutListener.onLocationTimedOut ();
+				// Restart any previous session, its last batch goes to its own listener
+				if (tracking) {
+					stopTrackingSession ();
 				}
+
+				tracking = true;
+				batcher = new FixBatcher<> (batchSize, batchWindow);
+				sessionBatchListener = sessionListener;
+
+				// Calls the user event
+				notifyRequestStart ();
+
+				updateProviderSubscriptions (locationSource);
 			}
-		}, timeout);
+		});
 
 		return true;
 	}
 
+	/**
+	 * Ends the tracking session, unregistering the providers no request needs and delivering the pending fixes
+	 **/
+	public void stopTracking () {
+		this.trackingPending = false;
+
+		runOnWorkerThread (new Runnable () {
+			@Override
+			public void run () {
+				stopTrackingSession ();
+			}
+		});
+	}
+
+	private void stopTrackingSession () {
+		if (!tracking) return;
+
+		this.tracking = false;
+
+		// Unregister the providers, unless a request still waits for them
+		LocationSource locationSource = getLocationSource ();
+		if (locationSource != null) {
+			updateProviderSubscriptions (locationSource);
+		} else {
+			releaseProviderSubscriptions ();
+		}
+
+		// Deliver what is left on the current batch
+		flushLocationBatch ();
+		this.batcher = null;
+		this.sessionBatchListener = null;
+	}
+
+	/**
+	 * Subscribes to the fixes, with the subscriber called on the listener executor.
+	 * Every subscriber shares the same provider session, which stops once the last subscription is cancelled
+	 *
+	 * @param subscriber The subscriber, receiving only the fixes it requested
+	 * @param overflow   What happens to the fixes the subscriber can't take yet, one of the FixPublisher.OVERFLOW constants
+	 * @param capacity   The maximum amount of fixes waiting for the subscriber, ignored by {@link FixPublisher#OVERFLOW_LATEST}
+	 **/
+	public FixPublisher.Subscription subscribeLocations (FixPublisher.Subscriber<Location> subscriber, int overflow, int capacity) {
+		return locationPublisher.subscribe (subscriber, overflow, capacity, getListenerExecutor ());
+	}
+
+	/**
+	 * The publisher of the fixes, to subscribe with another executor than the listener one
+	 **/
+	public FixPublisher<Location> getLocationPublisher () {
+		return locationPublisher;
+	}
+
+	/**
+	 * Starts the providers for the subscribers, once the permissions are granted
+	 **/
+	private void startStreaming () {
+		// Every subscriber left meanwhile
+		if (!locationPublisher.hasSubscribers ()) return;
+
+		// Check the permissions, the stream starts once they are granted
+		if (!checkPermissions ()) {
+			this.streamingPending = true;
+			return;
+		}
+
+		this.streamingPending = false;
+
+		// Check the location manager
+		final LocationSource locationSource = getLocationSource ();
+		if (locationSource == null) {
+			locationPublisher.fail ("Ocorreu um erro inesperado, por favor, tente novamente mais tarde!");
+			return;
+		}
+
+		runOnWorkerThread (new Runnable () {
+			@Override
+			public void run () {
+				if (streaming || !locationPublisher.hasSubscribers ()) return;
+
+				streaming = true;
+				updateProviderSubscriptions (locationSource);
+			}
+		});
+	}
+
+	private void stopStreaming () {
+		// A new subscriber arrived meanwhile
+		if (!streaming || locationPublisher.hasSubscribers ()) return;
+
+		this.streaming = false;
+
+		// Unregister the providers, unless a request or the tracking still needs them
+		LocationSource locationSource = getLocationSource ();
+		if (locationSource != null) {
+			updateProviderSubscriptions (locationSource);
+		} else {
+			releaseProviderSubscriptions ();
+		}
+	}
+
+	/**
+	 * Whether a tracking session is running, the session starts and stops on the provider thread shortly after the calls
+	 **/
+	public boolean isTracking () {
+		return tracking;
+	}
+
 	/**
 	 * Get the saved best location
 	 **/
 	public Location getBestLocation () {
-		return this.bestLocation;
+		return locationState.get ().bestLocation;
+	}
+
+	/**
+	 * Get the time (In millis) the last request took to retrieve its location
+	 **/
+	public long getRequestElapsedTime () {
+		return locationState.get ().requestElapsedTime;
+	}
+
+	/**
+	 * Get a snapshot of the latest fixes delivered by the providers, oldest first
+	 * (The providers keep writing the live buffer on their own thread, so the snapshot is a copy)
+	 **/
+	public FixRingBuffer getRecentFixes () {
+		synchronized (recentFixes) {
+			return recentFixes.copy ();
+		}
+	}
+
+	/**
+	 * Computes the distance (In meters) from the best location to each coordinate, see {@link GeoMath#distances}
+	 *
+	 * @param mode GeoMath.MODE_HAVERSINE or GeoMath.MODE_FAST
+	 * @return False when there is no best location yet
+	 **/
+	public boolean getDistancesFromBestLocation (double[] latitudes, double[] longitudes, double[] out, int mode) {
+		Location location = getBestLocation ();
+		if (location == null) return false;
+
+		GeoMath.distances (location.getLatitude (), location.getLongitude (), latitudes, longitudes, out, mode);
+		return true;
+	}
+
+	/**
+	 * Sets the strategy used to pick (or fuse) the best location among the provider fixes
+	 **/
+	public void setLocationStrategy (@NonNull LocationStrategy locationStrategy) {
+		this.locationStrategy = locationStrategy;
+	}
+
+	/**
+	 * Sets the default limits for a cached location (Either from the providers or persisted by a previous session) to be used
+	 * instead of starting the providers, for the requests that don't specify their own
+	 *
+	 * @param maxAge      The maximum age (In millis)
+	 * @param maxAccuracy The maximum accuracy radius (In meters), zero to accept any accuracy
+	 **/
+	public void setCachedLocationLimits (long maxAge, float maxAccuracy) {
+		this.cachedLocationMaxAge = maxAge;
+		this.cachedLocationMaxAccuracy = maxAccuracy;
+	}
+
+	/**
+	 * Sets the recorder that receives every fix delivered by the providers, null to stop recording
+	 * (The recorder is not closed by the helper, and is called on the provider thread)
+	 **/
+	public void setTrackRecorder (@Nullable TrackRecorder trackRecorder) {
+		this.trackRecorder = trackRecorder;
+	}
+
+	/**
+	 * Sets the uploader that receives every fix delivered by the providers, null to stop uploading
+	 * (The uploader is not closed by the helper)
+	 **/
+	public void setFixUploader (@Nullable FixUploader fixUploader) {
+		this.fixUploader = fixUploader;
+	}
+
+	/**
+	 * Sets the history that receives every fix delivered by the providers, null to stop keeping it
+	 * (The history is not closed by the helper, and is called on the provider thread)
+	 **/
+	public void setFixHistory (@Nullable FixHistory fixHistory) {
+		this.fixHistory = fixHistory;
+	}
+
+	/**
+	 * Sets the geofence engine evaluated against every retrieved location, null to disable it.
+	 * The geofence events are called on the provider thread
+	 **/
+	public void setGeofenceEngine (@Nullable GeofenceEngine geofenceEngine) {
+		this.geofenceEngine = geofenceEngine;
+	}
+
+	/**
+	 * Sets the stop detector fed with every provider fix, null to disable it.
+	 * While tracking with an adaptive scheduler, a confirmed stop switches the providers to the stationary profile.
+	 * The stop events are called on the listener executor
+	 **/
+	public void setStayPointDetector (@Nullable StayPointDetector stayPointDetector) {
+		this.stayPointDetector = stayPointDetector;
+	}
+
+	/**
+	 * Sets the predictor fed with the locations selected by the strategy, null to disable it.
+	 * Its predictions are on the System.nanoTime clock, the same as the Choreographer frame times
+	 **/
+	public void setPositionPredictor (@Nullable PositionPredictor positionPredictor) {
+		this.positionPredictor = positionPredictor;
+	}
+
+	/**
+	 * Sets the filters every provider fix must pass before being buffered, recorded, uploaded, streamed or tracked,
+	 * null to disable them. The waiting requests are still answered by the rejected fixes
+	 **/
+	public void setFilterPipeline (@Nullable FilterPipeline filterPipeline) {
+		this.filterPipeline = filterPipeline;
+	}
+
+	/**
+	 * Sets the scheduler that adapts the providers and their update rates to the current speed while tracking,
+	 * null to use the fixed rates
+	 **/
+	public void setAdaptiveScheduler (@Nullable AdaptiveScheduler adaptiveScheduler) {
+		this.adaptiveScheduler = adaptiveScheduler;
+	}
+
+	/**
+	 * Changes the power budget of the adaptive scheduler, registering the providers again with the new rates while tracking
+	 *
+	 * @param powerBudget One of the AdaptiveScheduler.POWER constants
+	 * @throws IllegalStateException If no adaptive scheduler was set
+	 **/
+	public void setPowerBudget (int powerBudget) {
+		AdaptiveScheduler adaptiveScheduler = this.adaptiveScheduler;
+		if (adaptiveScheduler == null) {
+			throw new IllegalStateException ("No adaptive scheduler was set");
+		}
+
+		if (!adaptiveScheduler.setPowerBudget (powerBudget)) return;
+
+		runOnWorkerThread (new Runnable () {
+			@Override
+			public void run () {
+				if (!tracking) return;
+
+				LocationSource locationSource = getLocationSource ();
+				if (locationSource != null) {
+					updateProviderSubscriptions (locationSource);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets where the locations come from, by default the platform LocationManager, null to restore the default
+	 * (A {@link ReplayLocationSource} plays a recorded track instead)
+	 **/
+	public void setLocationSource (@Nullable LocationSource locationSource) {
+		this.locationSource = locationSource;
+	}
+
+	/**
+	 * Sets the recorder of the request metrics, by default the process-wide {@link DefaultLocationMetrics#getGlobal()}
+	 **/
+	public void setMetricsRecorder (@NonNull LocationMetricsRecorder metricsRecorder) {
+		this.metricsRecorder = metricsRecorder;
+	}
+
+	/**
+	 * Sets where the listener callbacks run, null to run them on the main thread (The default).
+	 * The fixes themselves are processed on a background thread shared by every helper
+	 **/
+	public void setListenerExecutor (@Nullable Executor listenerExecutor) {
+		this.listenerExecutor = listenerExecutor;
 	}
 
 	public void setCustomEnableProvidersDialog (CustomDialogHandler customEnableProvidersDialog) {
@@ -306,7 +740,7 @@ public final class LocationHelper {
 							@Override
 							public void onClick (DialogInterface dialogInterface, int i) {
 								// Continue the location request
-								continueCurrentTask ();
+								continuePendingTasks ();
 							}
 						})
 						.show ();
@@ -366,283 +800,859 @@ public final class LocationHelper {
 	}
 
 	/**
-	 * Sets the best location, verifying if it is really better than the old one and if so, calls the listener
+	 * Sets the best location, letting the strategy decide if it is really better than the old one
+	 *
+	 * @return The location the strategy selected, or null when it kept the old one
 	 **/
-	private void setBestLocation (Location newLocation) {
-		// If we got a better location, save it as current best location
-		if (isBetterLocation (newLocation, this.bestLocation)) {
-			this.bestLocation = newLocation;
-		}
+	Location setBestLocation (Location newLocation) {
+		LocationState state = locationState.get ();
+		Location location = locationStrategy.select (newLocation, state.bestLocation);
+		locationState.set (new LocationState (location, state.requestElapsedTime));
+		persistBestLocation ();
 
-		// Calculate the elapsed time
-		this.bestLocation.getExtras ().putLong ("requestTime", System.currentTimeMillis () - this.beginRequestTime);
+		// Evaluate the geofences before notifying
+		evaluateGeofences (location);
 
-		// Reset the current task
-		this.currentTask = null;
-
-		// If the flag is true, ignore any updates!
-		if (this.listener != null) {
-			// If we had a valid update, just ignore the timeout listener.
-			this.timeoutListener = null;
-			// And call the locationUpdated event!
-			listener.onLocationRetrieved (this.bestLocation);
-		}
+		return location != state.bestLocation ? location : null;
 	}
 
-	private void continueCurrentTask () {
-		// Null check
-		if (this.currentTask.isEmpty () || this.currentTask == null) return;
+	/**
+	 * Completes the requests with the best location, calling the listener once
+	 *
+	 * @return The amount of requests completed
+	 **/
+	private int completeRequests (List<PendingRequest> requests) {
+		Location location = getBestLocation ();
+		int completed = 0;
+
+		for (PendingRequest request : requests) {
+			// The progressive requests only end at their target accuracy
+			if (request.refinedListener != null) continue;
+
+			// A request that already timed out or was cancelled stays that way
+			if (request.future.complete (location)) {
+				// Calculate the elapsed time
+				locationState.set (new LocationState (location, System.currentTimeMillis () - request.beginTime));
+				completed++;
+			}
+		}
 
-		switch (this.currentTask) {
-			case "requestCurrentLocation":
-				requestCurrentLocation ();
-				break;
-			case "requestCurrentLocationWithTimeout":
-				requestCurrentLocationWithTimeout (this.timeoutTime, this.timeoutListener);
-				break;
+		// And call the locationUpdated event!
+		if (completed > 0) {
+			notifyLocation (location);
 		}
+
+		return completed;
 	}
 
 	/**
-	 * Checks whether two providers are the same
+	 * Submits the request on the main thread, where the permission and provider dialogs may show
+	 *
+	 * @return True when the request was started, or posted to the main thread
 	 **/
-	private boolean isSameProvider (String provider1, String provider2) {
-		return provider1 == null ? provider2 == null : provider1.equals (provider2);
+	private boolean submitRequestOnMainThread (final PendingRequest request) {
+		if (Looper.myLooper () == Looper.getMainLooper ()) {
+			return submitRequest (request);
+		}
+
+		getMainHandler ().post (new Runnable () {
+			@Override
+			public void run () {
+				submitRequest (request);
+			}
+		});
+		return true;
 	}
 
 	/**
-	 * Method to determine the best location between two Location objects
+	 * Starts the request, or keeps it waiting for the permissions
+	 *
+	 * @return True when the request was started
 	 **/
-	private boolean isBetterLocation (Location location, Location currentBestLocation) {
-		if (currentBestLocation == null) {
-			// A new location is always better than no location
-			return true;
+	private boolean submitRequest (final PendingRequest request) {
+		// Check the permissions
+		if (!checkPermissions ()) {
+			pendingRequests.add (request);
+			return false;
 		}
 
-		// Check whether the new location fix is newer or older
-		long timeDelta = location.getTime () - currentBestLocation.getTime ();
-		boolean isSignificantlyNewer = timeDelta > TWO_MINUTES;
-		boolean isSignificantlyOlder = timeDelta < -TWO_MINUTES;
-		boolean isNewer = timeDelta > 0;
-
-		// If it's been more than two minutes since the current location, use the new location,
-		// because the user has likely moved.
-		if (isSignificantlyNewer) {
-			return true;
-			// If the new location is more than two minutes older, it must be worse.
-		} else if (isSignificantlyOlder) {
+		// Check the location manager
+		final LocationSource locationSource = getLocationSource ();
+		if (locationSource == null) {
+			request.future.fail ("Ocorreu um erro inesperado, por favor, tente novamente mais tarde!");
 			return false;
 		}
 
-		// Check whether the new location fix is more or less accurate
-		int accuracyDelta = (int) (location.getAccuracy () - currentBestLocation.getAccuracy ());
-		boolean isLessAccurate = accuracyDelta > 0;
-		boolean isMoreAccurate = accuracyDelta < 0;
-		boolean isSignificantlyLessAccurate = accuracyDelta > 200;
+		// The request itself runs with the provider callbacks
+		runOnWorkerThread (new Runnable () {
+			@Override
+			public void run () {
+				startLocationRequest (request, locationSource);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Resumes what was waiting for the permissions or for the providers
+	 **/
+	private void continuePendingTasks () {
+		if (trackingPending) {
+			startTracking (this.trackingBatchSize, this.trackingBatchWindow, this.batchListener);
+		}
 
-		// Check if the old and new location are from the same provider
-		boolean isFromSameProvider = isSameProvider (location.getProvider (), currentBestLocation.getProvider ());
+		if (streamingPending) {
+			startStreaming ();
+		}
 
-		// Determine location quality using a combination of timeliness and accuracy
-		if (isMoreAccurate) {
-			return true;
-		} else if (isNewer && !isLessAccurate) {
-			return true;
-		} else {
-			return isNewer && !isSignificantlyLessAccurate && isFromSameProvider;
+		for (PendingRequest request : pendingRequests.drain ()) {
+			submitRequest (request);
 		}
 	}
 
 	/**
-	 * Retrieve the location manager service, if available
-	 *
-	 * @return The location manager
+	 * Fails the requests waiting for the permissions
 	 **/
-	private LocationManager getLocationManager () {
-		// Request system service
-		LocationManager locationManager = (LocationManager) this.getContext ().getSystemService (Context.LOCATION_SERVICE);
+	private void failPendingRequests (String message) {
+		this.trackingPending = false;
 
-		// Check if we got a valid Service
-		if (locationManager == null) {
-			listener.onLocationRequestError ("Ocorreu um erro inesperado, por favor, tente novamente mais tarde!");
+		for (PendingRequest request : pendingRequests.drain ()) {
+			request.future.fail (message);
 		}
 
-		return locationManager;
+		if (streamingPending) {
+			this.streamingPending = false;
+			locationPublisher.fail (message);
+		}
 	}
-	//</editor-fold>
-
-	//<editor-fold defaultstate="collapsed" desc="Location handling">
 
 	/**
-	 * Begins the process of retrieving user's location
+	 * Notifies the listener and fails the requests waiting for a fix
 	 **/
-	@SuppressLint ("MissingPermission")
-	private boolean startLocationRequest () {
-		// Calls the user event
-		this.listener.onLocationRequestStart ();
+	private void failActiveRequests (String message) {
+		notifyError (message);
 
-		// Check the location manager
-		LocationManager locationManager = getLocationManager ();
-		if (locationManager == null) {
-			return false;
+		for (PendingRequest request : activeRequests.drain ()) {
+			request.future.fail (message);
 		}
 
-		// Save the current time, to calculate the elapsed time after
-		this.beginRequestTime = System.currentTimeMillis ();
+		if (streaming) {
+			locationPublisher.fail (message);
+		}
+	}
 
-		// Try to retrieve the last known location
-		Location locationGPS = locationManager.getLastKnownLocation (LocationManager.GPS_PROVIDER);
-		Location locationNetwork = locationManager.getLastKnownLocation (LocationManager.NETWORK_PROVIDER);
+	/**
+	 * Called once a request finished in any way, on the provider thread
+	 **/
+	private void releaseRequest (PendingRequest request) {
+		pendingRequests.remove (request);
 
-		// Verify the newest location update
-		long locationTimeGPS = locationGPS != null ? locationGPS.getTime () : TWO_MINUTES + 1;
-		long locationTimeNetwork = locationNetwork != null ? locationNetwork.getTime () : TWO_MINUTES + 1;
-		long currentTime = new Date ().getTime ();
+		if (request.deadlineTask != null) {
+			getWorkerHandler ().removeCallbacks (request.deadlineTask);
+		}
 
-		if (locationTimeGPS - locationTimeNetwork > 0) {
-			// If we got an old location, request new update
-			if (currentTime - locationTimeGPS >= ONE_MINUTE || DEBUG_MODE) {
-				requestLocationUpdates (locationManager);
+		if (activeRequests.remove (request)) {
+			// Unregister the providers nobody else needs
+			LocationSource locationSource = getLocationSource ();
+			if (locationSource != null) {
+				updateProviderSubscriptions (locationSource);
 			} else {
-				Log.d ("LocationHelper", "GPS cached location " + locationGPS.getLatitude () + ", " + locationGPS.getLongitude () + " with precision " + locationGPS.getAccuracy ());
-				// We got an valid and recent location, update it on the class
-				setBestLocation (locationGPS);
+				releaseProviderSubscriptions ();
 			}
-		} else {
-			// If we got an old location, request new update
-			if (currentTime - locationTimeNetwork >= ONE_MINUTE || DEBUG_MODE) {
-				requestLocationUpdates (locationManager);
-			} else {
-				Log.d ("LocationHelper", "Network cached location " + locationNetwork.getLatitude () + ", " + locationNetwork.getLongitude () + " with precision " + locationNetwork
-						.getAccuracy ());
-				// We got an valid and recent location, update it on the class
-				setBestLocation (locationNetwork);
+		}
+
+		if (request.future.isTimedOut ()) {
+			metricsRecorder.recordTimeout ();
+			// Calls the listener, we have an timeout event
+			final OnLocationTimeoutListener timeoutListener = request.timeoutListener;
+			if (timeoutListener != null) {
+				getListenerExecutor ().execute (new Runnable () {
+					@Override
+					public void run () {
+						timeoutListener.onLocationTimedOut ();
+					}
+				});
 			}
 		}
+	}
 
-		return true;
+	/**
+	 * Runs the task on the provider thread, where every request, tracking and provider state change happens,
+	 * right away if already on it
+	 **/
+	private void runOnWorkerThread (Runnable task) {
+		Handler handler = getWorkerHandler ();
+		if (Looper.myLooper () == handler.getLooper ()) {
+			task.run ();
+		} else {
+			handler.post (task);
+		}
 	}
 
-	private void requestLocationUpdates (LocationManager locationManager) {
-		try {
-			// Getting GPS status
-			boolean isGPSEnabled = locationManager.isProviderEnabled (LocationManager.GPS_PROVIDER);
+	private Handler getWorkerHandler () {
+		synchronized (this) {
+			if (workerHandler == null) {
+				workerHandler = new Handler (LocationProviderHub.getInstance ().getLooper ());
+			}
 
-			// Getting network status
-			boolean isNetworkEnabled = locationManager.isProviderEnabled (LocationManager.NETWORK_PROVIDER);
+			return workerHandler;
+		}
+	}
 
-			// Getting passive status
-			boolean isPassiveEnabled = locationManager.isProviderEnabled (LocationManager.PASSIVE_PROVIDER);
+	/**
+	 * The executor of the listener callbacks, by default the main thread
+	 **/
+	private Executor getListenerExecutor () {
+		Executor executor = this.listenerExecutor;
+		if (executor != null) return executor;
 
-			if (isGPSEnabled || isNetworkEnabled) {
-				if (isGPSEnabled) {
-					setupGpsLocationListener (locationManager);
-				} else {
-					Log.i ("LocationHelper", "GPS provider disabled");
-					gpsListener = null;// Make gps listener invalid
+		final Handler handler = getMainHandler ();
+		return new Executor () {
+			@Override
+			public void execute (Runnable task) {
+				handler.post (task);
+			}
+		};
+	}
+
+	private void notifyRequestStart () {
+		getListenerExecutor ().execute (new Runnable () {
+			@Override
+			public void run () {
+				listener.onLocationRequestStart ();
+			}
+		});
+	}
+
+	private void notifyLocation (final Location location) {
+		if (listener == null) return;
+
+		getListenerExecutor ().execute (new Runnable () {
+			@Override
+			public void run () {
+				long dispatchStart = System.nanoTime ();
+				listener.onLocationRetrieved (location);
+				metricsRecorder.recordDispatchTime (System.nanoTime () - dispatchStart);
+			}
+		});
+	}
+
+	private void notifyError (final String message) {
+		getListenerExecutor ().execute (new Runnable () {
+			@Override
+			public void run () {
+				listener.onLocationRequestError (message);
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the location source, by default the location manager service, if available
+	 *
+	 * @return The location source
+	 **/
+	private LocationSource getLocationSource () {
+		// A custom source was set
+		if (this.locationSource != null) {
+			return this.locationSource;
+		}
+
+		// Request system service, from the application context: each context has its own manager and listeners, so
+		// every helper must use the same one for the hub to share and release the registrations process-wide
+		LocationManager locationManager = (LocationManager) this.getContext ().getApplicationContext ().getSystemService (Context.LOCATION_SERVICE);
+
+		// Check if we got a valid Service
+		if (locationManager == null) {
+			notifyError ("Ocorreu um erro inesperado, por favor, tente novamente mais tarde!");
+			return null;
+		}
+
+		if (platformLocationSource == null || !platformLocationSource.isBackedBy (locationManager)) {
+			platformLocationSource = new PlatformLocationSource (locationManager);
+		}
+
+		return platformLocationSource;
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Location handling">
+
+	/**
+	 * Begins the process of retrieving user's location
+	 **/
+	private void startLocationRequest (PendingRequest request, LocationSource locationSource) {
+		// Cancelled while waiting for the permissions
+		if (request.future.isDone ()) return;
+
+		// Calls the user event
+		notifyRequestStart ();
+
+		// Save the current time, to calculate the elapsed time after
+		request.beginTime = System.currentTimeMillis ();
+
+		if (request.refinedListener != null) {
+			startRefinement (request, locationSource);
+			return;
+		}
+
+		// Try to answer from the cached fixes, only starting the providers when none meets the request limits
+		Location cachedLocation = findCachedLocation (locationSource, request.maxAge, request.maxAccuracy);
+		if (cachedLocation != null && !DEBUG_MODE) {
+			Log.d ("LocationHelper", cachedLocation.getProvider () + " cached location " + cachedLocation.getLatitude () + ", " + cachedLocation
+					.getLongitude () + " with precision " + cachedLocation.getAccuracy ());
+			// We got an valid and recent location, update it on the class
+			metricsRecorder.recordCacheHit ();
+			setBestLocation (cachedLocation);
+			completeRequests (Collections.singletonList (request));
+			return;
+		}
+
+		activeRequests.add (request);
+
+		if (request.timeout > 0) {
+			metricsRecorder.recordTimedRequest ();
+			request.future.withTimeout (request.timeout);
+		}
+
+		updateProviderSubscriptions (locationSource);
+	}
+
+	/**
+	 * Starts a progressive request, from the best cached fix of any accuracy
+	 **/
+	private void startRefinement (final PendingRequest request, LocationSource locationSource) {
+		final Location cachedLocation = findCachedLocation (locationSource, cachedLocationMaxAge, 0);
+		if (cachedLocation != null) {
+			setBestLocation (cachedLocation);
+			if (refineRequest (request, cachedLocation)) {
+				metricsRecorder.recordCacheHit ();
+				return;
+			}
+		}
+
+		activeRequests.add (request);
+		// Counted like the other timed requests, at the start, or the timeout rate is skewed
+		metricsRecorder.recordTimedRequest ();
+
+		// At the deadline, keep the most accurate fix delivered so far
+		request.deadlineTask = new Runnable () {
+			@Override
+			public void run () {
+				final Location location = request.refinedLocation;
+				if (location == null) {
+					request.future.withTimeout (0);
+				} else if (request.future.complete (location)) {
+					locationState.set (new LocationState (getBestLocation (), System.currentTimeMillis () - request.beginTime));
+					if (location == cachedLocation) {
+						metricsRecorder.recordCacheHit ();
+					} else {
+						metricsRecorder.recordLiveFix ();
+					}
+
+					// The listener learns the request ended, with the location it already had
+					getListenerExecutor ().execute (new Runnable () {
+						@Override
+						public void run () {
+							request.refinedListener.onLocationRefined (location, true);
+						}
+					});
 				}
+			}
+		};
+		getWorkerHandler ().postDelayed (request.deadlineTask, request.deadline);
 
-				if (isNetworkEnabled) {
-					setupNetworkLocationListener (locationManager);
-				} else {
-					Log.i ("LocationHelper", "Network provider disabled");
-					networkListener = null;// Make network listener invalid
+		updateProviderSubscriptions (locationSource);
+	}
+
+	/**
+	 * Delivers the fix to the progressive request if it is more accurate than the last one, completing the request
+	 * once the target accuracy is reached
+	 *
+	 * @return True when the fix completed the request
+	 **/
+	private boolean refineRequest (final PendingRequest request, final Location location) {
+		if (request.future.isDone ()) return false;
+		if (request.refinedLocation != null && (!location.hasAccuracy () || location.getAccuracy () >= request.refinedLocation.getAccuracy ())) return false;
+
+		request.refinedLocation = location;
+		final boolean isFinal = location.hasAccuracy () && location.getAccuracy () <= request.targetAccuracy;
+		getListenerExecutor ().execute (new Runnable () {
+			@Override
+			public void run () {
+				request.refinedListener.onLocationRefined (location, isFinal);
+			}
+		});
+
+		if (isFinal && request.future.complete (location)) {
+			locationState.set (new LocationState (getBestLocation (), System.currentTimeMillis () - request.beginTime));
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Looks for the best fix meeting the limits among the recent provider fixes, the last known locations
+	 * and the location persisted by the last session
+	 *
+	 * @return The best fix, or null if none meets the limits
+	 **/
+	private Location findCachedLocation (LocationSource locationSource, long maxAge, float maxAccuracy) {
+		long now = System.currentTimeMillis ();
+
+		// The in-memory fixes of every provider, newest first
+		int bestIndex = -1;
+		for (int i = recentFixes.size () - 1; i >= 0; i--) {
+			if (!isCachedFixUsable (recentFixes.getTime (i), recentFixes.getAccuracy (i), now, maxAge, maxAccuracy)) continue;
+
+			if (bestIndex < 0 || FixComparator.isBetterFix (recentFixes.getTime (i), recentFixes.getAccuracy (i), recentFixes.getProvider (i),
+					true, recentFixes.getTime (bestIndex), recentFixes.getAccuracy (bestIndex), recentFixes.getProvider (bestIndex))) {
+				bestIndex = i;
+			}
+		}
+
+		Location best = null;
+		if (bestIndex >= 0) {
+			String provider = recentFixes.getProvider (bestIndex);
+			best = new Location (provider != null ? provider : LocationManager.PASSIVE_PROVIDER);
+			best.setLatitude (recentFixes.getLatitude (bestIndex));
+			best.setLongitude (recentFixes.getLongitude (bestIndex));
+			best.setAccuracy (recentFixes.getAccuracy (bestIndex));
+			best.setSpeed (recentFixes.getSpeed (bestIndex));
+			best.setBearing (recentFixes.getBearing (bestIndex));
+			best.setTime (recentFixes.getTime (bestIndex));
+		}
+
+		// The last known locations, from the providers and from the persisted cache
+		best = getBetterCachedLocation (locationSource.getLastKnownLocation (LocationManager.GPS_PROVIDER), best, now, maxAge, maxAccuracy);
+		best = getBetterCachedLocation (locationSource.getLastKnownLocation (LocationManager.NETWORK_PROVIDER), best, now, maxAge, maxAccuracy);
+		best = getBetterCachedLocation (readPersistedLocation (), best, now, maxAge, maxAccuracy);
+
+		return best;
+	}
+
+	/**
+	 * Retrieves the better between a candidate and the current best, the candidate must meet the limits
+	 **/
+	private Location getBetterCachedLocation (Location candidate, Location best, long now, long maxAge, float maxAccuracy) {
+		if (candidate == null || !isCachedFixUsable (candidate.getTime (), candidate.hasAccuracy () ? candidate.getAccuracy () : 0, now, maxAge, maxAccuracy)) {
+			return best;
+		}
+
+		if (best == null || FixComparator.isBetterFix (candidate.getTime (), candidate.getAccuracy (), candidate.getProvider (),
+				true, best.getTime (), best.getAccuracy (), best.getProvider ())) {
+			return candidate;
+		}
+
+		return best;
+	}
+
+	/**
+	 * Checks whether a cached fix meets the age and accuracy limits
+	 *
+	 * @param accuracy The accuracy (In meters), zero when unknown
+	 **/
+	private static boolean isCachedFixUsable (long time, float accuracy, long now, long maxAge, float maxAccuracy) {
+		// A fix stamped ahead of the device clock is fresh, as the GPS time often is, and the replayed fixes may run far ahead
+		long age = Math.max (now - time, 0);
+		if (age >= maxAge) {
+			return false;
+		}
+
+		return maxAccuracy <= 0 || (accuracy > 0 && accuracy <= maxAccuracy);
+	}
+
+	/**
+	 * Reads the location persisted by the last session, if any
+	 **/
+	Location readPersistedLocation () {
+		LastFixCache.Fix fix = getLastFixCache ().read ();
+		if (fix == null) return null;
+
+		String provider = ProviderCodes.toName (fix.provider);
+		Location location = new Location (provider != null ? provider : LocationManager.PASSIVE_PROVIDER);
+		location.setLatitude (fix.latitude);
+		location.setLongitude (fix.longitude);
+		location.setAccuracy (fix.accuracy);
+		location.setTime (fix.time);
+		// An empty bundle like the platform fixes carry, the restored fix goes through the same paths
+		location.setExtras (new Bundle ());
+
+		return location;
+	}
+
+	/**
+	 * Persists the best location, so the next cold start can use it right away
+	 **/
+	private void persistBestLocation () {
+		Location location = getBestLocation ();
+		if (location == null) return;
+
+		getLastFixCache ().write (location.getLatitude (), location.getLongitude (), location.getAccuracy (), location.getTime (), ProviderCodes.toCode (location.getProvider ()));
+	}
+
+	private LastFixCache getLastFixCache () {
+		synchronized (LocationHelper.class) {
+			if (lastFixCache == null) {
+				lastFixCache = new LastFixCache (new File (getContext ().getFilesDir (), PERSISTED_LOCATION_FILE));
+			}
+
+			return lastFixCache;
+		}
+	}
+
+	/**
+	 * Makes the provider subscriptions match what the tracking session and the active requests need,
+	 * unregistering every provider when nothing needs them
+	 **/
+	private void updateProviderSubscriptions (LocationSource locationSource) {
+		// Another source was set since the providers were subscribed
+		if (subscribedSource != null && !subscribedSource.equals (locationSource)) {
+			releaseProviderSubscriptions ();
+		}
+
+		if (!tracking && !streaming && activeRequests.isEmpty ()) {
+			releaseProviderSubscriptions ();
+			return;
+		}
+
+		try {
+			// Getting GPS status
+			boolean isGPSEnabled = locationSource.isProviderEnabled (LocationManager.GPS_PROVIDER);
+
+			// Getting network status
+			boolean isNetworkEnabled = locationSource.isProviderEnabled (LocationManager.NETWORK_PROVIDER);
+
+			// Getting passive status
+			boolean isPassiveEnabled = locationSource.isProviderEnabled (LocationManager.PASSIVE_PROVIDER);
+
+			// The update rates, adapted to the current speed while tracking
+			long minTime = ONE_MINUTE;
+			float minDistance = DISTANCE_FOR_UPDATES;
+
+			// The progressive requests want every improvement
+			for (PendingRequest request : activeRequests.snapshot ()) {
+				if (request.refinedListener != null) {
+					minTime = REFINEMENT_MIN_TIME;
+					minDistance = 0;
+					break;
 				}
-			} else {
+			}
+			boolean useGPS = isGPSEnabled;
+			boolean useNetwork = isNetworkEnabled;
+
+			if (tracking && adaptiveScheduler != null) {
+				AdaptiveScheduler.Profile profile = adaptiveScheduler.getProfile ();
+				minTime = Math.min (minTime, profile.minTime);
+				minDistance = Math.min (minDistance, profile.minDistance);
+
+				// Only restrict the providers when no request needs them and at least one of the wanted ones is enabled
+				if (activeRequests.isEmpty () && ((profile.useGps && isGPSEnabled) || (profile.useNetwork && isNetworkEnabled))) {
+					minTime = profile.minTime;
+					minDistance = profile.minDistance;
+					useGPS = profile.useGps && isGPSEnabled;
+					useNetwork = profile.useNetwork && isNetworkEnabled;
+				}
+			}
 
+			boolean usePassive = !useGPS && !useNetwork && isPassiveEnabled;
+			if (!useGPS && !useNetwork && !usePassive) {
 				Log.i ("LocationHelper", "GPS provider disabled");
 				Log.i ("LocationHelper", "Network provider disabled");
 
-				if (isPassiveEnabled) {
-					// Try to get as passive provider
-					setupPassiveLocationListener (locationManager);
-				} else {
-					// Otherwise, none provider enabled. Show error
-					listener.onLocationRequestError ("Não foi possível localizá-lo. GPS e Network inativos!");
-				}
+				// Otherwise, none provider enabled. Show error
+				releaseProviderSubscriptions ();
+				failActiveRequests ("Não foi possível localizá-lo. GPS e Network inativos!");
+				return;
 			}
+
+			// A new provider session, measure its first fixes
+			if (subscribedSource == null) {
+				this.beginRequestTime = System.currentTimeMillis ();
+				resetFirstFixes ();
+			}
+
+			subscribedSource = locationSource;
+			gpsSubscription.update (locationSource, useGPS, minTime, minDistance);
+			networkSubscription.update (locationSource, useNetwork, minTime, minDistance);
+			passiveSubscription.update (locationSource, usePassive, minTime, minDistance);
 		} catch (Exception e) {
 			e.printStackTrace ();
-			listener.onLocationRequestError ("Ocorreu um erro inesperado ao buscar sua localização, por favor tente novamente mais tarde!");
+			releaseProviderSubscriptions ();
+			failActiveRequests ("Ocorreu um erro inesperado ao buscar sua localização, por favor tente novamente mais tarde!");
 		}
 	}
 
-	@SuppressLint ("MissingPermission")
-	private void setupGpsLocationListener (final LocationManager locationManager) {
-		Log.d ("LocationHelper", "Starting gps provider...");
-		// Setup the GPS listener
-		gpsListener = new LocationMinifiedListener () {
-			@Override
-			public void onLocationChanged (Location location) {
-				Log.d ("LocationHelper", "GPS retrieved location " + location.getLatitude () + ", " + location.getLongitude () + " with precision " + location.getAccuracy ());
-				// Set current best location
-				setBestLocation (location);
-				// Dispose itself
-				locationManager.removeUpdates (gpsListener);
-				// Remove the other provider listener
-				if (networkListener != null) {
-					locationManager.removeUpdates (networkListener);
+	/**
+	 * Unregisters every provider listener
+	 **/
+	private void releaseProviderSubscriptions () {
+		if (subscribedSource == null) return;
+
+		gpsSubscription.release (subscribedSource);
+		networkSubscription.release (subscribedSource);
+		passiveSubscription.release (subscribedSource);
+		subscribedSource = null;
+	}
+
+	/**
+	 * Handles a fix delivered by any provider
+	 **/
+	private void onProviderLocation (Location location) {
+		// The filters only gate what is kept and streamed, a waiting request still sees the fix: a stationary device
+		// may have every fix rejected as jitter, and the request would never complete
+		boolean accepted = dispatchProviderLocation (location);
+		if (!accepted && activeRequests.isEmpty ()) return;
+
+		// Let the strategy decide the current best location
+		Location selectedLocation = setBestLocation (location);
+
+		if (accepted) {
+			evaluateStayPoints (location);
+
+			// Only the selected fixes, a coarse fix of another provider would show as a jump at hundreds of m/s
+			if (selectedLocation != null) {
+				updatePrediction (selectedLocation);
+			}
+
+			if (tracking) {
+				addTrackingLocation (location);
+			}
+
+			// Never blocks, each subscriber takes the fix from its own queue
+			if (streaming) {
+				locationPublisher.publish (location);
+			}
+		}
+
+		// The fix answers the waiting requests
+		if (!activeRequests.isEmpty ()) {
+			List<PendingRequest> requests = activeRequests.snapshot ();
+			int answered = 0;
+			for (PendingRequest request : requests) {
+				if (request.refinedListener != null && refineRequest (request, location)) {
+					answered++;
 				}
 			}
-		};
-		// Request the locationManager updates
-		locationManager.requestLocationUpdates (
-				LocationManager.GPS_PROVIDER,
-				ONE_MINUTE,
-				DISTANCE_FOR_UPDATES,
-				gpsListener
-		);
+			answered += completeRequests (requests);
+
+			// Once per request answered, comparable with the cache hits
+			for (int i = 0; i < answered; i++) {
+				metricsRecorder.recordLiveFix ();
+			}
+		}
 	}
 
-	@SuppressLint ("MissingPermission")
-	private void setupNetworkLocationListener (final LocationManager locationManager) {
-		Log.d ("LocationHelper", "Starting network provider...");
-		// Setup the GPS listener
-		networkListener = new LocationMinifiedListener () {
-			@Override
-			public void onLocationChanged (Location location) {
-				Log.d ("LocationHelper", "Network retrieved location " + location.getLatitude () + ", " + location.getLongitude () + " with precision " + location.getAccuracy ());
-				// Set current best location
-				setBestLocation (location);
-				// Dispose itself
-				locationManager.removeUpdates (networkListener);
-				// Remove the other provider listener
-				if (gpsListener != null) {
-					locationManager.removeUpdates (gpsListener);
+	/**
+	 * Handles every fix delivered by the providers, before the request specific handling
+	 *
+	 * @return False when the fix was rejected by the filters, and so kept out of the buffer, the track, the history and the upload
+	 **/
+	private boolean dispatchProviderLocation (Location location) {
+		// Measure the provider
+		int providerCode = ProviderCodes.toCode (location.getProvider ());
+		if (!firstFixSeen[providerCode]) {
+			firstFixSeen[providerCode] = true;
+			metricsRecorder.recordTimeToFirstFix (location.getProvider (), System.currentTimeMillis () - beginRequestTime);
+		}
+		metricsRecorder.recordFixAccuracy (location.getProvider (), location.getAccuracy ());
+
+		// Drop the outliers and the jitter before anything else keeps the fix
+		FilterPipeline filterPipeline = this.filterPipeline;
+		if (filterPipeline != null && !filterPipeline.filter (location.getLatitude (), location.getLongitude (), location.getAccuracy (), location.getTime ())) {
+			Log.d ("LocationHelper", "Fix from " + location.getProvider () + " rejected by the filters");
+			return false;
+		}
+
+		// Copy the fix fields, without retaining the Location object, locked against the snapshots
+		synchronized (recentFixes) {
+			recentFixes.add (
+					location.getLatitude (),
+					location.getLongitude (),
+					location.getAccuracy (),
+					location.getSpeed (),
+					location.getBearing (),
+					location.getTime (),
+					providerCode
+			);
+		}
+
+		// Append it to the track, if recording
+		if (trackRecorder != null) {
+			try {
+				trackRecorder.append (
+						location.getLatitude (),
+						location.getLongitude (),
+						location.getAccuracy (),
+						location.getSpeed (),
+						location.getBearing (),
+						location.getTime (),
+						providerCode
+				);
+			} catch (IOException e) {
+				e.printStackTrace ();
+			}
+		}
+
+		// Keep it in the history, for the time and area queries
+		FixHistory fixHistory = this.fixHistory;
+		if (fixHistory != null) {
+			try {
+				if (!fixHistory.append (
+						location.getLatitude (),
+						location.getLongitude (),
+						location.getAccuracy (),
+						location.getSpeed (),
+						location.getBearing (),
+						location.getTime (),
+						providerCode
+				)) {
+					Log.d ("LocationHelper", "Fix refused by the history, older than the last one");
 				}
+			} catch (IOException e) {
+				e.printStackTrace ();
 			}
-		};
-		// Request the locationManager updates
-		locationManager.requestLocationUpdates (
-				LocationManager.NETWORK_PROVIDER,
-				ONE_MINUTE,
-				DISTANCE_FOR_UPDATES,
-				networkListener
-		);
+		}
+
+		// Queue it for the server, never blocking the provider thread
+		FixUploader fixUploader = this.fixUploader;
+		if (fixUploader != null && !fixUploader.offer (
+				location.getLatitude (),
+				location.getLongitude (),
+				location.getAccuracy (),
+				location.getSpeed (),
+				location.getBearing (),
+				location.getTime (),
+				providerCode
+		)) {
+			Log.d ("LocationHelper", "Fix refused by the uploader, its queue is full");
+		}
+
+		return true;
 	}
 
-	@SuppressLint ("MissingPermission")
-	private void setupPassiveLocationListener (final LocationManager locationManager) {
-		Log.d ("LocationHelper", "Starting passive provider...");
-		// Setup the passive listener
-		passiveListener = new LocationMinifiedListener () {
-			@Override
-			public void onLocationChanged (Location location) {
-				Log.d ("LocationHelper", "Passive retrieved location " + location.getLatitude () + ", " + location.getLongitude () + " with precision " + location.getAccuracy ());
-				// Set current best location
-				setBestLocation (location);
-				// Dispose itself
-				locationManager.removeUpdates (passiveListener);
+	private void resetFirstFixes () {
+		for (int i = 0; i < firstFixSeen.length; i++) {
+			firstFixSeen[i] = false;
+		}
+	}
+
+	/**
+	 * Stores a fix of the tracking session on the current batch
+	 **/
+	private void addTrackingLocation (Location location) {
+		// Register the providers again when the speed asks for another cadence
+		if (adaptiveScheduler != null
+				&& adaptiveScheduler.update (location.getLatitude (), location.getLongitude (), location.hasSpeed () ? location.getSpeed () : -1f, location.getTime ())) {
+			LocationSource locationSource = getLocationSource ();
+			if (locationSource != null) {
+				Log.d ("LocationHelper", "Switching to activity " + adaptiveScheduler.getActivity ());
+				updateProviderSubscriptions (locationSource);
 			}
-		};
-		// Request the locationManager updates
-		locationManager.requestLocationUpdates (
-				LocationManager.PASSIVE_PROVIDER,
-				ONE_MINUTE,
-				DISTANCE_FOR_UPDATES,
-				passiveListener
+		}
+
+		if (batcher == null) return;
+
+		boolean isFirstOfBatch = batcher.isEmpty ();
+		if (batcher.add (location, System.currentTimeMillis ())) {
+			flushLocationBatch ();
+		} else if (isFirstOfBatch && trackingBatchWindow > 0) {
+			// Schedule the delivery at the end of the batch window
+			getWorkerHandler ().postDelayed (batchWindowTask, trackingBatchWindow);
+		}
+	}
+
+	/**
+	 * Feeds the predictor with the fix, timed when it was taken rather than when it arrived
+	 **/
+	private void updatePrediction (Location location) {
+		PositionPredictor positionPredictor = this.positionPredictor;
+		if (positionPredictor == null) return;
+
+		// The wall clock age, only trusted within a few seconds since the GPS time may disagree with the device clock
+		long fixTime = System.nanoTime ();
+		long age = System.currentTimeMillis () - location.getTime ();
+		if (age > 0 && age < MAX_PREDICTION_FIX_AGE) {
+			fixTime -= age * 1000000;
+		}
+
+		positionPredictor.update (
+				location.getLatitude (),
+				location.getLongitude (),
+				location.getAccuracy (),
+				location.hasSpeed () ? location.getSpeed () : -1f,
+				location.hasBearing () ? location.getBearing () : -1f,
+				fixTime
 		);
 	}
+
+	/**
+	 * Feeds the stop detector, dropping to the stationary profile once a stop is confirmed
+	 **/
+	private void evaluateStayPoints (Location location) {
+		StayPointDetector stayPointDetector = this.stayPointDetector;
+		if (stayPointDetector == null) return;
+
+		// The stop events run on the listener executor, never holding the detector
+		int event = stayPointDetector.update (location.getLatitude (), location.getLongitude (), location.getAccuracy (), location.getTime (), getListenerExecutor ());
+		if (event == StayPointDetector.EVENT_NONE || !tracking || adaptiveScheduler == null) return;
+
+		// The speed takes a few fixes to tell, the stop already knows. Leaving it never overrides a faster activity
+		int activity = event == StayPointDetector.EVENT_ARRIVAL ? AdaptiveScheduler.ACTIVITY_STATIONARY : AdaptiveScheduler.ACTIVITY_WALKING;
+		if (activity == AdaptiveScheduler.ACTIVITY_WALKING && adaptiveScheduler.getActivity () != AdaptiveScheduler.ACTIVITY_STATIONARY) return;
+
+		if (adaptiveScheduler.setActivity (activity)) {
+			LocationSource locationSource = getLocationSource ();
+			if (locationSource != null) {
+				Log.d ("LocationHelper", "Switching to activity " + activity + " after a stop " + (activity == AdaptiveScheduler.ACTIVITY_STATIONARY ? "arrival" : "departure"));
+				updateProviderSubscriptions (locationSource);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the geofences against the location, if an engine was set
+	 **/
+	private void evaluateGeofences (Location location) {
+		if (geofenceEngine != null) {
+			geofenceEngine.evaluate (location.getLatitude (), location.getLongitude (), location.getTime ());
+		}
+	}
+
+	/**
+	 * Delivers the current batch to the batch listener
+	 **/
+	private void flushLocationBatch () {
+		if (workerHandler != null) {
+			workerHandler.removeCallbacks (batchWindowTask);
+		}
+
+		if (batcher == null || batcher.isEmpty ()) return;
+
+		final List<Location> locations = batcher.drain ();
+		final OnLocationBatchListener batchListener = this.sessionBatchListener;
+		if (batchListener != null) {
+			getListenerExecutor ().execute (new Runnable () {
+				@Override
+				public void run () {
+					long dispatchStart = System.nanoTime ();
+					batchListener.onLocationBatchRetrieved (locations);
+					metricsRecorder.recordDispatchTime (System.nanoTime () - dispatchStart);
+				}
+			});
+		}
+	}
+
+	private Handler getMainHandler () {
+		synchronized (this) {
+			if (mainHandler == null) {
+				mainHandler = new Handler (Looper.getMainLooper ());
+			}
+
+			return mainHandler;
+		}
+	}
+
 	//</editor-fold>
 
 	private Context getContext () {
@@ -692,6 +1702,124 @@ public final class LocationHelper {
 		}
 	}
 
+	/**
+	 * An immutable snapshot of the retrieved location, replaced as a whole so any thread reads a consistent pair
+	 **/
+	private static final class LocationState {
+		static final LocationState EMPTY = new LocationState (null, 0);
+
+		final Location bestLocation;
+		final long requestElapsedTime;
+
+		LocationState (Location bestLocation, long requestElapsedTime) {
+			this.bestLocation = bestLocation;
+			this.requestElapsedTime = requestElapsedTime;
+		}
+	}
+
+	/**
+	 * An outstanding location request
+	 **/
+	private final class PendingRequest {
+		final long maxAge;
+		final float maxAccuracy;
+		final int timeout;
+		final OnLocationTimeoutListener timeoutListener;
+		final RequestFuture<Location> future;
+		long beginTime;
+
+		// Progressive requests only
+		final float targetAccuracy;
+		final long deadline;
+		final OnLocationRefinedListener refinedListener;
+		Location refinedLocation;
+		Runnable deadlineTask;
+
+		PendingRequest (long maxAge, float maxAccuracy, int timeout, OnLocationTimeoutListener timeoutListener) {
+			this (maxAge, maxAccuracy, timeout, timeoutListener, 0, 0, null);
+		}
+
+		PendingRequest (float targetAccuracy, long deadline, OnLocationRefinedListener refinedListener) {
+			this (0, 0, 0, null, targetAccuracy, deadline, refinedListener);
+		}
+
+		private PendingRequest (long maxAge, float maxAccuracy, int timeout, OnLocationTimeoutListener timeoutListener,
+								float targetAccuracy, long deadline, OnLocationRefinedListener refinedListener) {
+			this.maxAge = maxAge;
+			this.maxAccuracy = maxAccuracy;
+			this.timeout = timeout;
+			this.timeoutListener = timeoutListener;
+			this.targetAccuracy = targetAccuracy;
+			this.deadline = deadline;
+			this.refinedListener = refinedListener;
+			this.future = new RequestFuture<> (new Runnable () {
+				@Override
+				public void run () {
+					// Cancellations and timeouts may come from any thread
+					runOnWorkerThread (new Runnable () {
+						@Override
+						public void run () {
+							releaseRequest (PendingRequest.this);
+						}
+					});
+				}
+			});
+		}
+	}
+
+	/**
+	 * The helper subscription to a provider
+	 **/
+	private final class ProviderSubscription extends LocationMinifiedListener {
+		private final String provider;
+		private final String label;
+
+		private boolean subscribed;
+		private long minTime;
+		private float minDistance;
+
+		ProviderSubscription (String provider, String label) {
+			this.provider = provider;
+			this.label = label;
+		}
+
+		/**
+		 * Subscribes to the provider with the rates, or releases it if not wanted
+		 **/
+		@SuppressLint ("MissingPermission")
+		void update (LocationSource locationSource, boolean wanted, long minTime, float minDistance) {
+			if (!wanted) {
+				release (locationSource);
+				return;
+			}
+
+			if (subscribed && this.minTime == minTime && this.minDistance == minDistance) return;
+
+			Log.d ("LocationHelper", "Starting " + label + " provider...");
+			// Subscribe to the provider updates, sharing the registration with other helpers
+			LocationProviderHub.getInstance ().subscribe (locationSource, provider, minTime, minDistance, this);
+			this.subscribed = true;
+			this.minTime = minTime;
+			this.minDistance = minDistance;
+		}
+
+		void release (LocationSource locationSource) {
+			if (!subscribed) return;
+
+			LocationProviderHub.getInstance ().unsubscribe (locationSource, this);
+			this.subscribed = false;
+		}
+
+		@Override
+		public void onLocationChanged (Location location) {
+			// A late delivery, after the release
+			if (!subscribed) return;
+
+			Log.d ("LocationHelper", label + " retrieved location " + location.getLatitude () + ", " + location.getLongitude () + " with precision " + location.getAccuracy ());
+			onProviderLocation (location);
+		}
+	}
+
 	/**
 	 * The timeout listener
 	 */
@@ -699,6 +1827,30 @@ public final class LocationHelper {
 		void onLocationTimedOut ();
 	}
 
+	/**
+	 * The tracking batch listener
+	 */
+	public interface OnLocationBatchListener {
+		/**
+		 * Called when a batch of tracked locations is ready, ordered by arrival
+		 *
+		 * @param locations
+		 **/
+		void onLocationBatchRetrieved (List<Location> locations);
+	}
+
+	/**
+	 * The progressive request listener
+	 **/
+	public interface OnLocationRefinedListener {
+		/**
+		 * Called with the first location and each more accurate one, and once more as final if the deadline ends the request
+		 *
+		 * @param isFinal Whether the location ends the request, reaching the target accuracy or at the deadline
+		 **/
+		void onLocationRefined (Location location, boolean isFinal);
+	}
+
 	public interface CustomDialogHandler {
 		void onShow (AlertDialog dialog);
 	}
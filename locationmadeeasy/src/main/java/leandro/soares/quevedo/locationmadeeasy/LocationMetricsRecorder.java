@@ -0,0 +1,44 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Receives the timing and quality measurements of the location requests
+ * <p>
+ * The methods are called on the provider callback thread, so implementations must be cheap and thread-safe.
+ **/
+public interface LocationMetricsRecorder {
+
+	/**
+	 * The time (In millis) from the start of a request to the first fix of a provider
+	 **/
+	void recordTimeToFirstFix (String provider, long millis);
+
+	/**
+	 * The accuracy (In meters) of each fix delivered by a provider
+	 **/
+	void recordFixAccuracy (String provider, float accuracy);
+
+	/**
+	 * A request answered by a cached location, without starting the providers
+	 **/
+	void recordCacheHit ();
+
+	/**
+	 * A request answered by a provider fix
+	 **/
+	void recordLiveFix ();
+
+	/**
+	 * A request started with a time limit
+	 **/
+	void recordTimedRequest ();
+
+	/**
+	 * A request that reached its time limit
+	 **/
+	void recordTimeout ();
+
+	/**
+	 * The time (In nanos) spent on the user listener
+	 **/
+	void recordDispatchTime (long nanos);
+}
@@ -0,0 +1,205 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide hub that keeps at most one platform registration per provider, fanning out each fix to every subscriber
+ * <p>
+ * The registrations are reference counted, the platform listener of a provider is removed as soon as its last
+ * subscriber leaves. When subscribers ask for different update rates, the most demanding one is used.
+ * Every registration delivers on the hub own background thread, never on the main thread.
+ **/
+final class LocationProviderHub {
+
+	private static LocationProviderHub instance;
+
+	// Registrations by source and provider
+	private final Map<LocationSource, Map<String, ProviderRegistration>> registrations = new HashMap<> ();
+
+	private HandlerThread thread;
+
+	private LocationProviderHub () {
+	}
+
+	static synchronized LocationProviderHub getInstance () {
+		if (instance == null) {
+			instance = new LocationProviderHub ();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * The looper of the thread the provider callbacks run on, started on first use
+	 **/
+	synchronized Looper getLooper () {
+		if (thread == null) {
+			thread = new HandlerThread ("LocationHelper-providers", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start ();
+		}
+
+		return thread.getLooper ();
+	}
+
+	/**
+	 * Adds a subscriber to the provider, registering it on the platform if it is the first one
+	 *
+	 * @param minTime     The minimum time between updates (In millis) wanted by the subscriber
+	 * @param minDistance The minimum distance between updates (In meters) wanted by the subscriber
+	 **/
+	synchronized void subscribe (LocationSource locationSource, String provider, long minTime, float minDistance, LocationListener subscriber) {
+		Map<String, ProviderRegistration> sourceRegistrations = registrations.get (locationSource);
+		if (sourceRegistrations == null) {
+			sourceRegistrations = new HashMap<> ();
+			registrations.put (locationSource, sourceRegistrations);
+		}
+
+		ProviderRegistration registration = sourceRegistrations.get (provider);
+		if (registration == null) {
+			registration = new ProviderRegistration (provider);
+			sourceRegistrations.put (provider, registration);
+		}
+
+		// Replace any previous subscription of the same listener
+		registration.remove (subscriber);
+		registration.subscribers.add (new Subscription (subscriber, minTime, minDistance));
+
+		registration.update (locationSource, getLooper ());
+	}
+
+	/**
+	 * Removes the subscriber from every provider, unregistering the providers left without subscribers
+	 **/
+	synchronized void unsubscribe (LocationSource locationSource, LocationListener subscriber) {
+		Map<String, ProviderRegistration> sourceRegistrations = registrations.get (locationSource);
+		if (sourceRegistrations == null) return;
+
+		Iterator<ProviderRegistration> iterator = sourceRegistrations.values ().iterator ();
+		while (iterator.hasNext ()) {
+			ProviderRegistration registration = iterator.next ();
+			if (!registration.remove (subscriber)) continue;
+
+			registration.update (locationSource, getLooper ());
+			if (registration.subscribers.isEmpty ()) {
+				iterator.remove ();
+			}
+		}
+
+		if (sourceRegistrations.isEmpty ()) {
+			registrations.remove (locationSource);
+		}
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Interfaces and anonymous classes">
+	private static final class Subscription {
+		final LocationListener listener;
+		final long minTime;
+		final float minDistance;
+
+		Subscription (LocationListener listener, long minTime, float minDistance) {
+			this.listener = listener;
+			this.minTime = minTime;
+			this.minDistance = minDistance;
+		}
+	}
+
+	private static final class ProviderRegistration implements LocationListener {
+		final String provider;
+		final CopyOnWriteArrayList<Subscription> subscribers = new CopyOnWriteArrayList<> ();
+
+		boolean registered;
+		long minTime;
+		float minDistance;
+
+		ProviderRegistration (String provider) {
+			this.provider = provider;
+		}
+
+		boolean remove (LocationListener listener) {
+			for (Subscription subscription : subscribers) {
+				if (subscription.listener == listener) {
+					return subscribers.remove (subscription);
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Makes the platform registration match the current subscribers
+		 **/
+		void update (LocationSource locationSource, Looper looper) {
+			if (subscribers.isEmpty ()) {
+				if (registered) {
+					Log.d ("LocationHelper", "Releasing " + provider + " provider");
+					locationSource.removeUpdates (this);
+					registered = false;
+				}
+				return;
+			}
+
+			// The most demanding subscriber wins
+			long wantedTime = Long.MAX_VALUE;
+			float wantedDistance = Float.MAX_VALUE;
+			for (Subscription subscription : subscribers) {
+				wantedTime = Math.min (wantedTime, subscription.minTime);
+				wantedDistance = Math.min (wantedDistance, subscription.minDistance);
+			}
+
+			if (registered && wantedTime == minTime && wantedDistance == minDistance) {
+				// Nothing changed, just share the current registration
+				return;
+			}
+
+			if (registered) {
+				locationSource.removeUpdates (this);
+			}
+
+			Log.d ("LocationHelper", "Registering " + provider + " provider for " + subscribers.size () + " subscriber(s)");
+			this.minTime = wantedTime;
+			this.minDistance = wantedDistance;
+			locationSource.requestLocationUpdates (provider, minTime, minDistance, this, looper);
+			registered = true;
+		}
+
+		@Override
+		public void onLocationChanged (Location location) {
+			for (Subscription subscription : subscribers) {
+				subscription.listener.onLocationChanged (location);
+			}
+		}
+
+		@Override
+		public void onStatusChanged (String provider, int status, Bundle extras) {
+			for (Subscription subscription : subscribers) {
+				subscription.listener.onStatusChanged (provider, status, extras);
+			}
+		}
+
+		@Override
+		public void onProviderEnabled (String provider) {
+			for (Subscription subscription : subscribers) {
+				subscription.listener.onProviderEnabled (provider);
+			}
+		}
+
+		@Override
+		public void onProviderDisabled (String provider) {
+			for (Subscription subscription : subscribers) {
+				subscription.listener.onProviderDisabled (provider);
+			}
+		}
+	}
+	//</editor-fold>
+}
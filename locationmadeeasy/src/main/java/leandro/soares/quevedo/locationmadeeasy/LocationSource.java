@@ -0,0 +1,32 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Looper;
+
+/**
+ * Where the {@link LocationHelper} gets its locations from, the same operations it used from the LocationManager
+ **/
+public interface LocationSource {
+
+	boolean isProviderEnabled (String provider);
+
+	/**
+	 * @return The last location of the provider, may be null
+	 **/
+	Location getLastKnownLocation (String provider);
+
+	/**
+	 * Registers the listener on the provider
+	 *
+	 * @param minTime     The minimum time between updates (In millis)
+	 * @param minDistance The minimum distance between updates (In meters)
+	 * @param looper      The looper the callbacks run on
+	 **/
+	void requestLocationUpdates (String provider, long minTime, float minDistance, LocationListener listener, Looper looper);
+
+	/**
+	 * Unregisters the listener from every provider
+	 **/
+	void removeUpdates (LocationListener listener);
+}
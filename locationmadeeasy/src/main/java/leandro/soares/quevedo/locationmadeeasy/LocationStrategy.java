@@ -0,0 +1,23 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+
+/**
+ * Decides which location is kept as the best one each time a provider delivers a fix
+ **/
+public interface LocationStrategy {
+
+	/**
+	 * Combines a new fix with the current best location
+	 *
+	 * @param location            The fix just delivered by a provider
+	 * @param currentBestLocation The current best location, may be null
+	 * @return The new best location, which may be the current one, the new one or a fused one
+	 **/
+	Location select (Location location, Location currentBestLocation);
+
+	/**
+	 * Discards any state kept between fixes
+	 **/
+	void reset ();
+}
@@ -0,0 +1,56 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+/**
+ * The default source, backed by the platform LocationManager
+ **/
+public final class PlatformLocationSource implements LocationSource {
+
+	private final LocationManager locationManager;
+
+	public PlatformLocationSource (LocationManager locationManager) {
+		this.locationManager = locationManager;
+	}
+
+	boolean isBackedBy (LocationManager locationManager) {
+		return this.locationManager == locationManager;
+	}
+
+	@Override
+	public boolean isProviderEnabled (String provider) {
+		return locationManager.isProviderEnabled (provider);
+	}
+
+	@SuppressLint ("MissingPermission")
+	@Override
+	public Location getLastKnownLocation (String provider) {
+		return locationManager.getLastKnownLocation (provider);
+	}
+
+	@SuppressLint ("MissingPermission")
+	@Override
+	public void requestLocationUpdates (String provider, long minTime, float minDistance, LocationListener listener, Looper looper) {
+		locationManager.requestLocationUpdates (provider, minTime, minDistance, listener, looper);
+	}
+
+	@Override
+	public void removeUpdates (LocationListener listener) {
+		locationManager.removeUpdates (listener);
+	}
+
+	@Override
+	public boolean equals (Object other) {
+		// Every instance over the same manager shares the same provider registrations
+		return other instanceof PlatformLocationSource && ((PlatformLocationSource) other).locationManager == locationManager;
+	}
+
+	@Override
+	public int hashCode () {
+		return System.identityHashCode (locationManager);
+	}
+}
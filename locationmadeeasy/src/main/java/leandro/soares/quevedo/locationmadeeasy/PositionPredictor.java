@@ -0,0 +1,173 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Extrapolates the position between the fixes from the last speed and bearing, for smooth high-rate map updates
+ * <p>
+ * The fixes come from one thread and the predictions are read from any other at any rate, without locks nor allocations:
+ * the state is published through a sequence counter, odd while being written, and a reader retries if the counter
+ * changed during its read. The uncertainty radius grows with the time since the fix, and the position stops moving
+ * after the maximum horizon.
+ **/
+public final class PositionPredictor {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final int INDEX_LATITUDE = 0;
+	public static final int INDEX_LONGITUDE = 1;
+	public static final int INDEX_UNCERTAINTY = 2;
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final float MIN_SPEED = 0.3f;// m/s, slower is the jitter of a stationary device
+	private static final double REPORTED_SPEED_ACCURACY = 0.5;// m/s
+	private static final long DEFAULT_MAX_HORIZON = 10 * 1000;// Millis
+	private static final double DEFAULT_ACCELERATION_NOISE = 1.0;// m/s²
+	//</editor-fold>
+
+	private final double accelerationNoise;
+	private final long maxHorizon;// Nanos
+
+	// Bumped before and after each write, odd while the state is being written
+	private volatile int sequence;
+
+	// The published state, volatile so the reads stay ordered between the two sequence reads
+	private volatile double latitude, longitude;
+	private volatile double latitudeRate, longitudeRate;// Degrees per second
+	private volatile double accuracy;// Meters
+	private volatile double speedAccuracy;// m/s
+	private volatile long time;// Nanos
+	private volatile boolean valid;
+
+	// Only touched by the writer, to estimate the velocity when the fix has none
+	private boolean hasFix;
+	private double lastLatitude, lastLongitude, lastAccuracy;
+	private long lastTime;
+
+	public PositionPredictor () {
+		this (DEFAULT_ACCELERATION_NOISE, DEFAULT_MAX_HORIZON);
+	}
+
+	/**
+	 * @param accelerationNoise The expected acceleration (In m/s²), it grows the uncertainty with the square of the time
+	 * @param maxHorizon        The maximum time (In millis) the position is extrapolated for
+	 **/
+	public PositionPredictor (double accelerationNoise, long maxHorizon) {
+		if (accelerationNoise < 0 || maxHorizon < 0) {
+			throw new IllegalArgumentException ("Invalid predictor configuration");
+		}
+
+		this.accelerationNoise = accelerationNoise;
+		this.maxHorizon = maxHorizon * 1000000;
+	}
+
+	/**
+	 * Feeds a fix
+	 *
+	 * @param accuracy  The accuracy radius (In meters)
+	 * @param speed     The speed (In m/s), negative when unknown
+	 * @param bearing   The bearing (In degrees, clockwise from north), negative when unknown
+	 * @param timeNanos The time of the fix, on the same clock the predictions are asked with (Such as System.nanoTime)
+	 **/
+	public synchronized void update (double latitude, double longitude, float accuracy, float speed, float bearing, long timeNanos) {
+		double north, east, velocityAccuracy;
+
+		if (speed >= 0 && bearing >= 0) {
+			double radians = Math.toRadians (bearing);
+			north = speed * Math.cos (radians);
+			east = speed * Math.sin (radians);
+			velocityAccuracy = REPORTED_SPEED_ACCURACY;
+		} else if (hasFix && timeNanos > lastTime) {
+			// The velocity implied by the previous fix, as uncertain as both fixes over the time between them
+			double seconds = (timeNanos - lastTime) / NANOS_PER_SECOND;
+			north = (latitude - lastLatitude) * GeoMath.METERS_PER_DEGREE / seconds;
+			east = (longitude - lastLongitude) * GeoMath.metersPerDegreeLongitude (latitude) / seconds;
+			velocityAccuracy = (accuracy + lastAccuracy) / seconds;
+
+			// A move within the accuracy of the fixes is noise, not a velocity
+			double metersNorth = (latitude - lastLatitude) * GeoMath.METERS_PER_DEGREE;
+			double metersEast = (longitude - lastLongitude) * GeoMath.metersPerDegreeLongitude (latitude);
+			double radius = accuracy + lastAccuracy;
+			if (metersNorth * metersNorth + metersEast * metersEast <= radius * radius) {
+				north = 0;
+				east = 0;
+			}
+		} else {
+			north = 0;
+			east = 0;
+			velocityAccuracy = 0;
+		}
+
+		if (speed >= 0 ? speed < MIN_SPEED : north * north + east * east < MIN_SPEED * MIN_SPEED) {
+			north = 0;
+			east = 0;
+		}
+
+		hasFix = true;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastAccuracy = accuracy;
+		lastTime = timeNanos;
+
+		double metersPerDegreeLongitude = Math.max (GeoMath.metersPerDegreeLongitude (latitude), 1.0);
+
+		sequence++;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.latitudeRate = north / GeoMath.METERS_PER_DEGREE;
+		this.longitudeRate = east / metersPerDegreeLongitude;
+		this.accuracy = accuracy;
+		this.speedAccuracy = velocityAccuracy;
+		this.time = timeNanos;
+		this.valid = true;
+		sequence++;
+	}
+
+	/**
+	 * Forgets the fixes, the predictions fail until the next one
+	 **/
+	public synchronized void reset () {
+		hasFix = false;
+
+		sequence++;
+		this.valid = false;
+		sequence++;
+	}
+
+	/**
+	 * Predicts the position at the time, without locking nor allocating
+	 *
+	 * @param timeNanos The time, on the same clock as the fixes
+	 * @param out       Receives the latitude, longitude and uncertainty radius (In meters), at the INDEX constants
+	 * @return False when there is no fix yet
+	 **/
+	public boolean getPredictedLocation (long timeNanos, double[] out) {
+		double latitude, longitude, latitudeRate, longitudeRate, accuracy, speedAccuracy;
+		long time;
+		boolean valid;
+
+		while (true) {
+			int before = sequence;
+			if ((before & 1) != 0) continue;// Being written
+
+			latitude = this.latitude;
+			longitude = this.longitude;
+			latitudeRate = this.latitudeRate;
+			longitudeRate = this.longitudeRate;
+			accuracy = this.accuracy;
+			speedAccuracy = this.speedAccuracy;
+			time = this.time;
+			valid = this.valid;
+
+			if (sequence == before) break;
+		}
+
+		if (!valid) return false;
+
+		long elapsed = Math.max (timeNanos - time, 0);
+		double seconds = elapsed / NANOS_PER_SECOND;
+		double movingSeconds = Math.min (elapsed, maxHorizon) / NANOS_PER_SECOND;
+
+		out[INDEX_LATITUDE] = latitude + latitudeRate * movingSeconds;
+		out[INDEX_LONGITUDE] = longitude + longitudeRate * movingSeconds;
+		out[INDEX_UNCERTAINTY] = accuracy + speedAccuracy * seconds + 0.5 * accelerationNoise * seconds * seconds;
+		return true;
+	}
+}
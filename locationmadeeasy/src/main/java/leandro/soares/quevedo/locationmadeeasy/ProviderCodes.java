@@ -0,0 +1,33 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Compact numeric codes for the provider names, used wherever fixes are stored without their String provider
+ **/
+final class ProviderCodes {
+
+	static final int UNKNOWN = 0;
+	static final int GPS = 1;
+	static final int NETWORK = 2;
+	static final int PASSIVE = 3;
+	static final int FUSED = 4;
+
+	// Same values as the LocationManager constants, kept here so this class stays pure Java
+	private static final String[] NAMES = {null, "gps", "network", "passive", "fused"};
+
+	private ProviderCodes () {
+	}
+
+	static int toCode (String provider) {
+		if (provider == null) return UNKNOWN;
+
+		for (int i = 1; i < NAMES.length; i++) {
+			if (NAMES[i].equals (provider)) return i;
+		}
+
+		return UNKNOWN;
+	}
+
+	static String toName (int code) {
+		return code > 0 && code < NAMES.length ? NAMES[code] : null;
+	}
+}
@@ -0,0 +1,117 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A source that plays a recorded track through a {@link TraceReplayer}, instead of using the device providers
+ * <p>
+ * The replay starts on the first registration. Every recorded fix is delivered, the update rates are ignored.
+ **/
+public final class ReplayLocationSource implements LocationSource, TraceReplayer.FixSink {
+
+	private final TraceReplayer replayer;
+
+	private final List<Registration> registrations = new ArrayList<> ();
+	private final Map<String, Location> lastLocations = new HashMap<> ();
+	private boolean started;
+
+	public ReplayLocationSource (TraceReplayer replayer) {
+		this.replayer = replayer;
+	}
+
+	@Override
+	public boolean isProviderEnabled (String provider) {
+		return true;
+	}
+
+	@Override
+	public synchronized Location getLastKnownLocation (String provider) {
+		return lastLocations.get (provider);
+	}
+
+	@Override
+	public synchronized void requestLocationUpdates (String provider, long minTime, float minDistance, LocationListener listener, Looper looper) {
+		// Like the platform, deliver on the given looper, or on the looper of the registering thread when it has one
+		if (looper == null) {
+			looper = Looper.myLooper ();
+		}
+		registrations.add (new Registration (provider, listener, looper != null ? new Handler (looper) : null));
+
+		if (!started) {
+			started = true;
+			replayer.start (this);
+		}
+	}
+
+	@Override
+	public synchronized void removeUpdates (LocationListener listener) {
+		for (int i = registrations.size () - 1; i >= 0; i--) {
+			if (registrations.get (i).listener == listener) {
+				registrations.remove (i);
+			}
+		}
+	}
+
+	/**
+	 * Stops the replay
+	 **/
+	public void stop () {
+		replayer.stop ();
+	}
+
+	@Override
+	public void onFix (String provider, double latitude, double longitude, float accuracy, float speed, float bearing, long time) {
+		final Location location = new Location (provider != null ? provider : LocationManager.GPS_PROVIDER);
+		location.setLatitude (latitude);
+		location.setLongitude (longitude);
+		location.setAccuracy (accuracy);
+		location.setSpeed (speed);
+		location.setBearing (bearing);
+		location.setTime (time);
+
+		List<Registration> targets;
+		synchronized (this) {
+			lastLocations.put (location.getProvider (), location);
+			targets = new ArrayList<> (registrations);
+		}
+
+		for (final Registration registration : targets) {
+			// The passive provider receives the fixes of every provider
+			if (!registration.provider.equals (location.getProvider ()) && !LocationManager.PASSIVE_PROVIDER.equals (registration.provider)) {
+				continue;
+			}
+
+			if (registration.handler == null) {
+				registration.listener.onLocationChanged (location);
+			} else {
+				registration.handler.post (new Runnable () {
+					@Override
+					public void run () {
+						registration.listener.onLocationChanged (location);
+					}
+				});
+			}
+		}
+	}
+
+	private static final class Registration {
+		final String provider;
+		final LocationListener listener;
+		final Handler handler;
+
+		Registration (String provider, LocationListener listener, Handler handler) {
+			this.provider = provider;
+			this.listener = listener;
+			this.handler = handler;
+		}
+	}
+}
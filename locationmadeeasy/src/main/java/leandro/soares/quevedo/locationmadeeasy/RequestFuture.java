@@ -0,0 +1,273 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The handle of an outstanding location request, completed once with a result, an error, a cancellation or a timeout
+ * <p>
+ * Whatever the outcome, the resources of the request (Such as the provider registrations) are released before the callbacks run.
+ * The blocking {@link #get()} must not be called on the thread that delivers the locations, the background thread of the providers.
+ * <p>
+ * Lock-free, the outcome is an immutable snapshot set once with a compare-and-set, so fixes, timeouts and cancellations
+ * may race from any thread and exactly one of them wins.
+ **/
+public final class RequestFuture<T> implements Future<T> {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	private static final int STATE_COMPLETED = 1;
+	private static final int STATE_FAILED = 2;
+	private static final int STATE_CANCELLED = 3;
+	private static final int STATE_TIMED_OUT = 4;
+
+	// Marks the callback list of a finished request
+	private static final Object[] FINISHED = new Object[0];
+	//</editor-fold>
+
+	private final AtomicReference<Outcome<T>> outcome = new AtomicReference<> ();
+	private final CountDownLatch finished = new CountDownLatch (1);
+
+	private final AtomicReference<Runnable> releaseTask;
+	private final AtomicReference<Object[]> callbacks = new AtomicReference<> (new Object[0]);
+	private final AtomicReference<Deadline> deadline = new AtomicReference<> ();
+
+	/**
+	 * @param releaseTask Runs once when the request finishes, in any way, null if there is nothing to release
+	 **/
+	RequestFuture (Runnable releaseTask) {
+		this.releaseTask = new AtomicReference<> (releaseTask);
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Completion">
+
+	/**
+	 * Completes the request with its result
+	 *
+	 * @return False if the request had already finished
+	 **/
+	boolean complete (T result) {
+		return finish (new Outcome<> (STATE_COMPLETED, result, null));
+	}
+
+	/**
+	 * Completes the request with an error
+	 *
+	 * @return False if the request had already finished
+	 **/
+	boolean fail (String message) {
+		return finish (new Outcome<T> (STATE_FAILED, null, message));
+	}
+
+	/**
+	 * Cancels the request, releasing its resources
+	 *
+	 * @param mayInterruptIfRunning Ignored, the requests never block a thread
+	 **/
+	@Override
+	public boolean cancel (boolean mayInterruptIfRunning) {
+		return finish (new Outcome<T> (STATE_CANCELLED, null, null));
+	}
+
+	/**
+	 * Sets a deadline for the request, after which it finishes as timed out.
+	 * Deadlines compose, the earliest one wins
+	 *
+	 * @param timeout The time (In millis) from now
+	 **/
+	public RequestFuture<T> withTimeout (long timeout) {
+		long time = System.currentTimeMillis () + timeout;
+
+		while (!isDone ()) {
+			Deadline current = deadline.get ();
+			if (current != null && current.time <= time) break;
+
+			Deadline next = new Deadline (time, TimeoutScheduler.getInstance ().schedule (new Runnable () {
+				@Override
+				public void run () {
+					finish (new Outcome<T> (STATE_TIMED_OUT, null, null));
+				}
+			}, timeout));
+
+			if (deadline.compareAndSet (current, next)) {
+				if (current != null) {
+					TimeoutScheduler.getInstance ().cancel (current.future);
+				}
+				// Finished meanwhile, nobody else will cancel it
+				if (isDone ()) {
+					TimeoutScheduler.getInstance ().cancel (next.future);
+				}
+				break;
+			}
+
+			// Another deadline won the race, try again against it
+			TimeoutScheduler.getInstance ().cancel (next.future);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds a callback for when the request finishes, called right away if it already did.
+	 * The callback runs on the thread that finished the request
+	 **/
+	public RequestFuture<T> addCallback (Callback<T> callback) {
+		while (true) {
+			Object[] current = callbacks.get ();
+			if (current == FINISHED) break;
+
+			Object[] next = Arrays.copyOf (current, current.length + 1);
+			next[current.length] = callback;
+			if (callbacks.compareAndSet (current, next)) return this;
+		}
+
+		callback.onRequestFinished (this);
+		return this;
+	}
+
+	@SuppressWarnings ("unchecked")
+	private boolean finish (Outcome<T> newOutcome) {
+		// Only the first outcome counts
+		if (!outcome.compareAndSet (null, newOutcome)) return false;
+
+		Deadline finishedDeadline = deadline.get ();
+		if (finishedDeadline != null) {
+			TimeoutScheduler.getInstance ().cancel (finishedDeadline.future);
+		}
+
+		// Release the resources before anyone is told
+		Runnable release = releaseTask.getAndSet (null);
+		if (release != null) {
+			release.run ();
+		}
+
+		// The blocked callers wake up once the resources are released
+		finished.countDown ();
+
+		Object[] finishedCallbacks = callbacks.getAndSet (FINISHED);
+		for (Object callback : finishedCallbacks) {
+			((Callback<T>) callback).onRequestFinished (this);
+		}
+
+		return true;
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="State">
+
+	@Override
+	public boolean isCancelled () {
+		return getState () == STATE_CANCELLED;
+	}
+
+	@Override
+	public boolean isDone () {
+		return outcome.get () != null;
+	}
+
+	public boolean isTimedOut () {
+		return getState () == STATE_TIMED_OUT;
+	}
+
+	public boolean isFailed () {
+		return getState () == STATE_FAILED;
+	}
+
+	/**
+	 * Whether a deadline was ever set on the request
+	 **/
+	public boolean hasDeadline () {
+		return deadline.get () != null;
+	}
+
+	/**
+	 * The error message, if the request failed
+	 **/
+	public String getError () {
+		Outcome<T> current = outcome.get ();
+		return current != null ? current.error : null;
+	}
+
+	/**
+	 * The result if the request completed, otherwise the fallback, without blocking
+	 **/
+	public T getNow (T fallback) {
+		Outcome<T> current = outcome.get ();
+		return current != null && current.state == STATE_COMPLETED ? current.result : fallback;
+	}
+
+	@Override
+	public T get () throws InterruptedException, ExecutionException {
+		finished.await ();
+		return getResult ();
+	}
+
+	@Override
+	public T get (long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!finished.await (timeout, unit)) {
+			throw new TimeoutException ();
+		}
+
+		return getResult ();
+	}
+
+	private int getState () {
+		Outcome<T> current = outcome.get ();
+		return current != null ? current.state : 0;
+	}
+
+	private T getResult () throws ExecutionException {
+		Outcome<T> current = outcome.get ();
+		switch (current.state) {
+			case STATE_COMPLETED:
+				return current.result;
+			case STATE_CANCELLED:
+				throw new CancellationException ();
+			case STATE_TIMED_OUT:
+				throw new ExecutionException (new TimeoutException ("The request timed out"));
+			default:
+				throw new ExecutionException (current.error, null);
+		}
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Interfaces and anonymous classes">
+	private static final class Outcome<T> {
+		final int state;
+		final T result;
+		final String error;
+
+		Outcome (int state, T result, String error) {
+			this.state = state;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+	private static final class Deadline {
+		final long time;
+		final ScheduledFuture<?> future;
+
+		Deadline (long time, ScheduledFuture<?> future) {
+			this.time = time;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * The request callback
+	 **/
+	public interface Callback<T> {
+		/**
+		 * Called once the request finishes, check the future for the outcome
+		 **/
+		void onRequestFinished (RequestFuture<T> future);
+	}
+	//</editor-fold>
+}
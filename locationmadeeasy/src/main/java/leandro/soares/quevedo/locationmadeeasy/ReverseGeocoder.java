@@ -0,0 +1,285 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous reverse geocoding with a spatial cache, in-flight deduplication and batched lookups
+ * <p>
+ * Coordinates are grouped into square buckets, every coordinate of a bucket shares the same address. Requests for a
+ * bucket already being looked up wait for that lookup, and the pending buckets are sent to the backend together
+ * on a background thread.
+ *
+ * @param <A> The address type produced by the backend
+ **/
+public final class ReverseGeocoder<A> {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	private static final double DEFAULT_BUCKET_SIZE = 50;// Meters
+	private static final int DEFAULT_CACHE_SIZE = 256;
+	private static final int DEFAULT_BATCH_SIZE = 16;
+	private static final long DEFAULT_BATCH_DELAY = 50;// Millis
+	//</editor-fold>
+
+	private final Backend<A> backend;
+	private final Executor callbackExecutor;
+	private final ScheduledExecutorService worker;
+
+	private final double bucketSize;
+	private final int batchSize;
+	private final long batchDelay;
+
+	private final LinkedHashMap<Long, A> cache;
+	// Buckets waiting for the backend, in arrival order
+	private final LinkedHashMap<Long, PendingLookup<A>> queued = new LinkedHashMap<> ();
+	// Buckets sent to the backend and not answered yet
+	private final Map<Long, PendingLookup<A>> inFlight = new HashMap<> ();
+	private boolean drainScheduled;
+	private boolean shutdown;
+
+	/**
+	 * @param callbackExecutor Where the callbacks run, for instance the main thread
+	 **/
+	public ReverseGeocoder (Backend<A> backend, Executor callbackExecutor) {
+		this (backend, callbackExecutor, DEFAULT_BUCKET_SIZE, DEFAULT_CACHE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_DELAY);
+	}
+
+	/**
+	 * @param bucketSize The size of the cache buckets (In meters)
+	 * @param cacheSize  The maximum amount of cached buckets, the least recently used ones are evicted
+	 * @param batchSize  The maximum amount of buckets per backend lookup
+	 * @param batchDelay How long (In millis) to wait for other requests before looking up a new one
+	 **/
+	public ReverseGeocoder (Backend<A> backend, Executor callbackExecutor, double bucketSize, final int cacheSize, int batchSize, long batchDelay) {
+		if (bucketSize <= 0 || cacheSize < 1 || batchSize < 1) {
+			throw new IllegalArgumentException ("Invalid reverse geocoder configuration");
+		}
+
+		this.backend = backend;
+		this.callbackExecutor = callbackExecutor;
+		this.bucketSize = bucketSize;
+		this.batchSize = batchSize;
+		this.batchDelay = batchDelay;
+
+		this.cache = new LinkedHashMap<Long, A> (cacheSize, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Long, A> eldest) {
+				return size () > cacheSize;
+			}
+		};
+
+		this.worker = new ScheduledThreadPoolExecutor (1, new ThreadFactory () {
+			@Override
+			public Thread newThread (Runnable runnable) {
+				Thread thread = new Thread (runnable, "LocationHelper-geocoder");
+				thread.setDaemon (true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Resolves the address of the coordinate, the callback is called on the callback executor.
+	 * Once shut down, only the cached addresses are resolved, the others fail
+	 *
+	 * @return True when the address was already cached
+	 **/
+	public boolean resolve (double latitude, double longitude, final Callback<A> callback) {
+		Long key = bucket (latitude, longitude);
+
+		synchronized (this) {
+			if (cache.containsKey (key)) {
+				final A address = cache.get (key);
+				callbackExecutor.execute (new Runnable () {
+					@Override
+					public void run () {
+						callback.onAddressResolved (address);
+					}
+				});
+				return true;
+			}
+
+			// No thread is left to look it up
+			if (shutdown) {
+				dispatch (Collections.singletonList (callback), null, "The reverse geocoder was shut down");
+				return false;
+			}
+
+			// Join a lookup of the same bucket
+			PendingLookup<A> pending = inFlight.get (key);
+			if (pending == null) {
+				pending = queued.get (key);
+			}
+
+			if (pending == null) {
+				pending = new PendingLookup<> (latitude, longitude);
+				queued.put (key, pending);
+				scheduleDrain ();
+			}
+
+			pending.callbacks.add (callback);
+		}
+
+		return false;
+	}
+
+	/**
+	 * The cached address of the coordinate, without looking it up
+	 **/
+	public synchronized A getCached (double latitude, double longitude) {
+		return cache.get (bucket (latitude, longitude));
+	}
+
+	/**
+	 * Stops the background thread, the pending lookups are dropped
+	 **/
+	public void shutdown () {
+		// Set first, so no lookup is scheduled on the stopped thread
+		synchronized (this) {
+			shutdown = true;
+		}
+		worker.shutdownNow ();
+	}
+
+	private void scheduleDrain () {
+		if (drainScheduled) return;
+
+		drainScheduled = true;
+		worker.schedule (new Runnable () {
+			@Override
+			public void run () {
+				drain ();
+			}
+		}, batchDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Looks up the queued buckets in batches, on the worker thread
+	 **/
+	private void drain () {
+		while (true) {
+			List<Long> keys = new ArrayList<> (batchSize);
+			List<PendingLookup<A>> lookups = new ArrayList<> (batchSize);
+
+			synchronized (this) {
+				for (Map.Entry<Long, PendingLookup<A>> entry : queued.entrySet ()) {
+					if (keys.size () >= batchSize) break;
+					keys.add (entry.getKey ());
+					lookups.add (entry.getValue ());
+				}
+
+				if (keys.isEmpty ()) {
+					drainScheduled = false;
+					return;
+				}
+
+				for (int i = 0; i < keys.size (); i++) {
+					queued.remove (keys.get (i));
+					inFlight.put (keys.get (i), lookups.get (i));
+				}
+			}
+
+			double[] latitudes = new double[keys.size ()];
+			double[] longitudes = new double[keys.size ()];
+			for (int i = 0; i < lookups.size (); i++) {
+				latitudes[i] = lookups.get (i).latitude;
+				longitudes[i] = lookups.get (i).longitude;
+			}
+
+			List<A> addresses = null;
+			String error = null;
+			try {
+				addresses = backend.lookup (latitudes, longitudes);
+				if (addresses == null || addresses.size () != keys.size ()) {
+					error = "The geocoder backend answered " + (addresses == null ? 0 : addresses.size ()) + " of " + keys.size () + " addresses";
+				}
+			} catch (Exception e) {
+				error = e.getMessage () != null ? e.getMessage () : e.toString ();
+			}
+
+			synchronized (this) {
+				for (int i = 0; i < keys.size (); i++) {
+					inFlight.remove (keys.get (i));
+					// Only successful lookups are cached, failures are retried by the next request
+					if (error == null) {
+						cache.put (keys.get (i), addresses.get (i));
+					}
+				}
+			}
+
+			for (int i = 0; i < lookups.size (); i++) {
+				dispatch (lookups.get (i).callbacks, error == null ? addresses.get (i) : null, error);
+			}
+		}
+	}
+
+	private void dispatch (final List<Callback<A>> callbacks, final A address, final String error) {
+		callbackExecutor.execute (new Runnable () {
+			@Override
+			public void run () {
+				for (Callback<A> callback : callbacks) {
+					if (error == null) {
+						callback.onAddressResolved (address);
+					} else {
+						callback.onAddressError (error);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * The key of the square bucket holding the coordinate
+	 **/
+	private Long bucket (double latitude, double longitude) {
+		long row = (long) Math.floor (latitude * GeoMath.METERS_PER_DEGREE / bucketSize);
+		// Use the latitude of the row, so every coordinate of a bucket gets the same column width
+		double rowLatitude = (row + 0.5) * bucketSize / GeoMath.METERS_PER_DEGREE;
+		long column = (long) Math.floor (longitude * GeoMath.metersPerDegreeLongitude (rowLatitude) / bucketSize);
+
+		return (row << 32) ^ (column & 0xFFFFFFFFL);
+	}
+
+	private static final class PendingLookup<A> {
+		final double latitude, longitude;
+		final List<Callback<A>> callbacks = new ArrayList<> (1);
+
+		PendingLookup (double latitude, double longitude) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+	}
+
+	/**
+	 * Where the addresses come from
+	 **/
+	public interface Backend<A> {
+		/**
+		 * Looks up the address of each coordinate, this is called on a background thread
+		 *
+		 * @return One address per coordinate, in the same order, null for coordinates without address
+		 **/
+		List<A> lookup (double[] latitudes, double[] longitudes) throws Exception;
+	}
+
+	/**
+	 * The reverse geocoding callback
+	 **/
+	public interface Callback<A> {
+		/**
+		 * @param address The address, may be null when the coordinate has none
+		 **/
+		void onAddressResolved (A address);
+
+		void onAddressError (String message);
+	}
+}
@@ -0,0 +1,98 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free list of distinct elements, each change swaps an immutable array snapshot with a compare-and-set
+ * <p>
+ * Meant for the few outstanding requests of a helper, every change copies the whole array.
+ **/
+final class SnapshotList<E> {
+
+	private static final Object[] EMPTY = new Object[0];
+
+	private final AtomicReference<Object[]> elements = new AtomicReference<> (EMPTY);
+
+	/**
+	 * Adds the element, unless already present
+	 *
+	 * @return False if it was already present
+	 **/
+	boolean add (E element) {
+		while (true) {
+			Object[] current = elements.get ();
+			if (indexOf (current, element) >= 0) return false;
+
+			Object[] next = Arrays.copyOf (current, current.length + 1);
+			next[current.length] = element;
+			if (elements.compareAndSet (current, next)) return true;
+		}
+	}
+
+	/**
+	 * Removes the element
+	 *
+	 * @return False if it was not present, so exactly one of many racing callers gets true
+	 **/
+	boolean remove (E element) {
+		while (true) {
+			Object[] current = elements.get ();
+			int index = indexOf (current, element);
+			if (index < 0) return false;
+
+			Object[] next = EMPTY;
+			if (current.length > 1) {
+				next = new Object[current.length - 1];
+				System.arraycopy (current, 0, next, 0, index);
+				System.arraycopy (current, index + 1, next, index, current.length - index - 1);
+			}
+
+			if (elements.compareAndSet (current, next)) return true;
+		}
+	}
+
+	/**
+	 * Removes every element at once
+	 *
+	 * @return The removed elements
+	 **/
+	List<E> drain () {
+		return asList (elements.getAndSet (EMPTY));
+	}
+
+	/**
+	 * The current elements, unaffected by later changes
+	 **/
+	List<E> snapshot () {
+		return asList (elements.get ());
+	}
+
+	boolean contains (E element) {
+		return indexOf (elements.get (), element) >= 0;
+	}
+
+	boolean isEmpty () {
+		return elements.get ().length == 0;
+	}
+
+	int size () {
+		return elements.get ().length;
+	}
+
+	@SuppressWarnings ("unchecked")
+	private static <E> List<E> asList (Object[] array) {
+		// The snapshot arrays are never written after being published
+		return Collections.unmodifiableList ((List<E>) Arrays.asList (array));
+	}
+
+	private static int indexOf (Object[] array, Object element) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == element) return i;
+		}
+
+		return -1;
+	}
+}
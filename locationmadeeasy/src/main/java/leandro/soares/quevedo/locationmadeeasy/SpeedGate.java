@@ -0,0 +1,62 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Rejects the fixes implying an impossible speed since the last accepted fix
+ * <p>
+ * The accuracy of both fixes is discounted from the distance, so coarse but consistent fixes still pass.
+ * After a few rejections in a row the next fix is accepted anyway, in case the last accepted one was the outlier.
+ **/
+public final class SpeedGate implements LocationFilter {
+
+	private static final int MAX_CONSECUTIVE_REJECTIONS = 3;
+
+	private final double maxSpeed;
+
+	private boolean hasLast;
+	private double lastLatitude, lastLongitude;
+	private float lastAccuracy;
+	private long lastTime;
+	private int rejections;
+
+	/**
+	 * @param maxSpeed The fastest speed (In meters per second) accepted
+	 **/
+	public SpeedGate (double maxSpeed) {
+		if (maxSpeed <= 0) {
+			throw new IllegalArgumentException ("The speed must be positive");
+		}
+
+		this.maxSpeed = maxSpeed;
+	}
+
+	@Override
+	public boolean accept (double latitude, double longitude, float accuracy, long time) {
+		if (!hasLast || rejections >= MAX_CONSECUTIVE_REJECTIONS) return true;
+
+		double distance = GeoMath.distance (lastLatitude, lastLongitude, latitude, longitude, GeoMath.MODE_FAST) - accuracy - lastAccuracy;
+		if (distance <= 0) return true;
+
+		// Out of order fixes are held to the distance alone
+		double seconds = Math.max (0, time - lastTime) / 1000.0;
+		if (distance <= maxSpeed * seconds) return true;
+
+		rejections++;
+		return false;
+	}
+
+	@Override
+	public void onAccepted (double latitude, double longitude, float accuracy, long time) {
+		hasLast = true;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastAccuracy = accuracy;
+		lastTime = time;
+		rejections = 0;
+	}
+
+	@Override
+	public void reset () {
+		hasLast = false;
+		rejections = 0;
+	}
+}
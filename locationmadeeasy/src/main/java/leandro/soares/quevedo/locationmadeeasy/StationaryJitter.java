@@ -0,0 +1,54 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+/**
+ * Suppresses the drift of a stationary device, rejecting the fixes that stay around the last accepted one
+ * <p>
+ * A fix inside the jitter radius still passes when it is more accurate than the last accepted one,
+ * or when the last accepted one is older than the refresh interval.
+ **/
+public final class StationaryJitter implements LocationFilter {
+
+	private final double radius;
+	private final long refreshInterval;
+
+	private boolean hasAnchor;
+	private double anchorLatitude, anchorLongitude;
+	private float anchorAccuracy;
+	private long anchorTime;
+
+	/**
+	 * @param radius          The distance (In meters) under which a move is considered jitter
+	 * @param refreshInterval The time (In millis) after which a fix is accepted even if it did not move, zero to never refresh
+	 **/
+	public StationaryJitter (double radius, long refreshInterval) {
+		if (radius <= 0) {
+			throw new IllegalArgumentException ("The radius must be positive");
+		}
+
+		this.radius = radius;
+		this.refreshInterval = refreshInterval;
+	}
+
+	@Override
+	public boolean accept (double latitude, double longitude, float accuracy, long time) {
+		if (!hasAnchor) return true;
+		if (accuracy > 0 && (anchorAccuracy <= 0 || accuracy < anchorAccuracy)) return true;
+		if (refreshInterval > 0 && time - anchorTime >= refreshInterval) return true;
+
+		return GeoMath.distance (anchorLatitude, anchorLongitude, latitude, longitude, GeoMath.MODE_FAST) > Math.max (radius, anchorAccuracy);
+	}
+
+	@Override
+	public void onAccepted (double latitude, double longitude, float accuracy, long time) {
+		hasAnchor = true;
+		anchorLatitude = latitude;
+		anchorLongitude = longitude;
+		anchorAccuracy = accuracy;
+		anchorTime = time;
+	}
+
+	@Override
+	public void reset () {
+		hasAnchor = false;
+	}
+}
@@ -0,0 +1,248 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Detects the stops while the fixes arrive, emitting the arrival and the departure of each one
+ * <p>
+ * The fixes within the radius of the current cluster centroid join it, and the cluster becomes a stop once its fixes
+ * span the minimum duration. A cluster only ends after consecutive fixes outside of it, so a single outlier does not
+ * split it. Only the open cluster is kept, as a running centroid, so the memory stays constant.
+ **/
+public final class StayPointDetector {
+
+	//<editor-fold desc="Constants" defaultstate="collapsed">
+	public static final int EVENT_NONE = 0;
+	public static final int EVENT_ARRIVAL = 1;
+	public static final int EVENT_DEPARTURE = 2;
+
+	private static final int DEPARTURE_FIXES = 2;
+	//</editor-fold>
+
+	private final double radius;
+	private final long minDuration;
+
+	// The open cluster
+	private int count;
+	private double latitude, longitude;
+	private long arrivalTime, lastTime;
+	private boolean confirmed;
+
+	// The first fix outside of the cluster, it seeds the next one
+	private int outsideCount;
+	private double outsideLatitude, outsideLongitude;
+	private long outsideTime;
+
+	// The stop of the last event, copied out for the listener
+	private double eventLatitude, eventLongitude;
+	private long eventArrival, eventDeparture;
+
+	private OnStayPointListener listener;
+
+	/**
+	 * @param radius      The maximum distance (In meters) of the fixes of a stop to its centroid
+	 * @param minDuration The minimum time (In millis) spent within the radius to be a stop
+	 **/
+	public StayPointDetector (double radius, long minDuration) {
+		if (radius <= 0 || minDuration < 0) {
+			throw new IllegalArgumentException ("Invalid stay point configuration");
+		}
+
+		this.radius = radius;
+		this.minDuration = minDuration;
+	}
+
+	public synchronized void setOnStayPointListener (OnStayPointListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Feeds a fix, in time order, calling the listener on the calling thread once the detector is unlocked
+	 *
+	 * @param accuracy The accuracy radius (In meters), fixes less accurate than the stop radius are ignored
+	 * @param time     The fix time (In millis)
+	 * @return One of the EVENT constants
+	 **/
+	public int update (double latitude, double longitude, float accuracy, long time) {
+		return update (latitude, longitude, accuracy, time, null);
+	}
+
+	/**
+	 * Feeds a fix, in time order, calling the listener on the executor once the detector is unlocked
+	 *
+	 * @param accuracy The accuracy radius (In meters), fixes less accurate than the stop radius are ignored
+	 * @param time     The fix time (In millis)
+	 * @param executor Where the listener is called, null for the calling thread
+	 * @return One of the EVENT constants
+	 **/
+	public int update (double latitude, double longitude, float accuracy, long time, Executor executor) {
+		final OnStayPointListener listener;
+		final int event;
+		final double stopLatitude, stopLongitude;
+		final long stopArrival, stopDeparture;
+
+		synchronized (this) {
+			event = evaluate (latitude, longitude, accuracy, time);
+			if (event == EVENT_NONE) return event;
+
+			listener = this.listener;
+			stopLatitude = eventLatitude;
+			stopLongitude = eventLongitude;
+			stopArrival = eventArrival;
+			stopDeparture = eventDeparture;
+		}
+
+		if (listener == null) return event;
+
+		Runnable task = new Runnable () {
+			@Override
+			public void run () {
+				if (event == EVENT_ARRIVAL) {
+					listener.onArrival (stopLatitude, stopLongitude, stopArrival);
+				} else {
+					listener.onDeparture (stopLatitude, stopLongitude, stopArrival, stopDeparture);
+				}
+			}
+		};
+		if (executor != null) {
+			executor.execute (task);
+		} else {
+			task.run ();
+		}
+		return event;
+	}
+
+	/**
+	 * Moves the clusters with the fix, keeping the stop of the event it returns
+	 **/
+	private int evaluate (double latitude, double longitude, float accuracy, long time) {
+		if (accuracy > radius || (count > 0 && time < lastTime)) return EVENT_NONE;
+
+		if (count == 0) {
+			startCluster (latitude, longitude, time);
+			return EVENT_NONE;
+		}
+
+		if (GeoMath.distance (this.latitude, this.longitude, latitude, longitude, GeoMath.MODE_FAST) <= radius) {
+			outsideCount = 0;
+			addToCluster (latitude, longitude, time);
+
+			if (!confirmed && lastTime - arrivalTime >= minDuration) {
+				confirmed = true;
+				keepEvent (this.latitude, this.longitude, arrivalTime, lastTime);
+				return EVENT_ARRIVAL;
+			}
+
+			return EVENT_NONE;
+		}
+
+		if (outsideCount++ == 0) {
+			outsideLatitude = latitude;
+			outsideLongitude = longitude;
+			outsideTime = time;
+		}
+
+		if (outsideCount < DEPARTURE_FIXES) return EVENT_NONE;
+
+		// Left the cluster, at the time of its last fix
+		boolean wasStop = confirmed;
+		keepEvent (this.latitude, this.longitude, arrivalTime, lastTime);
+
+		startCluster (outsideLatitude, outsideLongitude, outsideTime);
+		if (GeoMath.distance (this.latitude, this.longitude, latitude, longitude, GeoMath.MODE_FAST) <= radius) {
+			addToCluster (latitude, longitude, time);
+		} else {
+			startCluster (latitude, longitude, time);
+		}
+
+		// Never a stop, it just starts over
+		return wasStop ? EVENT_DEPARTURE : EVENT_NONE;
+	}
+
+	private void keepEvent (double latitude, double longitude, long arrivalTime, long departureTime) {
+		this.eventLatitude = latitude;
+		this.eventLongitude = longitude;
+		this.eventArrival = arrivalTime;
+		this.eventDeparture = departureTime;
+	}
+
+	/**
+	 * Forgets the open cluster, without emitting a departure
+	 **/
+	public synchronized void reset () {
+		count = 0;
+		confirmed = false;
+		outsideCount = 0;
+	}
+
+	private void startCluster (double latitude, double longitude, long time) {
+		this.count = 1;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.arrivalTime = time;
+		this.lastTime = time;
+		this.confirmed = false;
+		this.outsideCount = 0;
+	}
+
+	private void addToCluster (double latitude, double longitude, long time) {
+		// Running mean, the cluster is small enough for the degrees to be averaged directly
+		count++;
+		this.latitude += (latitude - this.latitude) / count;
+		this.longitude += (longitude - this.longitude) / count;
+		this.lastTime = time;
+	}
+
+	/**
+	 * Whether the last fixes are at a confirmed stop
+	 **/
+	public synchronized boolean isAtStop () {
+		return confirmed;
+	}
+
+	/**
+	 * The centroid latitude of the open cluster
+	 **/
+	public synchronized double getLatitude () {
+		return latitude;
+	}
+
+	/**
+	 * The centroid longitude of the open cluster
+	 **/
+	public synchronized double getLongitude () {
+		return longitude;
+	}
+
+	/**
+	 * The time (In millis) of the first fix of the open cluster
+	 **/
+	public synchronized long getArrivalTime () {
+		return arrivalTime;
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Interfaces and anonymous classes">
+
+	/**
+	 * The stop callbacks
+	 **/
+	public interface OnStayPointListener {
+		/**
+		 * Called once the fixes stayed within the radius for the minimum duration
+		 *
+		 * @param arrivalTime The time (In millis) of the first fix of the stop
+		 **/
+		void onArrival (double latitude, double longitude, long arrivalTime);
+
+		/**
+		 * Called once the fixes left a stop
+		 *
+		 * @param latitude      The final centroid latitude of the stop
+		 * @param longitude     The final centroid longitude of the stop
+		 * @param arrivalTime   The time (In millis) of the first fix of the stop
+		 * @param departureTime The time (In millis) of the last fix of the stop
+		 **/
+		void onDeparture (double latitude, double longitude, long arrivalTime, long departureTime);
+	}
+	//</editor-fold>
+}
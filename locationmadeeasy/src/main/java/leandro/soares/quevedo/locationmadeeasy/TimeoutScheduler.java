@@ -0,0 +1,62 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide single threaded scheduler for the request timeouts
+ **/
+final class TimeoutScheduler {
+
+	private static TimeoutScheduler instance;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private TimeoutScheduler () {
+		executor = new ScheduledThreadPoolExecutor (1, new ThreadFactory () {
+			@Override
+			public Thread newThread (Runnable runnable) {
+				Thread thread = new Thread (runnable, "LocationHelper-timeout");
+				// Never keep the process alive because of a pending timeout
+				thread.setDaemon (true);
+				return thread;
+			}
+		});
+	}
+
+	static synchronized TimeoutScheduler getInstance () {
+		if (instance == null) {
+			instance = new TimeoutScheduler ();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Runs the task on the scheduler thread after the delay
+	 *
+	 * @param delay The delay (In millis)
+	 * @return The handle used to cancel the task
+	 **/
+	ScheduledFuture<?> schedule (Runnable task, long delay) {
+		return executor.schedule (task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Cancels the task and removes it from the queue right away, instead of keeping it until its deadline
+	 *
+	 * @return True when the task was cancelled before running
+	 **/
+	boolean cancel (ScheduledFuture<?> future) {
+		if (future == null) return false;
+
+		boolean cancelled = future.cancel (false);
+		if (future instanceof Runnable) {
+			executor.remove ((Runnable) future);
+		}
+
+		return cancelled;
+	}
+}
@@ -0,0 +1,132 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the fixes of a recorded track with their original pacing, optionally accelerated
+ * <p>
+ * This class is pure Java, so tracking, filtering and timeouts can be load tested with hours of real data on the JVM.
+ * The track is streamed, so its size does not matter.
+ **/
+public final class TraceReplayer {
+
+	private final TrackReader reader;
+	private final double speed;
+	private boolean rebaseTime;
+
+	private volatile boolean stopped;
+	private volatile boolean finished;
+
+	/**
+	 * @param speed How much faster than real time the track is played, 1 for real time, up to 1000 and beyond.
+	 *              Double.POSITIVE_INFINITY plays it without any pause
+	 **/
+	public TraceReplayer (TrackReader reader, double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException ("The speed must be positive");
+		}
+
+		this.reader = reader;
+		this.speed = speed;
+	}
+
+	/**
+	 * When enabled, the fix times are shifted so the first fix happens when the replay starts.
+	 * The spacing between the fixes is kept as recorded, whatever the speed.
+	 **/
+	public void setRebaseTime (boolean rebaseTime) {
+		this.rebaseTime = rebaseTime;
+	}
+
+	/**
+	 * Plays the track on the calling thread, returning when it ends or when {@link #stop()} is called
+	 *
+	 * @return The amount of delivered fixes
+	 **/
+	public int play (FixSink sink) throws IOException, InterruptedException {
+		long startNanos = System.nanoTime ();
+		long startTime = System.currentTimeMillis ();
+		long firstFixTime = 0;
+		int count = 0;
+
+		try {
+			while (!stopped && reader.next ()) {
+				long fixTime = reader.getTime ();
+				if (count == 0) {
+					firstFixTime = fixTime;
+				}
+
+				// Wait for the moment of the fix, scaled by the speed
+				if (!Double.isInfinite (speed)) {
+					long dueNanos = startNanos + (long) ((fixTime - firstFixTime) * 1000000.0 / speed);
+					long waitNanos = dueNanos - System.nanoTime ();
+					if (waitNanos > 0) {
+						TimeUnit.NANOSECONDS.sleep (waitNanos);
+					}
+				}
+
+				if (stopped) break;
+
+				sink.onFix (
+						reader.getProvider (),
+						reader.getLatitude (),
+						reader.getLongitude (),
+						reader.getAccuracy (),
+						reader.getSpeed (),
+						reader.getBearing (),
+						rebaseTime ? startTime + (fixTime - firstFixTime) : fixTime
+				);
+				count++;
+			}
+		} finally {
+			finished = true;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Plays the track on a new daemon thread
+	 **/
+	public Thread start (final FixSink sink) {
+		Thread thread = new Thread (new Runnable () {
+			@Override
+			public void run () {
+				try {
+					play (sink);
+				} catch (IOException e) {
+					e.printStackTrace ();
+				} catch (InterruptedException e) {
+					Thread.currentThread ().interrupt ();
+				}
+			}
+		}, "LocationHelper-replay");
+		thread.setDaemon (true);
+		thread.start ();
+
+		return thread;
+	}
+
+	/**
+	 * Stops the replay, the fix being waited for is not delivered
+	 **/
+	public void stop () {
+		stopped = true;
+	}
+
+	public boolean isFinished () {
+		return finished;
+	}
+
+	/**
+	 * Receives the replayed fixes
+	 **/
+	public interface FixSink {
+		/**
+		 * @param provider The provider name, may be null when unknown
+		 * @param time     The fix time (In millis)
+		 **/
+		void onFix (String provider, double latitude, double longitude, float accuracy, float speed, float bearing, long time);
+	}
+}
@@ -0,0 +1,141 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Streams a binary track into the GPX or GeoJSON formats, one fix at a time
+ **/
+public final class TrackExporter {
+
+	private TrackExporter () {
+	}
+
+	/**
+	 * Writes the remaining fixes of the reader as a GPX 1.1 track
+	 *
+	 * @return The amount of exported fixes
+	 **/
+	public static int exportGpx (TrackReader reader, Writer writer) throws IOException {
+		SimpleDateFormat dateFormat = createDateFormat ();
+		DecimalFormat coordinateFormat = createCoordinateFormat ();
+		Date date = new Date ();
+
+		writer.write ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write ("<gpx version=\"1.1\" creator=\"LocationMadeEasy\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+		writer.write ("<trk><trkseg>\n");
+
+		int count = 0;
+		while (reader.next ()) {
+			date.setTime (reader.getTime ());
+
+			writer.write ("<trkpt lat=\"");
+			writer.write (coordinateFormat.format (reader.getLatitude ()));
+			writer.write ("\" lon=\"");
+			writer.write (coordinateFormat.format (reader.getLongitude ()));
+			writer.write ("\"><time>");
+			writer.write (dateFormat.format (date));
+			writer.write ("</time></trkpt>\n");
+			count++;
+		}
+
+		writer.write ("</trkseg></trk>\n");
+		writer.write ("</gpx>\n");
+		writer.flush ();
+
+		return count;
+	}
+
+	/**
+	 * Writes the track as a GeoJSON (RFC 7946) feature collection: a LineString feature, with the times of its positions
+	 * on the coordTimes property, or a Point feature for a single fix, or no feature at all.
+	 * The track is read twice, the positions then their times, so the memory use does not grow with its length
+	 *
+	 * @return The amount of exported fixes
+	 **/
+	public static int exportGeoJson (File track, Writer writer) throws IOException {
+		DecimalFormat coordinateFormat = createCoordinateFormat ();
+		writer.write ("{\"type\":\"FeatureCollection\",\"features\":[");
+
+		int count = 0;
+		TrackReader reader = new TrackReader (track);
+		try {
+			if (reader.next ()) {
+				double longitude = reader.getLongitude ();
+				double latitude = reader.getLatitude ();
+				count = 1;
+
+				writer.write ("{\"type\":\"Feature\",\"geometry\":{\"type\":");
+				if (!reader.next ()) {
+					writer.write ("\"Point\",\"coordinates\":");
+					writePosition (writer, coordinateFormat, longitude, latitude);
+				} else {
+					writer.write ("\"LineString\",\"coordinates\":[");
+					writePosition (writer, coordinateFormat, longitude, latitude);
+					do {
+						writer.write (',');
+						writePosition (writer, coordinateFormat, reader.getLongitude (), reader.getLatitude ());
+						count++;
+					} while (reader.next ());
+					writer.write (']');
+				}
+				writer.write ("},\"properties\":{");
+			}
+		} finally {
+			reader.close ();
+		}
+
+		if (count > 0) {
+			// The times, only of the fixes written above, the track may be still growing
+			SimpleDateFormat dateFormat = createDateFormat ();
+			Date date = new Date ();
+			reader = new TrackReader (track);
+			try {
+				writer.write (count == 1 ? "\"time\":" : "\"coordTimes\":[");
+				for (int i = 0; i < count && reader.next (); i++) {
+					date.setTime (reader.getTime ());
+					writer.write (i == 0 ? "\"" : ",\"");
+					writer.write (dateFormat.format (date));
+					writer.write ('"');
+				}
+				writer.write (count == 1 ? "}}" : "]}}");
+			} finally {
+				reader.close ();
+			}
+		}
+
+		writer.write ("]}\n");
+		writer.flush ();
+
+		return count;
+	}
+
+	private static void writePosition (Writer writer, DecimalFormat coordinateFormat, double longitude, double latitude) throws IOException {
+		writer.write ('[');
+		writer.write (coordinateFormat.format (longitude));
+		writer.write (',');
+		writer.write (coordinateFormat.format (latitude));
+		writer.write (']');
+	}
+
+	/**
+	 * Fixed-point, the exponent notation of Double.toString (Such as 1.0E-4) is not a valid xsd:decimal.
+	 * Seven decimals, the precision of the track
+	 **/
+	private static DecimalFormat createCoordinateFormat () {
+		return new DecimalFormat ("0.0######", DecimalFormatSymbols.getInstance (Locale.US));
+	}
+
+	private static SimpleDateFormat createDateFormat () {
+		SimpleDateFormat dateFormat = new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		dateFormat.setTimeZone (TimeZone.getTimeZone ("UTC"));
+		return dateFormat;
+	}
+}
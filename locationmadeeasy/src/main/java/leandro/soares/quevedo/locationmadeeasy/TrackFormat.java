@@ -0,0 +1,75 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary track format shared by the {@link TrackRecorder} and the {@link TrackReader}
+ * <p>
+ * After the header, each record starts with its type. A keyframe record holds the absolute values of the fix and a
+ * delta record holds the differences to the previous fix, all of them as zigzag varints. The coordinates are stored
+ * in 1e-7 degrees, the accuracy in decimeters, the speed in cm/s and the bearing in hundredths of a degree.
+ **/
+final class TrackFormat {
+
+	static final int MAGIC = 0x4C4D4554;// "LMET"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 5;
+
+	static final int RECORD_KEYFRAME = 1;
+	static final int RECORD_DELTA = 2;
+
+	// Type, provider and 6 varlongs of at most 10 bytes each
+	static final int MAX_RECORD_SIZE = 2 + 6 * 10;
+
+	static final double COORDINATE_SCALE = 1e7;
+	static final double ACCURACY_SCALE = 10;
+	static final double SPEED_SCALE = 100;
+	static final double BEARING_SCALE = 100;
+
+	private TrackFormat () {
+	}
+
+	static long zigzag (long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag (long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static void writeVarLong (ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put ((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put ((byte) value);
+	}
+
+	static void writeSignedVarLong (ByteBuffer buffer, long value) {
+		writeVarLong (buffer, zigzag (value));
+	}
+
+	static long readVarLong (InputStream input) throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int value = input.read ();
+			if (value < 0) {
+				throw new EOFException ("Truncated varint");
+			}
+
+			result |= (long) (value & 0x7F) << shift;
+			if ((value & 0x80) == 0) {
+				return result;
+			}
+		}
+
+		throw new IOException ("Malformed varint");
+	}
+
+	static long readSignedVarLong (InputStream input) throws IOException {
+		return unzigzag (readVarLong (input));
+	}
+}
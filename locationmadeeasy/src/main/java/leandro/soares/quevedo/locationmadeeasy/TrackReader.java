@@ -0,0 +1,169 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams the fixes of a track written by the {@link TrackRecorder}, one at a time
+ * <p>
+ * A record cut by a crash at the end of the file is ignored.
+ **/
+public final class TrackReader implements Closeable {
+
+	private final CountingInputStream input;
+
+	private long latitude, longitude, accuracy, speed, bearing, time;
+	private int provider;
+	private boolean started;
+
+	public TrackReader (File file) throws IOException {
+		this (new BufferedInputStream (new FileInputStream (file)));
+	}
+
+	public TrackReader (InputStream input) throws IOException {
+		this.input = new CountingInputStream (input);
+
+		// Validate the header
+		int magic = 0;
+		for (int i = 0; i < 4; i++) {
+			int value = this.input.read ();
+			if (value < 0) {
+				throw new IOException ("Not a track file");
+			}
+			magic = (magic << 8) | value;
+		}
+
+		if (magic != TrackFormat.MAGIC || this.input.read () != TrackFormat.VERSION) {
+			throw new IOException ("Not a track file");
+		}
+	}
+
+	/**
+	 * Moves to the next fix
+	 *
+	 * @return False when there are no more fixes
+	 **/
+	public boolean next () throws IOException {
+		int type = input.read ();
+		if (type < 0) return false;
+
+		try {
+			int provider = input.read ();
+			if (provider < 0) return false;
+
+			long latitude = TrackFormat.readSignedVarLong (input);
+			long longitude = TrackFormat.readSignedVarLong (input);
+			long accuracy = TrackFormat.readSignedVarLong (input);
+			long speed = TrackFormat.readSignedVarLong (input);
+			long bearing = TrackFormat.readSignedVarLong (input);
+			long time = TrackFormat.readSignedVarLong (input);
+
+			if (type == TrackFormat.RECORD_KEYFRAME) {
+				this.latitude = latitude;
+				this.longitude = longitude;
+				this.accuracy = accuracy;
+				this.speed = speed;
+				this.bearing = bearing;
+				this.time = time;
+				started = true;
+			} else if (type == TrackFormat.RECORD_DELTA && started) {
+				this.latitude += latitude;
+				this.longitude += longitude;
+				this.accuracy += accuracy;
+				this.speed += speed;
+				this.bearing += bearing;
+				this.time += time;
+			} else {
+				throw new IOException ("Corrupted track record");
+			}
+
+			this.provider = provider;
+			return true;
+		} catch (EOFException e) {
+			// Partial record at the end of the file
+			return false;
+		}
+	}
+
+	public double getLatitude () {
+		return latitude / TrackFormat.COORDINATE_SCALE;
+	}
+
+	public double getLongitude () {
+		return longitude / TrackFormat.COORDINATE_SCALE;
+	}
+
+	public float getAccuracy () {
+		return (float) (accuracy / TrackFormat.ACCURACY_SCALE);
+	}
+
+	public float getSpeed () {
+		return (float) (speed / TrackFormat.SPEED_SCALE);
+	}
+
+	public float getBearing () {
+		return (float) (bearing / TrackFormat.BEARING_SCALE);
+	}
+
+	public long getTime () {
+		return time;
+	}
+
+	/**
+	 * The provider name, may be null when unknown
+	 **/
+	public String getProvider () {
+		return ProviderCodes.toName (provider);
+	}
+
+	/**
+	 * The amount of bytes consumed, which is the end of the current record
+	 **/
+	long getPosition () {
+		return input.count;
+	}
+
+	@Override
+	public void close () throws IOException {
+		input.close ();
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream (InputStream input) {
+			super (input);
+		}
+
+		@Override
+		public int read () throws IOException {
+			int value = super.read ();
+			if (value >= 0) {
+				count++;
+			}
+			return value;
+		}
+
+		@Override
+		public int read (byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read (buffer, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip (long n) throws IOException {
+			long skipped = super.skip (n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends fixes to a compact binary track file, see {@link TrackFormat}
+ * <p>
+ * The records are encoded into a buffer that is written to the file channel when full, and the file is synced
+ * to the disk periodically. Opening an existing track appends to it.
+ **/
+public final class TrackRecorder implements Closeable {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final int KEYFRAME_INTERVAL = 256;// Records
+	private static final long DEFAULT_SYNC_INTERVAL = 30 * 1000;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect (BUFFER_SIZE);
+	private final long syncInterval;
+
+	private long lastSyncTime;
+	private int recordsSinceKeyframe = KEYFRAME_INTERVAL;// Forces a keyframe on the first record
+	private boolean closed;
+
+	// The previous quantized fix, base of the delta records
+	private long latitude, longitude, accuracy, speed, bearing, time;
+
+	public TrackRecorder (File file) throws IOException {
+		this (file, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * @param syncInterval The interval (In millis) between the syncs to the disk
+	 **/
+	public TrackRecorder (File file, long syncInterval) throws IOException {
+		this.file = new RandomAccessFile (file, "rw");
+		this.channel = this.file.getChannel ();
+		this.syncInterval = syncInterval;
+
+		if (channel.size () == 0) {
+			buffer.putInt (TrackFormat.MAGIC);
+			buffer.put ((byte) TrackFormat.VERSION);
+		} else {
+			checkHeader ();
+			// Drop any record cut by a crash, so the new records are not appended to garbage
+			long validLength = findValidLength (file);
+			if (validLength < channel.size ()) {
+				channel.truncate (validLength);
+			}
+			channel.position (validLength);
+		}
+		this.lastSyncTime = System.currentTimeMillis ();
+	}
+
+	private void checkHeader () throws IOException {
+		ByteBuffer header = ByteBuffer.allocate (TrackFormat.HEADER_SIZE);
+		channel.read (header, 0);
+		header.flip ();
+
+		if (header.remaining () < TrackFormat.HEADER_SIZE || header.getInt () != TrackFormat.MAGIC || header.get () != TrackFormat.VERSION) {
+			close ();
+			throw new IOException ("Not a track file");
+		}
+	}
+
+	/**
+	 * Finds the end of the last complete record of an existing track
+	 **/
+	private static long findValidLength (File file) throws IOException {
+		TrackReader reader = new TrackReader (new BufferedInputStream (new FileInputStream (file)));
+		long validLength = reader.getPosition ();
+		try {
+			while (reader.next ()) {
+				validLength = reader.getPosition ();
+			}
+		} catch (IOException e) {
+			// Corrupted record, keep everything before it
+		} finally {
+			reader.close ();
+		}
+
+		return validLength;
+	}
+
+	/**
+	 * Appends a fix to the track
+	 *
+	 * @param time     The fix time (In millis)
+	 * @param provider One of the {@link ProviderCodes}
+	 **/
+	public synchronized void append (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider) throws IOException {
+		if (closed) {
+			throw new IOException ("The recorder is closed");
+		}
+
+		if (buffer.remaining () < TrackFormat.MAX_RECORD_SIZE) {
+			flushBuffer ();
+		}
+
+		long quantizedLatitude = Math.round (latitude * TrackFormat.COORDINATE_SCALE);
+		long quantizedLongitude = Math.round (longitude * TrackFormat.COORDINATE_SCALE);
+		long quantizedAccuracy = Math.round (accuracy * TrackFormat.ACCURACY_SCALE);
+		long quantizedSpeed = Math.round (speed * TrackFormat.SPEED_SCALE);
+		long quantizedBearing = Math.round (bearing * TrackFormat.BEARING_SCALE);
+
+		if (recordsSinceKeyframe >= KEYFRAME_INTERVAL) {
+			// Absolute values, so a reader can resync here
+			buffer.put ((byte) TrackFormat.RECORD_KEYFRAME);
+			buffer.put ((byte) provider);
+			TrackFormat.writeSignedVarLong (buffer, quantizedLatitude);
+			TrackFormat.writeSignedVarLong (buffer, quantizedLongitude);
+			TrackFormat.writeSignedVarLong (buffer, quantizedAccuracy);
+			TrackFormat.writeSignedVarLong (buffer, quantizedSpeed);
+			TrackFormat.writeSignedVarLong (buffer, quantizedBearing);
+			TrackFormat.writeSignedVarLong (buffer, time);
+			recordsSinceKeyframe = 0;
+		} else {
+			buffer.put ((byte) TrackFormat.RECORD_DELTA);
+			buffer.put ((byte) provider);
+			TrackFormat.writeSignedVarLong (buffer, quantizedLatitude - this.latitude);
+			TrackFormat.writeSignedVarLong (buffer, quantizedLongitude - this.longitude);
+			TrackFormat.writeSignedVarLong (buffer, quantizedAccuracy - this.accuracy);
+			TrackFormat.writeSignedVarLong (buffer, quantizedSpeed - this.speed);
+			TrackFormat.writeSignedVarLong (buffer, quantizedBearing - this.bearing);
+			TrackFormat.writeSignedVarLong (buffer, time - this.time);
+			recordsSinceKeyframe++;
+		}
+
+		this.latitude = quantizedLatitude;
+		this.longitude = quantizedLongitude;
+		this.accuracy = quantizedAccuracy;
+		this.speed = quantizedSpeed;
+		this.bearing = quantizedBearing;
+		this.time = time;
+
+		// Periodic sync, so a crash loses at most one interval of fixes
+		long now = System.currentTimeMillis ();
+		if (now - lastSyncTime >= syncInterval) {
+			sync ();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and syncs the file to the disk
+	 **/
+	public synchronized void sync () throws IOException {
+		if (closed) return;
+
+		flushBuffer ();
+		channel.force (false);
+		lastSyncTime = System.currentTimeMillis ();
+	}
+
+	private void flushBuffer () throws IOException {
+		buffer.flip ();
+		while (buffer.hasRemaining ()) {
+			channel.write (buffer);
+		}
+		buffer.clear ();
+	}
+
+	@Override
+	public synchronized void close () throws IOException {
+		if (closed) return;
+
+		try {
+			sync ();
+		} finally {
+			closed = true;
+			file.close ();
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only queue of upload batches on the disk, surviving the process death
+ * <p>
+ * The data file holds the batches as records prefixed by their length and CRC32, and the head file holds the offset of
+ * the first batch not sent yet. Removing a batch only moves the head. The sent batches are truncated once the queue
+ * empties, or compacted into a new generation of the data file once they take most of it. A record cut by a crash is
+ * dropped on open.
+ * <p>
+ * Not thread safe, used only by the worker thread of the {@link FixUploader}.
+ **/
+final class UploadQueue implements Closeable {
+
+	private static final int MAGIC = 0x4C4D5551;// "LMUQ"
+	private static final int HEADER_SIZE = 12;// Magic and generation
+	private static final int RECORD_HEADER_SIZE = 8;// Length and CRC32
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+	private static final long COMPACT_SIZE = 64 * 1024;
+
+	private final File dataFile;
+	private final File compactFile;
+	private final RandomAccessFile head;
+	private RandomAccessFile data;
+
+	// Bumped by each compaction, so a head left behind by a crash is never applied to the new data file
+	private long generation;
+	private long headOffset;
+	private int size;
+
+	UploadQueue (File directory) throws IOException {
+		if (!directory.isDirectory () && !directory.mkdirs ()) {
+			throw new IOException ("Could not create the upload queue at " + directory);
+		}
+
+		this.dataFile = new File (directory, "batches");
+		this.compactFile = new File (directory, "batches.tmp");
+		// A compaction interrupted before replacing the data file
+		if (compactFile.exists () && !compactFile.delete ()) {
+			throw new IOException ("Could not delete " + compactFile);
+		}
+
+		this.head = new RandomAccessFile (new File (directory, "head"), "rw");
+		this.data = new RandomAccessFile (dataFile, "rw");
+
+		long headGeneration = 0;
+		long offset = HEADER_SIZE;
+		if (head.length () >= 16) {
+			headGeneration = head.readLong ();
+			offset = head.readLong ();
+		}
+
+		if (data.length () < HEADER_SIZE) {
+			data.setLength (0);
+			writeDataHeader (data, headGeneration);
+			generation = headGeneration;
+			offset = HEADER_SIZE;
+		} else {
+			data.seek (0);
+			if (data.readInt () != MAGIC) {
+				close ();
+				throw new IOException ("Not an upload queue");
+			}
+
+			generation = data.readLong ();
+			// The compaction replaced the data file, but the crash came before the head was written
+			if (generation != headGeneration) {
+				offset = HEADER_SIZE;
+			}
+		}
+
+		// Count the batches, dropping a record cut by a crash
+		headOffset = Math.max (HEADER_SIZE, Math.min (offset, data.length ()));
+		long position = headOffset;
+		long next;
+		while ((next = readRecord (position, null)) > 0) {
+			position = next;
+			size++;
+		}
+		if (position < data.length ()) {
+			data.setLength (position);
+		}
+
+		writeHead ();
+	}
+
+	/**
+	 * Appends the batch, synced to the disk before returning
+	 **/
+	void append (byte[] batch) throws IOException {
+		if (batch.length > MAX_RECORD_SIZE) {
+			throw new IOException ("Batch too large");
+		}
+
+		CRC32 crc = new CRC32 ();
+		crc.update (batch, 0, batch.length);
+
+		data.seek (data.length ());
+		data.writeInt (batch.length);
+		data.writeInt ((int) crc.getValue ());
+		data.write (batch);
+		data.getFD ().sync ();
+		size++;
+	}
+
+	/**
+	 * The oldest batch not removed yet, null if the queue is empty
+	 **/
+	byte[] peek () throws IOException {
+		if (size == 0) return null;
+
+		byte[][] batch = new byte[1][];
+		if (readRecord (headOffset, batch) < 0) {
+			throw new IOException ("Corrupted upload queue");
+		}
+
+		return batch[0];
+	}
+
+	/**
+	 * Removes the oldest batch, once it was sent
+	 **/
+	void remove () throws IOException {
+		if (size == 0) return;
+
+		data.seek (headOffset);
+		headOffset += RECORD_HEADER_SIZE + data.readInt ();
+		size--;
+
+		if (size == 0) {
+			// Truncate before moving the head, a crash in between just finds an empty queue
+			data.setLength (HEADER_SIZE);
+			headOffset = HEADER_SIZE;
+		} else if (headOffset > COMPACT_SIZE && headOffset * 2 > data.length ()) {
+			compact ();
+		}
+
+		writeHead ();
+	}
+
+	int size () {
+		return size;
+	}
+
+	/**
+	 * Copies the batches not sent yet into a new generation of the data file
+	 **/
+	private void compact () throws IOException {
+		RandomAccessFile compacted = new RandomAccessFile (compactFile, "rw");
+		try {
+			compacted.setLength (0);
+			writeDataHeader (compacted, generation + 1);
+
+			long remaining = data.length () - headOffset;
+			data.getChannel ().transferTo (headOffset, remaining, compacted.getChannel ());
+			compacted.getFD ().sync ();
+		} finally {
+			compacted.close ();
+		}
+
+		data.close ();
+		if (!compactFile.renameTo (dataFile)) {
+			// Keep working on the old data file
+			data = new RandomAccessFile (dataFile, "rw");
+			return;
+		}
+
+		data = new RandomAccessFile (dataFile, "rw");
+		generation++;
+		headOffset = HEADER_SIZE;
+	}
+
+	/**
+	 * Reads the record at the position, checking its length and CRC32
+	 *
+	 * @param batch Receives the record bytes at index 0, may be null
+	 * @return The position after the record, or -1 if there is no complete and valid record there
+	 **/
+	private long readRecord (long position, byte[][] batch) throws IOException {
+		long length = data.length ();
+		if (position + RECORD_HEADER_SIZE > length) return -1;
+
+		data.seek (position);
+		int recordLength = data.readInt ();
+		int recordCrc = data.readInt ();
+		if (recordLength < 0 || recordLength > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + recordLength > length) {
+			return -1;
+		}
+
+		byte[] bytes = new byte[recordLength];
+		data.readFully (bytes);
+
+		CRC32 crc = new CRC32 ();
+		crc.update (bytes, 0, bytes.length);
+		if ((int) crc.getValue () != recordCrc) return -1;
+
+		if (batch != null) {
+			batch[0] = bytes;
+		}
+
+		return position + RECORD_HEADER_SIZE + recordLength;
+	}
+
+	private void writeHead () throws IOException {
+		head.seek (0);
+		head.writeLong (generation);
+		head.writeLong (headOffset);
+		head.getFD ().sync ();
+	}
+
+	private static void writeDataHeader (RandomAccessFile file, long generation) throws IOException {
+		file.seek (0);
+		file.writeInt (MAGIC);
+		file.writeLong (generation);
+	}
+
+	@Override
+	public void close () throws IOException {
+		try {
+			data.close ();
+		} finally {
+			head.close ();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Z-order (Morton) codes of the coordinates, so nearby fixes get nearby codes and a bounding box maps to a few code ranges
+ * <p>
+ * The coordinates are quantized from 1e-7 degrees on a 2^24 x 2^24 grid, cells of about 1.4m of latitude by 2.8m of longitude.
+ **/
+final class ZOrder {
+
+	static final int BITS = 24;
+	private static final int MAX_COORDINATE = (1 << BITS) - 1;
+	private static final int LATITUDE_SHIFT = 7;// 1.8e9 / 2^7 < 2^24
+	private static final int LONGITUDE_SHIFT = 8;// 3.6e9 / 2^8 < 2^24
+
+	private ZOrder () {
+	}
+
+	static int gridX (int longitudeE7) {
+		return (int) ((longitudeE7 + 1800000000L) >> LONGITUDE_SHIFT);
+	}
+
+	static int gridY (int latitudeE7) {
+		return (int) ((latitudeE7 + 900000000L) >> LATITUDE_SHIFT);
+	}
+
+	/**
+	 * The code of the coordinate, in 1e-7 degrees
+	 **/
+	static long encode (int latitudeE7, int longitudeE7) {
+		return interleave (gridX (longitudeE7), gridY (latitudeE7));
+	}
+
+	static long interleave (int x, int y) {
+		return spread (x) | (spread (y) << 1);
+	}
+
+	/**
+	 * Spreads the 24 bits of the value to the even bits
+	 **/
+	private static long spread (int value) {
+		long v = value & 0xFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	/**
+	 * Covers the grid box with at most about maxRanges code ranges, the cells only partially inside make the ranges
+	 * a bit larger than the box, so the candidates must still be checked against it
+	 *
+	 * @return The sorted and merged ranges, as inclusive start and end pairs
+	 **/
+	static long[] cover (int minX, int minY, int maxX, int maxY, int maxRanges) {
+		minX = clamp (minX);
+		minY = clamp (minY);
+		maxX = clamp (maxX);
+		maxY = clamp (maxY);
+
+		List<long[]> ranges = new ArrayList<> ();
+		// Cells partially inside the box, as x, y pairs at the current level
+		int[] partial = {0, 0};
+		int partialCount = 1;
+
+		for (int level = 0; level <= BITS && partialCount > 0; level++) {
+			int size = BITS - level;// Log2 of the cell size
+			boolean last = level == BITS || ranges.size () + partialCount * 4 > maxRanges;
+
+			int[] next = new int[partialCount * 8];
+			int nextCount = 0;
+
+			for (int i = 0; i < partialCount; i++) {
+				int cellX = partial[i * 2], cellY = partial[i * 2 + 1];
+				int startX = cellX << size, startY = cellY << size;
+				int endX = startX + (1 << size) - 1, endY = startY + (1 << size) - 1;
+
+				if (endX < minX || startX > maxX || endY < minY || startY > maxY) continue;
+
+				boolean inside = startX >= minX && endX <= maxX && startY >= minY && endY <= maxY;
+				if (inside || last) {
+					long start = interleave (cellX, cellY) << (2 * size);
+					ranges.add (new long[] {start, start + (1L << (2 * size)) - 1});
+					continue;
+				}
+
+				// Split into the four children
+				for (int child = 0; child < 4; child++) {
+					next[nextCount * 2] = (cellX << 1) | (child & 1);
+					next[nextCount * 2 + 1] = (cellY << 1) | (child >> 1);
+					nextCount++;
+				}
+			}
+
+			partial = next;
+			partialCount = nextCount;
+		}
+
+		return merge (ranges);
+	}
+
+	private static long[] merge (List<long[]> ranges) {
+		long[][] sorted = ranges.toArray (new long[ranges.size ()][]);
+		Arrays.sort (sorted, new Comparator<long[]> () {
+			@Override
+			public int compare (long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+			}
+		});
+
+		long[] merged = new long[sorted.length * 2];
+		int count = 0;
+		for (long[] range : sorted) {
+			if (count > 0 && range[0] <= merged[count * 2 - 1] + 1) {
+				merged[count * 2 - 1] = Math.max (merged[count * 2 - 1], range[1]);
+			} else {
+				merged[count * 2] = range[0];
+				merged[count * 2 + 1] = range[1];
+				count++;
+			}
+		}
+
+		return Arrays.copyOf (merged, count * 2);
+	}
+
+	private static int clamp (int value) {
+		return Math.max (0, Math.min (value, MAX_COORDINATE));
+	}
+}
@@ -0,0 +1,71 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSchedulerTest {
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	@Test
+	public void profiles_followThePowerBudget () {
+		AdaptiveScheduler scheduler = new AdaptiveScheduler (AdaptiveScheduler.POWER_LOW);
+		assertEquals (AdaptiveScheduler.ACTIVITY_WALKING, scheduler.getActivity ());
+
+		scheduler.setActivity (AdaptiveScheduler.ACTIVITY_STATIONARY);
+		AdaptiveScheduler.Profile low = scheduler.getProfile ();
+		assertFalse (low.useGps);
+		assertTrue (low.useNetwork);
+
+		assertTrue (scheduler.setPowerBudget (AdaptiveScheduler.POWER_HIGH));
+		assertFalse (scheduler.setPowerBudget (AdaptiveScheduler.POWER_HIGH));
+		assertTrue (scheduler.getProfile ().minTime < low.minTime);
+
+		scheduler.setActivity (AdaptiveScheduler.ACTIVITY_DRIVING);
+		assertTrue (scheduler.getProfile ().useGps);
+
+		try {
+			scheduler.setPowerBudget (3);
+			fail ();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void walkingToDriving_waitsForConsistentFixes () {
+		AdaptiveScheduler scheduler = new AdaptiveScheduler (AdaptiveScheduler.POWER_BALANCED);
+		for (int i = 0; i < 5; i++) {
+			scheduler.update (0.0, 0.0, 1.5f, i * 5000L);
+		}
+
+		// A short spike is smoothed out
+		assertFalse (scheduler.update (0.0, 0.0, 6f, 30000L));
+		assertFalse (scheduler.update (0.0, 0.0, 1.5f, 35000L));
+		assertEquals (AdaptiveScheduler.ACTIVITY_WALKING, scheduler.getActivity ());
+
+		int fixes = 0;
+		boolean changed = false;
+		while (!changed) {
+			changed = scheduler.update (0.0, 0.0, 15f, 40000L + fixes * 5000L);
+			fixes++;
+		}
+		assertTrue (fixes >= 3);
+		assertEquals (AdaptiveScheduler.ACTIVITY_DRIVING, scheduler.getActivity ());
+	}
+
+	@Test
+	public void stationaryToDriving_onTheFirstFastFix () {
+		AdaptiveScheduler scheduler = new AdaptiveScheduler (AdaptiveScheduler.POWER_LOW);
+		scheduler.setActivity (AdaptiveScheduler.ACTIVITY_STATIONARY);
+		for (int i = 0; i < 5; i++) {
+			assertFalse (scheduler.update (0.0, 0.0, 0.1f, i * 300000L));
+		}
+
+		// Five minutes later, 3km away, without a reported speed
+		assertTrue (scheduler.update (3000.0 / METERS_PER_DEGREE, 0.0, -1f, 5 * 300000L));
+		assertEquals (AdaptiveScheduler.ACTIVITY_DRIVING, scheduler.getActivity ());
+		assertTrue (scheduler.getProfile ().useGps);
+	}
+}
@@ -0,0 +1,76 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DefaultLocationMetricsTest {
+
+	@Test
+	public void rates_compareRequests () {
+		DefaultLocationMetrics metrics = new DefaultLocationMetrics ();
+		assertEquals (0, metrics.getCacheHitRate (), 0);
+		assertEquals (0, metrics.getTimeoutRate (), 0);
+
+		metrics.recordCacheHit ();
+		metrics.recordLiveFix ();
+		metrics.recordLiveFix ();
+		metrics.recordLiveFix ();
+		assertEquals (0.25, metrics.getCacheHitRate (), 1e-9);
+
+		for (int i = 0; i < 4; i++) {
+			metrics.recordTimedRequest ();
+		}
+		metrics.recordTimeout ();
+		assertEquals (0.25, metrics.getTimeoutRate (), 1e-9);
+
+		metrics.reset ();
+		assertEquals (0, metrics.getCacheHits ());
+		assertEquals (0, metrics.getLiveFixes ());
+		assertEquals (0, metrics.getTimeouts ());
+	}
+
+	@Test
+	public void histograms_arePerProvider () {
+		DefaultLocationMetrics metrics = new DefaultLocationMetrics ();
+		metrics.recordTimeToFirstFix ("gps", 1500);
+		metrics.recordFixAccuracy ("gps", 4.6f);
+		metrics.recordFixAccuracy ("network", 30f);
+		metrics.recordDispatchTime (20000);
+
+		assertEquals (1, metrics.getTimeToFirstFix ("gps").getTotalCount ());
+		assertEquals (0, metrics.getTimeToFirstFix ("network").getTotalCount ());
+		assertEquals (2000, metrics.getTimeToFirstFix ("gps").getPercentile (50));
+		// Rounded to 5 meters, in the first bucket
+		assertEquals (5, metrics.getAccuracy ("gps").getPercentile (100));
+		assertEquals (50, metrics.getAccuracy ("network").getPercentile (100));
+		assertEquals (50000, metrics.getDispatchTime ().getPercentile (100));
+	}
+
+	@Test
+	public void counters_areLockFreeAndExact () throws Exception {
+		final DefaultLocationMetrics metrics = new DefaultLocationMetrics ();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread (new Runnable () {
+				@Override
+				public void run () {
+					for (int i = 0; i < 50000; i++) {
+						metrics.recordCacheHit ();
+						metrics.recordLiveFix ();
+						metrics.recordFixAccuracy ("gps", 3f);
+					}
+				}
+			});
+			threads[t].start ();
+		}
+		for (Thread thread : threads) {
+			thread.join ();
+		}
+
+		assertEquals (200000, metrics.getCacheHits ());
+		assertEquals (200000, metrics.getLiveFixes ());
+		assertEquals (200000, metrics.getAccuracy ("gps").getTotalCount ());
+		assertEquals (0.5, metrics.getCacheHitRate (), 1e-9);
+	}
+}
@@ -0,0 +1,55 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FilterPipelineTest {
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	@Test
+	public void speedGate_rejectsJumps () {
+		FilterPipeline pipeline = new FilterPipeline ().add (new SpeedGate (50.0));
+
+		assertTrue (pipeline.filter (0.0, 0.0, 10f, 0L));
+		// 3km in 10 seconds
+		assertFalse (pipeline.filter (3000.0 / METERS_PER_DEGREE, 0.0, 10f, 10000L));
+		// 200m in 10 seconds
+		assertTrue (pipeline.filter (200.0 / METERS_PER_DEGREE, 0.0, 10f, 10000L));
+		assertEquals (1, pipeline.getRejectedCount ());
+	}
+
+	@Test
+	public void speedGate_recoversFromABadAnchor () {
+		SpeedGate gate = new SpeedGate (50.0);
+		FilterPipeline pipeline = new FilterPipeline ().add (gate);
+
+		// The first fix is the outlier, the device is really 5km away
+		assertTrue (pipeline.filter (0.0, 0.0, 10f, 0L));
+		for (int i = 1; i <= 3; i++) {
+			assertFalse (pipeline.filter (5000.0 / METERS_PER_DEGREE, 0.0, 10f, i * 1000L));
+		}
+		assertTrue (pipeline.filter (5000.0 / METERS_PER_DEGREE, 0.0, 10f, 4000L));
+		assertTrue (pipeline.filter (5010.0 / METERS_PER_DEGREE, 0.0, 10f, 5000L));
+	}
+
+	@Test
+	public void stationaryJitter_suppressesDrift () {
+		FilterPipeline pipeline = new FilterPipeline ()
+				.add (new AccuracyGate (100f))
+				.add (new StationaryJitter (15.0, 60000L));
+
+		assertTrue (pipeline.filter (0.0, 0.0, 8f, 0L));
+		// Drifting around while parked
+		assertFalse (pipeline.filter (5.0 / METERS_PER_DEGREE, 0.0, 10f, 1000L));
+		assertFalse (pipeline.filter (0.0, 7.0 / METERS_PER_DEGREE, 9f, 2000L));
+		// Too coarse, whatever the position
+		assertFalse (pipeline.filter (0.0, 0.0, 500f, 3000L));
+		// More accurate, or old enough to refresh
+		assertTrue (pipeline.filter (2.0 / METERS_PER_DEGREE, 0.0, 4f, 4000L));
+		assertTrue (pipeline.filter (2.0 / METERS_PER_DEGREE, 0.0, 10f, 64000L));
+		// Actually moving
+		assertTrue (pipeline.filter (40.0 / METERS_PER_DEGREE, 0.0, 10f, 65000L));
+	}
+}
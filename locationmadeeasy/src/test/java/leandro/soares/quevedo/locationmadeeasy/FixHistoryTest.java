@@ -0,0 +1,134 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FixHistoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder ();
+
+	private static final int FIXES = 5000;
+
+	// A random walk around Porto Alegre, a fix per second
+	private static double[][] walk () {
+		Random random = new Random (42);
+		double[][] fixes = new double[FIXES][];
+		double latitude = -30.03, longitude = -51.23;
+		for (int i = 0; i < FIXES; i++) {
+			latitude += (random.nextDouble () - 0.5) * 1e-3;
+			longitude += (random.nextDouble () - 0.5) * 1e-3;
+			fixes[i] = new double[] {latitude, longitude, 1000L * i};
+		}
+		return fixes;
+	}
+
+	private static FixHistory fill (File directory, double[][] fixes) throws Exception {
+		FixHistory history = new FixHistory (directory, 1024, 1000);
+		for (double[] fix : fixes) {
+			assertTrue (history.append (fix[0], fix[1], 5f, 1f, 90f, (long) fix[2], ProviderCodes.GPS));
+		}
+		return history;
+	}
+
+	@Test
+	public void locationAt_interpolatesBetweenTheFixes () throws Exception {
+		FixHistory history = fill (folder.newFolder (), walk ());
+		double[] out = new double[4];
+
+		history.append (0.0, 0.0, 4f, 0f, 0f, 10000000L, ProviderCodes.GPS);
+		history.append (0.0, 1e-3, 8f, 0f, 0f, 10001000L, ProviderCodes.GPS);
+		assertFalse (history.append (1.0, 1.0, 4f, 0f, 0f, 0L, ProviderCodes.GPS));
+
+		assertTrue (history.getLocationAt (10000250L, out));
+		assertEquals (0.0, out[FixHistory.INDEX_LATITUDE], 1e-7);
+		assertEquals (0.25e-3, out[FixHistory.INDEX_LONGITUDE], 1e-7);
+		assertEquals (5.0, out[FixHistory.INDEX_ACCURACY], 1e-6);
+
+		// Across the boundary of a sealed segment
+		double[][] fixes = walk ();
+		assertTrue (history.getLocationAt (1023500L, out));
+		assertEquals ((fixes[1023][0] + fixes[1024][0]) / 2, out[FixHistory.INDEX_LATITUDE], 1e-7);
+
+		assertFalse (history.getLocationAt (-1L, out));
+		assertFalse (history.getLocationAt (10001001L, out));
+		history.close ();
+	}
+
+	@Test
+	public void query_matchesAFullScan () throws Exception {
+		double[][] fixes = walk ();
+		File directory = folder.newFolder ();
+		FixHistory history = fill (directory, fixes);
+		history.close ();
+		// Reopened, the sealed segments are read from the files
+		history = new FixHistory (directory, 1024, 1000);
+		assertEquals (FIXES, history.getSize ());
+
+		Random random = new Random (7);
+		for (int q = 0; q < 50; q++) {
+			double[] center = fixes[random.nextInt (FIXES)];
+			double size = random.nextDouble () * 5e-3;
+			final double minLatitude = center[0] - size, maxLatitude = center[0] + size;
+			final double minLongitude = center[1] - size, maxLongitude = center[1] + size;
+			long from = random.nextInt (FIXES) * 1000L, to = from + random.nextInt (FIXES) * 1000L;
+
+			final List<Long> found = new ArrayList<> ();
+			history.query (minLatitude, minLongitude, maxLatitude, maxLongitude, from, to, new FixHistory.FixVisitor () {
+				@Override
+				public boolean onFix (double latitude, double longitude, float accuracy, float speed, float bearing, long time, int provider) {
+					assertTrue (latitude >= minLatitude && latitude <= maxLatitude);
+					assertTrue (longitude >= minLongitude && longitude <= maxLongitude);
+					found.add (time);
+					return true;
+				}
+			});
+
+			// Against the coordinates as stored, in 1e-7 degrees
+			List<Long> expected = new ArrayList<> ();
+			for (double[] fix : fixes) {
+				double latitude = Math.round (fix[0] * 1e7) / 1e7, longitude = Math.round (fix[1] * 1e7) / 1e7;
+				if (fix[2] >= from && fix[2] <= to
+						&& latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude) {
+					expected.add ((long) fix[2]);
+				}
+			}
+			assertEquals (expected, found);
+		}
+		history.close ();
+	}
+
+	@Test
+	public void findNearest_matchesAFullScan () throws Exception {
+		double[][] fixes = walk ();
+		FixHistory history = fill (folder.newFolder (), fixes);
+		double[] out = new double[4];
+
+		Random random = new Random (3);
+		for (int q = 0; q < 50; q++) {
+			// Near the walk, and kilometers away from it
+			double spread = q % 2 == 0 ? 0.01 : 1.0;
+			double latitude = -30.03 + (random.nextDouble () - 0.5) * spread;
+			double longitude = -51.23 + (random.nextDouble () - 0.5) * spread;
+
+			double best = Double.MAX_VALUE;
+			for (double[] fix : fixes) {
+				best = Math.min (best, GeoMath.distance (latitude, longitude, fix[0], fix[1]));
+			}
+
+			assertTrue (history.findNearest (latitude, longitude, out));
+			double distance = GeoMath.distance (latitude, longitude, out[FixHistory.INDEX_LATITUDE], out[FixHistory.INDEX_LONGITUDE]);
+			// Within the quantization of the stored coordinates
+			assertEquals (best, distance, 0.05);
+		}
+		history.close ();
+	}
+}
@@ -0,0 +1,184 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FixPublisherTest {
+
+	private final AtomicInteger starts = new AtomicInteger ();
+	private final AtomicInteger stops = new AtomicInteger ();
+	private final FixPublisher<Integer> publisher = new FixPublisher<> (new Runnable () {
+		@Override
+		public void run () {
+			starts.incrementAndGet ();
+		}
+	}, new Runnable () {
+		@Override
+		public void run () {
+			stops.incrementAndGet ();
+		}
+	});
+
+	@Test
+	public void latest_conflatesWhileTheSubscriberIsBusy () {
+		QueuedExecutor executor = new QueuedExecutor ();
+		RecordingSubscriber subscriber = new RecordingSubscriber ();
+		publisher.subscribe (subscriber, FixPublisher.OVERFLOW_LATEST, 0, executor);
+		executor.runAll ();
+
+		for (int i = 1; i <= 5; i++) {
+			publisher.publish (i);
+		}
+		subscriber.subscription.request (1);
+		executor.runAll ();
+		assertEquals (Arrays.asList (5), subscriber.items);
+
+		// Nothing more was requested
+		publisher.publish (6);
+		executor.runAll ();
+		assertEquals (Arrays.asList (5), subscriber.items);
+	}
+
+	@Test
+	public void dropOldest_keepsTheNewestFixes () {
+		QueuedExecutor executor = new QueuedExecutor ();
+		RecordingSubscriber subscriber = new RecordingSubscriber ();
+		publisher.subscribe (subscriber, FixPublisher.OVERFLOW_DROP_OLDEST, 2, executor);
+		executor.runAll ();
+
+		for (int i = 1; i <= 4; i++) {
+			publisher.publish (i);
+		}
+		subscriber.subscription.request (10);
+		executor.runAll ();
+		publisher.publish (5);
+		executor.runAll ();
+
+		assertEquals (Arrays.asList (3, 4, 5), subscriber.items);
+		assertNull (subscriber.error);
+	}
+
+	@Test
+	public void buffer_failsTheSubscriberOnOverflow () {
+		QueuedExecutor executor = new QueuedExecutor ();
+		RecordingSubscriber slow = new RecordingSubscriber ();
+		RecordingSubscriber fast = new RecordingSubscriber ();
+		publisher.subscribe (slow, FixPublisher.OVERFLOW_BUFFER, 2, executor);
+		publisher.subscribe (fast, FixPublisher.OVERFLOW_BUFFER, 2, executor);
+		executor.runAll ();
+		fast.subscription.request (Long.MAX_VALUE);
+
+		for (int i = 1; i <= 3; i++) {
+			publisher.publish (i);
+			executor.runAll ();
+		}
+
+		assertNotNull (slow.error);
+		assertTrue (slow.items.isEmpty ());
+		assertNull (fast.error);
+		assertEquals (Arrays.asList (1, 2, 3), fast.items);
+		assertEquals (1, publisher.getSubscriberCount ());
+	}
+
+	@Test
+	public void subscribers_shareOneSession () {
+		QueuedExecutor executor = new QueuedExecutor ();
+		RecordingSubscriber first = new RecordingSubscriber ();
+		RecordingSubscriber second = new RecordingSubscriber ();
+		publisher.subscribe (first, FixPublisher.OVERFLOW_LATEST, 0, executor);
+		publisher.subscribe (second, FixPublisher.OVERFLOW_BUFFER, 16, executor);
+		executor.runAll ();
+		assertEquals (1, starts.get ());
+
+		first.subscription.cancel ();
+		assertEquals (0, stops.get ());
+		second.subscription.cancel ();
+		second.subscription.cancel ();
+		assertEquals (1, stops.get ());
+
+		publisher.fail ("No subscriber is left");
+		assertEquals (1, stops.get ());
+		assertNull (second.error);
+	}
+
+	@Test
+	public void throwingSubscriber_isCancelledWithAnError () {
+		QueuedExecutor executor = new QueuedExecutor ();
+		RecordingSubscriber subscriber = new RecordingSubscriber () {
+			@Override
+			public void onNext (Integer item) {
+				super.onNext (item);
+				if (item == 2) throw new IllegalStateException ("Broken subscriber");
+			}
+		};
+		RecordingSubscriber other = new RecordingSubscriber ();
+		publisher.subscribe (subscriber, FixPublisher.OVERFLOW_BUFFER, 16, executor);
+		publisher.subscribe (other, FixPublisher.OVERFLOW_BUFFER, 16, executor);
+		executor.runAll ();
+		subscriber.subscription.request (Long.MAX_VALUE);
+		other.subscription.request (Long.MAX_VALUE);
+
+		for (int i = 1; i <= 3; i++) {
+			publisher.publish (i);
+		}
+		// The executor is not broken by the throw
+		executor.runAll ();
+
+		assertEquals (Arrays.asList (1, 2), subscriber.items);
+		assertNotNull (subscriber.error);
+		assertTrue (subscriber.error.contains ("Broken subscriber"));
+		assertEquals (Arrays.asList (1, 2, 3), other.items);
+		assertNull (other.error);
+		assertEquals (1, publisher.getSubscriberCount ());
+
+		other.subscription.cancel ();
+		assertEquals (1, stops.get ());
+	}
+
+	/**
+	 * Runs the tasks only when asked, like a busy main thread
+	 **/
+	private static class QueuedExecutor implements Executor {
+		private final List<Runnable> tasks = new ArrayList<> ();
+
+		@Override
+		public void execute (Runnable task) {
+			tasks.add (task);
+		}
+
+		void runAll () {
+			while (!tasks.isEmpty ()) {
+				tasks.remove (0).run ();
+			}
+		}
+	}
+
+	private static class RecordingSubscriber implements FixPublisher.Subscriber<Integer> {
+		final List<Integer> items = new ArrayList<> ();
+		FixPublisher.Subscription subscription;
+		String error;
+
+		@Override
+		public void onSubscribe (FixPublisher.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext (Integer item) {
+			items.add (item);
+		}
+
+		@Override
+		public void onError (String message) {
+			assertNull (error);
+			error = message;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FixRingBufferTest {
+
+	private static void addFix (FixRingBuffer buffer, int i) {
+		buffer.add (i, -i, i, i * 0.5f, i % 360, 1000L * i, ProviderCodes.GPS);
+	}
+
+	@Test
+	public void indexesFromTheOldestFix () {
+		FixRingBuffer buffer = new FixRingBuffer (4);
+		assertTrue (buffer.isEmpty ());
+
+		for (int i = 0; i < 3; i++) {
+			addFix (buffer, i);
+		}
+
+		assertEquals (3, buffer.size ());
+		assertEquals (4, buffer.capacity ());
+		for (int i = 0; i < 3; i++) {
+			assertEquals (i, buffer.getLatitude (i), 0.0);
+			assertEquals (-i, buffer.getLongitude (i), 0.0);
+			assertEquals (1000L * i, buffer.getTime (i));
+			assertEquals ("gps", buffer.getProvider (i));
+		}
+	}
+
+	@Test
+	public void wrapsAround_overwritingTheOldest () {
+		FixRingBuffer buffer = new FixRingBuffer (4);
+		for (int i = 0; i < 10; i++) {
+			addFix (buffer, i);
+		}
+
+		// Fixes 6 to 9 remain, the oldest first
+		assertEquals (4, buffer.size ());
+		for (int i = 0; i < 4; i++) {
+			assertEquals (6 + i, buffer.getLatitude (i), 0.0);
+			assertEquals (6 + i, buffer.getAccuracy (i), 0f);
+			assertEquals ((6 + i) * 0.5f, buffer.getSpeed (i), 0f);
+			assertEquals (1000L * (6 + i), buffer.getTime (i));
+		}
+
+		try {
+			buffer.getTime (4);
+			fail ();
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+
+		buffer.clear ();
+		assertTrue (buffer.isEmpty ());
+	}
+
+	@Test
+	public void copy_isIndependentOfLaterWrites () {
+		FixRingBuffer buffer = new FixRingBuffer (3);
+		for (int i = 0; i < 5; i++) {
+			addFix (buffer, i);
+		}
+
+		FixRingBuffer copy = buffer.copy ();
+		addFix (buffer, 5);
+
+		assertEquals (3, copy.size ());
+		assertEquals (2, copy.getLatitude (0), 0.0);
+		assertEquals (4, copy.getLatitude (2), 0.0);
+		assertEquals (3, buffer.getLatitude (0), 0.0);
+	}
+}
@@ -0,0 +1,250 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class FixUploaderTest {
+
+	private File directory;
+
+	@Before
+	public void setUp () throws IOException {
+		directory = File.createTempFile ("uploads", "");
+		assertTrue (directory.delete ());
+	}
+
+	@After
+	public void tearDown () {
+		File[] files = directory.listFiles ();
+		if (files != null) {
+			for (File file : files) {
+				file.delete ();
+			}
+		}
+		directory.delete ();
+	}
+
+	@Test
+	public void unsentBatches_surviveTheRestart () throws Exception {
+		RecordingTransport failing = new RecordingTransport (true);
+		FixUploader uploader = new FixUploader (directory, failing, 4, 60000, 64, 16, 10, 20);
+		for (int i = 0; i < 10; i++) {
+			assertTrue (uploader.offer (-30.0 + i * 1e-4, -51.0 - i * 1e-4, 5f + i, 1.5f, 90f, 1000L * i, ProviderCodes.GPS));
+		}
+		uploader.flush ();
+		waitFor (failing, 3);
+		uploader.close ();
+
+		// A new process sends everything, in order
+		RecordingTransport working = new RecordingTransport (false);
+		uploader = new FixUploader (directory, working, 4, 60000, 64, 16, 10, 20);
+		waitFor (working, 3);
+		uploader.close ();
+
+		List<double[]> fixes = new ArrayList<> ();
+		for (byte[] batch : working.batches) {
+			fixes.addAll (decode (batch));
+		}
+		assertEquals (10, fixes.size ());
+		for (int i = 0; i < 10; i++) {
+			assertEquals (-30.0 + i * 1e-4, fixes.get (i)[0], 1e-7);
+			assertEquals (-51.0 - i * 1e-4, fixes.get (i)[1], 1e-7);
+			assertEquals (5f + i, fixes.get (i)[2], 0.1);
+			assertEquals (1000L * i, (long) fixes.get (i)[3]);
+		}
+		assertEquals (0, uploader.getQueuedBatchCount ());
+	}
+
+	@Test
+	public void fullQueue_refusesTheFixes () throws Exception {
+		RecordingTransport failing = new RecordingTransport (true);
+		FixUploader uploader = new FixUploader (directory, failing, 2, 60000, 4, 1, 10000, 10000);
+
+		int accepted = 0;
+		for (int i = 0; i < 20; i++) {
+			if (uploader.offer (10.0, 20.0, 5f, 0f, 0f, i, ProviderCodes.NETWORK)) {
+				accepted++;
+			}
+			Thread.sleep (5);
+		}
+
+		// One batch on the disk and a full memory queue
+		assertEquals (6, accepted);
+		assertEquals (14, uploader.getRefusedFixCount ());
+		assertEquals (1, uploader.getQueuedBatchCount ());
+		uploader.close ();
+	}
+
+	@Test
+	public void batchDelay_countsFromTheOldestPendingFix () throws Exception {
+		RecordingTransport working = new RecordingTransport (false);
+		FixUploader uploader = new FixUploader (directory, working, 4, 1000, 64, 16, 10, 20);
+		long start = System.currentTimeMillis ();
+
+		// A full batch, then two fixes half a delay later
+		for (int i = 0; i < 4; i++) {
+			uploader.offer (1.0, 2.0, 3f, 0f, 0f, i, ProviderCodes.GPS);
+		}
+		waitFor (working, 1);
+		Thread.sleep (Math.max (0, start + 500 - System.currentTimeMillis ()));
+		uploader.offer (1.0, 2.0, 3f, 0f, 0f, 4, ProviderCodes.GPS);
+		uploader.offer (1.0, 2.0, 3f, 0f, 0f, 5, ProviderCodes.GPS);
+
+		// The delay armed by the first batch has passed, the two fixes keep waiting for theirs
+		Thread.sleep (Math.max (0, start + 1250 - System.currentTimeMillis ()));
+		assertEquals (1, working.batches.size ());
+		assertEquals (2, uploader.getPendingFixCount ());
+
+		waitFor (working, 2);
+		assertTrue (System.currentTimeMillis () - start >= 1500);
+		assertEquals (2, decode (working.batches.get (1)).size ());
+		uploader.close ();
+	}
+
+	@Test
+	public void flush_keepsASingleRetry () throws Exception {
+		RecordingTransport failing = new RecordingTransport (true);
+		FixUploader uploader = new FixUploader (directory, failing, 4, 60000, 64, 16, 1000, 1000);
+		uploader.offer (1.0, 2.0, 3f, 0f, 0f, 0, ProviderCodes.GPS);
+
+		// Each flush fails and replaces the retry
+		for (int i = 0; i < 5; i++) {
+			uploader.flush ();
+			waitFor (failing, i + 1);
+		}
+
+		// The retries come every 0.5 to 1 second
+		int attempts = failing.attempts;
+		Thread.sleep (1000);
+		assertTrue (failing.attempts - attempts <= 2);
+		uploader.close ();
+	}
+
+	@Test
+	public void httpTransport_postsTheBatches () throws Exception {
+		final List<byte[]> received = new CopyOnWriteArrayList<> ();
+		HttpServer server = HttpServer.create (new InetSocketAddress ("127.0.0.1", 0), 0);
+		server.createContext ("/fixes", new HttpHandler () {
+			@Override
+			public void handle (HttpExchange exchange) throws IOException {
+				assertEquals ("gzip", exchange.getRequestHeaders ().getFirst ("Content-Encoding"));
+				assertEquals ("secret", exchange.getRequestHeaders ().getFirst ("Authorization"));
+				received.add (readAll (exchange.getRequestBody ()));
+				exchange.sendResponseHeaders (204, -1);
+				exchange.close ();
+			}
+		});
+		server.start ();
+
+		try {
+			URL url = new URL ("http://127.0.0.1:" + server.getAddress ().getPort () + "/fixes");
+			FixUploader uploader = new FixUploader (directory, new HttpFixTransport (url).setHeader ("Authorization", "secret"),
+					3, 60000, 16, 16, 10, 20);
+			for (int i = 0; i < 3; i++) {
+				uploader.offer (1.0, 2.0, 3f, 0f, 0f, i, ProviderCodes.FUSED);
+			}
+
+			long end = System.currentTimeMillis () + 5000;
+			while (received.isEmpty () && System.currentTimeMillis () < end) {
+				Thread.sleep (10);
+			}
+			uploader.close ();
+
+			assertEquals (1, received.size ());
+			assertEquals (3, decode (received.get (0)).size ());
+		} finally {
+			server.stop (0);
+		}
+	}
+
+	private static void waitFor (RecordingTransport transport, int attempts) throws InterruptedException {
+		long end = System.currentTimeMillis () + 5000;
+		while (transport.attempts < attempts && System.currentTimeMillis () < end) {
+			Thread.sleep (5);
+		}
+		assertTrue (transport.attempts >= attempts);
+	}
+
+	/**
+	 * Decodes a batch as a server would, into latitude, longitude, accuracy and time
+	 **/
+	private static List<double[]> decode (byte[] batch) throws IOException {
+		InputStream input = new GZIPInputStream (new ByteArrayInputStream (batch));
+		assertEquals (FixUploader.BATCH_VERSION, input.read ());
+
+		int count = (int) TrackFormat.readVarLong (input);
+		long latitude = 0, longitude = 0, accuracy = 0, speed = 0, bearing = 0, time = 0;
+		List<double[]> fixes = new ArrayList<> ();
+		for (int i = 0; i < count; i++) {
+			assertTrue (input.read () >= 0);
+			latitude += TrackFormat.readSignedVarLong (input);
+			longitude += TrackFormat.readSignedVarLong (input);
+			accuracy += TrackFormat.readSignedVarLong (input);
+			speed += TrackFormat.readSignedVarLong (input);
+			bearing += TrackFormat.readSignedVarLong (input);
+			time += TrackFormat.readSignedVarLong (input);
+
+			fixes.add (new double[] {
+					latitude / TrackFormat.COORDINATE_SCALE,
+					longitude / TrackFormat.COORDINATE_SCALE,
+					accuracy / TrackFormat.ACCURACY_SCALE,
+					time
+			});
+		}
+		assertEquals (-1, input.read ());
+
+		return fixes;
+	}
+
+	private static byte[] readAll (InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream ();
+		byte[] buffer = new byte[512];
+		int read;
+		while ((read = input.read (buffer)) >= 0) {
+			output.write (buffer, 0, read);
+		}
+		input.close ();
+
+		return output.toByteArray ();
+	}
+
+	private static class RecordingTransport implements FixUploader.Transport {
+		final List<byte[]> batches = new CopyOnWriteArrayList<> ();
+		final boolean failing;
+		volatile int attempts;
+
+		RecordingTransport (boolean failing) {
+			this.failing = failing;
+		}
+
+		@Override
+		public void send (byte[] batch) throws IOException {
+			attempts++;
+			if (failing) {
+				throw new IOException ("Offline");
+			}
+
+			batches.add (batch);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeoMathTest {
+
+	@Test
+	public void fastMode_staysWithinItsBound () {
+		Random random = new Random (3);
+		int size = 50000;
+		double[] latitudes = new double[size], longitudes = new double[size];
+		for (int i = 0; i < size; i++) {
+			latitudes[i] = -30.0 + (random.nextDouble () - 0.5) * 3.0;
+			longitudes[i] = -51.0 + (random.nextDouble () - 0.5) * 3.0;
+		}
+
+		double[] exact = new double[size], fast = new double[size];
+		GeoMath.distances (-30.0, -51.0, latitudes, longitudes, exact, GeoMath.MODE_HAVERSINE);
+		GeoMath.distances (-30.0, -51.0, latitudes, longitudes, fast, GeoMath.MODE_FAST);
+
+		double[] exactBearings = new double[size], fastBearings = new double[size];
+		GeoMath.bearings (-30.0, -51.0, latitudes, longitudes, exactBearings, GeoMath.MODE_HAVERSINE);
+		GeoMath.bearings (-30.0, -51.0, latitudes, longitudes, fastBearings, GeoMath.MODE_FAST);
+
+		for (int i = 0; i < size; i++) {
+			assertEquals (exact[i], GeoMath.distance (-30.0, -51.0, latitudes[i], longitudes[i]), 1e-6);
+			assertEquals (exact[i], fast[i], exact[i] * 0.001);
+
+			double delta = Math.abs (exactBearings[i] - fastBearings[i]);
+			assertTrue (Math.min (delta, 360.0 - delta) < 0.1);
+		}
+	}
+
+	@Test
+	public void batch_matchesAcrossTheAntimeridian () {
+		double[] latitudes = {0.0, 0.0};
+		double[] longitudes = {-179.999, 179.999};
+		double[] out = new double[2];
+
+		GeoMath.distances (0.0, 180.0, latitudes, longitudes, out, GeoMath.MODE_FAST);
+		assertEquals (111.3, out[0], 0.5);
+		assertEquals (111.3, out[1], 0.5);
+
+		GeoMath.bearings (0.0, 180.0, latitudes, longitudes, out, GeoMath.MODE_FAST);
+		assertEquals (90.0, out[0], 0.01);
+		assertEquals (270.0, out[1], 0.01);
+	}
+
+	@Test
+	public void radiusAndNearest () {
+		double[] latitudes = {0.0, 0.001, 0.01};
+		double[] longitudes = {0.002, 0.0, 0.0};
+		boolean[] inside = new boolean[3];
+
+		assertEquals (2, GeoMath.withinRadius (0.0, 0.0, latitudes, longitudes, 300.0, inside));
+		assertTrue (inside[0]);
+		assertTrue (inside[1]);
+		assertFalse (inside[2]);
+		assertEquals (1, GeoMath.nearest (0.0, 0.0, latitudes, longitudes));
+	}
+}
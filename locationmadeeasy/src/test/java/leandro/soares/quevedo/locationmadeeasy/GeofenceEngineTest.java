@@ -0,0 +1,174 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GeofenceEngineTest {
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+	private static final long MINUTE = 60 * 1000;
+
+	/**
+	 * Records the transitions as "id:transition"
+	 **/
+	private static final class Recorder implements GeofenceEngine.OnGeofenceTransitionListener {
+		final List<String> transitions = new ArrayList<> ();
+
+		@Override
+		public void onGeofenceTransition (Geofence geofence, int transition, long time) {
+			transitions.add (geofence.getId () + ":" + transition);
+		}
+	}
+
+	@Test
+	public void enterDwellExit () {
+		GeofenceEngine engine = new GeofenceEngine (5 * MINUTE);
+		Recorder recorder = new Recorder ();
+		engine.setOnGeofenceTransitionListener (recorder);
+		engine.add (Geofence.circle ("home", -30.0, -51.0, 100.0));
+
+		engine.evaluate (-30.0 - 500.0 / METERS_PER_DEGREE, -51.0, 0);
+		assertTrue (recorder.transitions.isEmpty ());
+
+		engine.evaluate (-30.0, -51.0, MINUTE);
+		engine.evaluate (-30.0 + 50.0 / METERS_PER_DEGREE, -51.0, 3 * MINUTE);
+		assertTrue (engine.isInside ("home"));
+		engine.evaluate (-30.0, -51.0, 6 * MINUTE);
+		engine.evaluate (-30.0, -51.0, 7 * MINUTE);
+		engine.evaluate (-30.0 + 500.0 / METERS_PER_DEGREE, -51.0, 8 * MINUTE);
+
+		assertEquals ("[home:" + GeofenceEngine.TRANSITION_ENTER + ", home:" + GeofenceEngine.TRANSITION_DWELL
+				+ ", home:" + GeofenceEngine.TRANSITION_EXIT + "]", recorder.transitions.toString ());
+		assertFalse (engine.isInside ("home"));
+	}
+
+	@Test
+	public void remove_emitsNoExit () {
+		GeofenceEngine engine = new GeofenceEngine (MINUTE);
+		Recorder recorder = new Recorder ();
+		engine.setOnGeofenceTransitionListener (recorder);
+		engine.add (Geofence.circle ("a", 0.0, 0.0, 200.0));
+		engine.add (Geofence.circle ("b", 0.0, 0.0, 200.0));
+
+		engine.evaluate (0.0, 0.0, 0);
+		assertEquals (2, recorder.transitions.size ());
+
+		assertTrue (engine.remove ("a"));
+		assertFalse (engine.remove ("a"));
+		assertEquals (1, engine.size ());
+		assertNull (engine.get ("a"));
+
+		engine.evaluate (1.0, 1.0, 1000);
+		assertEquals ("b:" + GeofenceEngine.TRANSITION_EXIT, recorder.transitions.get (2));
+		assertEquals (3, recorder.transitions.size ());
+	}
+
+	@Test
+	public void oversizedGeofences_areCheckedOnEveryFix () {
+		// About 100m cells, a 50km circle spans far more than the grid limit
+		GeofenceEngine engine = new GeofenceEngine (MINUTE, 0.001);
+		Recorder recorder = new Recorder ();
+		engine.setOnGeofenceTransitionListener (recorder);
+		engine.add (Geofence.circle ("city", -30.0, -51.0, 50000.0));
+		engine.add (Geofence.circle ("block", -30.0, -51.0, 50.0));
+
+		engine.evaluate (-30.0 + 40000.0 / METERS_PER_DEGREE, -51.0, 0);
+		assertEquals ("[city:" + GeofenceEngine.TRANSITION_ENTER + "]", recorder.transitions.toString ());
+
+		engine.evaluate (-30.0, -51.0, 1000);
+		assertTrue (engine.isInside ("city"));
+		assertTrue (engine.isInside ("block"));
+
+		assertTrue (engine.remove ("city"));
+		engine.evaluate (-30.0, -51.0, 2000);
+		assertFalse (engine.isInside ("city"));
+	}
+
+	@Test
+	public void circles_wrapAroundTheAntimeridian () {
+		GeofenceEngine engine = new GeofenceEngine (MINUTE);
+		Recorder recorder = new Recorder ();
+		engine.setOnGeofenceTransitionListener (recorder);
+		engine.add (Geofence.circle ("dateline", 0.0, 179.9995, 200.0));
+
+		// About 110m west of the center, across the antimeridian
+		engine.evaluate (0.0, -179.9995, 0);
+		assertTrue (engine.isInside ("dateline"));
+		engine.evaluate (0.0, 179.999, 1000);
+		assertTrue (engine.isInside ("dateline"));
+		engine.evaluate (0.0, -179.99, 2000);
+		assertFalse (engine.isInside ("dateline"));
+
+		assertTrue (engine.remove ("dateline"));
+		assertEquals (0, engine.size ());
+	}
+
+	@Test
+	public void listener_runsWithTheEngineUnlocked () throws Exception {
+		final GeofenceEngine engine = new GeofenceEngine (MINUTE);
+		final boolean[] unlocked = new boolean[1];
+		engine.setOnGeofenceTransitionListener (new GeofenceEngine.OnGeofenceTransitionListener () {
+			@Override
+			public void onGeofenceTransition (Geofence geofence, int transition, long time) {
+				// Another thread can use the engine while the listener runs
+				Thread other = new Thread (new Runnable () {
+					@Override
+					public void run () {
+						engine.add (Geofence.circle ("other", 10.0, 10.0, 100.0));
+					}
+				});
+				other.start ();
+				try {
+					other.join (5000);
+				} catch (InterruptedException e) {
+					Thread.currentThread ().interrupt ();
+				}
+				unlocked[0] = !other.isAlive ();
+			}
+		});
+		engine.add (Geofence.circle ("home", 0.0, 0.0, 100.0));
+
+		engine.evaluate (0.0, 0.0, 0);
+
+		assertTrue (unlocked[0]);
+		assertEquals (2, engine.size ());
+	}
+
+	@Test
+	public void load_parsesCirclesAndPolygons () throws IOException {
+		GeofenceEngine engine = new GeofenceEngine (MINUTE);
+		int count = engine.load (new StringReader (
+				"# Stores\n"
+						+ "circle, store, -30.0, -51.0, 150\n"
+						+ "\n"
+						+ "polygon,park,0.0,0.0,0.0,0.01,0.01,0.01,0.01,0.0\n"
+		));
+
+		assertEquals (2, count);
+		assertEquals (Geofence.TYPE_CIRCLE, engine.get ("store").getType ());
+		assertEquals (150.0, engine.get ("store").getRadius (), 0.0);
+		assertEquals (Geofence.TYPE_POLYGON, engine.get ("park").getType ());
+
+		engine.evaluate (0.005, 0.005, 0);
+		assertTrue (engine.isInside ("park"));
+		engine.evaluate (0.02, 0.005, 1000);
+		assertFalse (engine.isInside ("park"));
+	}
+
+	@Test
+	public void load_reportsTheInvalidLine () {
+		GeofenceEngine engine = new GeofenceEngine (MINUTE);
+		try {
+			engine.load (new StringReader ("circle,a,0,0,10\ncircle,b,0,0\n"));
+			fail ();
+		} catch (IOException e) {
+			assertTrue (e.getMessage ().contains ("line 2"));
+		}
+	}
+}
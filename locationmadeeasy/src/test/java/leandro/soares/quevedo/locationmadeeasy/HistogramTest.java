@@ -0,0 +1,79 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+	@Test
+	public void record_selectsTheFirstBucketNotBelowTheValue () {
+		Histogram histogram = new Histogram (10, 20, 50);
+		assertEquals (4, histogram.getBucketCount ());
+
+		histogram.record (-5);
+		histogram.record (10);// The bounds are inclusive
+		histogram.record (11);
+		histogram.record (50);
+		histogram.record (51);
+		histogram.record (1000);
+
+		assertEquals (2, histogram.getCount (0));
+		assertEquals (1, histogram.getCount (1));
+		assertEquals (1, histogram.getCount (2));
+		assertEquals (2, histogram.getCount (3));
+		assertEquals (Long.MAX_VALUE, histogram.getBucketBound (3));
+		assertEquals (6, histogram.getTotalCount ());
+		assertEquals ((-5 + 10 + 11 + 50 + 51 + 1000) / 6.0, histogram.getMean (), 1e-9);
+	}
+
+	@Test
+	public void percentiles_areTheBucketBounds () {
+		Histogram histogram = new Histogram (100, 200, 500, 1000);
+		assertEquals (0, histogram.getPercentile (50));
+
+		for (int i = 1; i <= 100; i++) {
+			// 50 values up to 100, 40 up to 200, 9 up to 500 and 1 in the overflow
+			histogram.record (i <= 50 ? i : i <= 90 ? 150 : i <= 99 ? 400 : 5000);
+		}
+
+		assertEquals (100, histogram.getPercentile (50));
+		assertEquals (200, histogram.getPercentile (51));
+		assertEquals (200, histogram.getPercentile (90));
+		assertEquals (500, histogram.getPercentile (99));
+		assertEquals (Long.MAX_VALUE, histogram.getPercentile (100));
+
+		histogram.reset ();
+		assertEquals (0, histogram.getTotalCount ());
+		assertEquals (0, histogram.getMean (), 0);
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void bounds_mustBeAscending () {
+		new Histogram (10, 10);
+	}
+
+	@Test
+	public void concurrentRecords_areNotLost () throws Exception {
+		final Histogram histogram = new Histogram (10, 100);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread (new Runnable () {
+				@Override
+				public void run () {
+					for (int i = 0; i < 100000; i++) {
+						histogram.record (i % 200);
+					}
+				}
+			});
+			threads[t].start ();
+		}
+		for (Thread thread : threads) {
+			thread.join ();
+		}
+
+		assertEquals (400000, histogram.getTotalCount ());
+		assertEquals (4 * 500 * 11, histogram.getCount (0));
+		assertEquals ((199 * 200 / 2) * 500 * 4 / 400000.0, histogram.getMean (), 1e-9);
+	}
+}
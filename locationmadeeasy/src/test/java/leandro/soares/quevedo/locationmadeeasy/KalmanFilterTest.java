@@ -0,0 +1,70 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KalmanFilterTest {
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	@Test
+	public void firstFix_isKeptAsIs () {
+		KalmanFilter filter = new KalmanFilter (3.0);
+		filter.update (-30.0, -51.0, 20f, 1000L);
+
+		assertTrue (filter.isInitialized ());
+		assertEquals (-30.0, filter.getLatitude (), 1e-9);
+		assertEquals (-51.0, filter.getLongitude (), 1e-9);
+		assertEquals (20f, filter.getAccuracy (), 0.01f);
+		assertEquals (1000L, filter.getTime ());
+	}
+
+	@Test
+	public void accurateFix_outweighsInaccurateFix () {
+		KalmanFilter filter = new KalmanFilter (3.0);
+		// A coarse network fix followed, at the same time, by a precise GPS fix 500m north
+		filter.update (0.0, 0.0, 1500f, 0L);
+		filter.update (500.0 / METERS_PER_DEGREE, 0.0, 5f, 0L);
+
+		double northMeters = filter.getLatitude () * METERS_PER_DEGREE;
+		assertEquals (500.0, northMeters, 1.0);
+		assertTrue (filter.getAccuracy () < 5f);
+	}
+
+	@Test
+	public void noisyTrack_isSmoothed () {
+		KalmanFilter filter = new KalmanFilter (1.0);
+		Random random = new Random (42);
+
+		double speed = 10.0;// m/s heading north
+		double rawError = 0, filteredError = 0;
+		for (int i = 0; i < 300; i++) {
+			double truth = i * speed;
+			double measured = truth + random.nextGaussian () * 15.0;
+			filter.update (measured / METERS_PER_DEGREE, 0.0, 15f, i * 1000L);
+
+			if (i >= 30) {
+				rawError += Math.abs (measured - truth);
+				filteredError += Math.abs (filter.getLatitude () * METERS_PER_DEGREE - truth);
+			}
+		}
+
+		assertTrue ("Filtered error " + filteredError + " should be lower than raw " + rawError, filteredError < rawError * 0.7);
+		assertEquals (speed, filter.getSpeed (), 1.5);
+		assertTrue (filter.getBearing () < 20f || filter.getBearing () > 340f);
+	}
+
+	@Test
+	public void reset_discardsEstimate () {
+		KalmanFilter filter = new KalmanFilter (3.0);
+		filter.update (10.0, 10.0, 10f, 0L);
+		filter.reset ();
+
+		assertFalse (filter.isInitialized ());
+		filter.update (20.0, 20.0, 10f, 1000L);
+		assertEquals (20.0, filter.getLatitude (), 1e-9);
+	}
+}
@@ -0,0 +1,96 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PositionPredictorTest {
+
+	private static final long SECOND = 1000000000L;
+
+	@Test
+	public void extrapolatesAlongTheBearing () {
+		PositionPredictor predictor = new PositionPredictor (1.0, 10000);
+		double[] out = new double[3];
+		assertFalse (predictor.getPredictedLocation (0, out));
+
+		// 10 m/s to the east
+		predictor.update (0.0, 0.0, 5f, 10f, 90f, SECOND);
+		assertTrue (predictor.getPredictedLocation (3 * SECOND, out));
+		assertEquals (0.0, out[PositionPredictor.INDEX_LATITUDE], 1e-9);
+		assertEquals (20.0 / GeoMath.METERS_PER_DEGREE, out[PositionPredictor.INDEX_LONGITUDE], 1e-9);
+		// Accuracy, plus the speed accuracy and the acceleration over 2 seconds
+		assertEquals (5.0 + 0.5 * 2 + 0.5 * 2 * 2, out[PositionPredictor.INDEX_UNCERTAINTY], 1e-9);
+
+		// The position stops after the horizon, the uncertainty keeps growing
+		double uncertainty = out[PositionPredictor.INDEX_UNCERTAINTY];
+		predictor.getPredictedLocation (61 * SECOND, out);
+		assertEquals (100.0 / GeoMath.METERS_PER_DEGREE, out[PositionPredictor.INDEX_LONGITUDE], 1e-9);
+		assertTrue (out[PositionPredictor.INDEX_UNCERTAINTY] > uncertainty);
+	}
+
+	@Test
+	public void derivesTheVelocityWithoutSpeed () {
+		PositionPredictor predictor = new PositionPredictor ();
+		double[] out = new double[3];
+
+		predictor.update (0.0, 0.0, 3f, -1f, -1f, 0);
+		predictor.update (10.0 / GeoMath.METERS_PER_DEGREE, 0.0, 3f, -1f, -1f, SECOND);
+		predictor.getPredictedLocation (2 * SECOND, out);
+
+		assertEquals (20.0 / GeoMath.METERS_PER_DEGREE, out[PositionPredictor.INDEX_LATITUDE], 1e-9);
+	}
+
+	@Test
+	public void movesWithinTheAccuracy_deriveNoVelocity () {
+		PositionPredictor predictor = new PositionPredictor ();
+		double[] out = new double[3];
+
+		// A GPS fix, then a network one 300m away a second later, within their accuracies
+		predictor.update (0.0, 0.0, 5f, -1f, -1f, 0);
+		predictor.update (300.0 / GeoMath.METERS_PER_DEGREE, 0.0, 400f, -1f, -1f, SECOND);
+		predictor.getPredictedLocation (10 * SECOND, out);
+
+		assertEquals (300.0 / GeoMath.METERS_PER_DEGREE, out[PositionPredictor.INDEX_LATITUDE], 1e-9);
+		assertEquals (0.0, out[PositionPredictor.INDEX_LONGITUDE], 1e-9);
+	}
+
+	@Test
+	public void readers_neverSeeATornFix () throws Exception {
+		final PositionPredictor predictor = new PositionPredictor ();
+		final AtomicBoolean running = new AtomicBoolean (true);
+		final AtomicInteger torn = new AtomicInteger ();
+		predictor.update (0.0, 0.0, 0f, 0f, 0f, 0);
+
+		Thread[] readers = new Thread[3];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread (new Runnable () {
+				@Override
+				public void run () {
+					double[] out = new double[3];
+					while (running.get ()) {
+						predictor.getPredictedLocation (0, out);
+						// Every fix is published with matching latitude, longitude and accuracy
+						if (out[0] != out[1] || out[0] != out[2] * 1e-5) {
+							torn.incrementAndGet ();
+						}
+					}
+				}
+			});
+			readers[t].start ();
+		}
+
+		for (int i = 1; i <= 200000; i++) {
+			predictor.update (i * 1e-5, i * 1e-5, i, 0f, 0f, 0);
+		}
+		running.set (false);
+		for (Thread reader : readers) {
+			reader.join ();
+		}
+
+		assertEquals (0, torn.get ());
+	}
+}
@@ -0,0 +1,186 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Races fixes, timeouts, cancellations and callback registrations on the same requests
+ * (The same race through the helper itself runs on a device, see LocationHelperInstrumentedTest)
+ **/
+public class RequestConcurrencyTest {
+
+	private static final int REQUESTS = 2000;
+	private static final int ROUNDS = 5;
+
+	@Test
+	public void racingOutcomes_finishEachRequestOnce () throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			runRound ();
+		}
+	}
+
+	private void runRound () throws Exception {
+		final SnapshotList<RequestFuture<String>> active = new SnapshotList<> ();
+		final AtomicIntegerArray releases = new AtomicIntegerArray (REQUESTS);
+		final AtomicIntegerArray callbacks = new AtomicIntegerArray (REQUESTS);
+		final AtomicIntegerArray listenerCalls = new AtomicIntegerArray (REQUESTS);
+		final AtomicInteger removals = new AtomicInteger ();
+		final List<RequestFuture<String>> futures = new ArrayList<> ();
+		// What failed on the other threads, asserted on this one
+		final Queue<Throwable> errors = new ConcurrentLinkedQueue<> ();
+
+		for (int i = 0; i < REQUESTS; i++) {
+			final int index = i;
+			final AtomicReference<RequestFuture<String>> holder = new AtomicReference<> ();
+			holder.set (new RequestFuture<String> (new Runnable () {
+				@Override
+				public void run () {
+					releases.incrementAndGet (index);
+					if (active.remove (holder.get ())) {
+						removals.incrementAndGet ();
+					}
+				}
+			}));
+			futures.add (holder.get ());
+			assertTrue (active.add (holder.get ()));
+		}
+
+		final CyclicBarrier start = new CyclicBarrier (5);
+		final CountDownLatch done = new CountDownLatch (5);
+		List<Thread> threads = new ArrayList<> ();
+
+		// The provider thread, completing whatever is still active and notifying the listener only when it won
+		threads.add (new Thread (new Racer (start, done, errors) {
+			@Override
+			void race () {
+				while (!active.isEmpty ()) {
+					for (RequestFuture<String> future : active.snapshot ()) {
+						if (future.complete ("fix")) {
+							listenerCalls.incrementAndGet (futures.indexOf (future));
+						}
+					}
+				}
+			}
+		}));
+
+		// A caller cancelling every third request
+		threads.add (new Thread (new Racer (start, done, errors) {
+			@Override
+			void race () {
+				for (int i = REQUESTS - 1; i >= 0; i -= 3) {
+					futures.get (i).cancel (false);
+				}
+			}
+		}));
+
+		// Deadlines expiring right away on the scheduler thread
+		threads.add (new Thread (new Racer (start, done, errors) {
+			@Override
+			void race () {
+				for (int i = 0; i < REQUESTS; i += 2) {
+					futures.get (i).withTimeout (0).withTimeout (1);
+				}
+			}
+		}));
+
+		// Callbacks added while the requests finish
+		for (int t = 0; t < 2; t++) {
+			final int offset = t;
+			threads.add (new Thread (new Racer (start, done, errors) {
+				@Override
+				void race () {
+					for (int i = offset; i < REQUESTS; i += 2) {
+						final int index = i;
+						futures.get (i).addCallback (new RequestFuture.Callback<String> () {
+							@Override
+							public void onRequestFinished (RequestFuture<String> future) {
+								// Maybe on the scheduler thread
+								try {
+									assertTrue (future.isDone ());
+								} catch (Throwable e) {
+									errors.add (e);
+								}
+								callbacks.incrementAndGet (index);
+							}
+						});
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start ();
+		}
+		assertTrue (done.await (30, TimeUnit.SECONDS));
+		assertTrue (errors.toString (), errors.isEmpty ());
+
+		assertTrue (active.isEmpty ());
+		assertEquals (REQUESTS, removals.get ());
+
+		for (int i = 0; i < REQUESTS; i++) {
+			RequestFuture<String> future = futures.get (i);
+			assertTrue (future.isDone ());
+			assertEquals (1, releases.get (i));
+			// A deadline may still be running the callbacks on the scheduler thread
+			long end = System.currentTimeMillis () + 5000;
+			while (callbacks.get (i) == 0 && System.currentTimeMillis () < end) {
+				Thread.yield ();
+			}
+			assertEquals (1, callbacks.get (i));
+			assertTrue (errors.toString (), errors.isEmpty ());
+
+			// The listener only ran for the requests the fix actually completed
+			boolean completed = future.getNow (null) != null;
+			assertEquals (completed ? 1 : 0, listenerCalls.get (i));
+
+			int outcomes = (completed ? 1 : 0) + (future.isCancelled () ? 1 : 0) + (future.isTimedOut () ? 1 : 0);
+			assertEquals (1, outcomes);
+
+			try {
+				assertEquals ("fix", future.get (1, TimeUnit.SECONDS));
+				assertTrue (completed);
+			} catch (ExecutionException | java.util.concurrent.CancellationException e) {
+				assertFalse (completed);
+			}
+		}
+	}
+
+	private abstract static class Racer implements Runnable {
+		private final CyclicBarrier start;
+		private final CountDownLatch done;
+		private final Queue<Throwable> errors;
+
+		Racer (CyclicBarrier start, CountDownLatch done, Queue<Throwable> errors) {
+			this.start = start;
+			this.done = done;
+			this.errors = errors;
+		}
+
+		abstract void race ();
+
+		@Override
+		public void run () {
+			try {
+				start.await ();
+				race ();
+			} catch (Throwable e) {
+				errors.add (e);
+			} finally {
+				done.countDown ();
+			}
+		}
+	}
+}
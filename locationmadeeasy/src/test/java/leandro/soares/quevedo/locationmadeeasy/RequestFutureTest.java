@@ -0,0 +1,105 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestFutureTest {
+
+	@Test
+	public void complete_releasesBeforeTheCallbacks () throws Exception {
+		final List<String> events = new ArrayList<> ();
+		RequestFuture<String> future = new RequestFuture<> (new Runnable () {
+			@Override
+			public void run () {
+				events.add ("release");
+			}
+		});
+		future.addCallback (new RequestFuture.Callback<String> () {
+			@Override
+			public void onRequestFinished (RequestFuture<String> future) {
+				events.add ("callback " + future.getNow (null));
+			}
+		});
+
+		assertTrue (future.complete ("fix"));
+		assertFalse (future.complete ("other"));
+		assertFalse (future.cancel (false));
+
+		assertEquals ("fix", future.get ());
+		assertEquals (2, events.size ());
+		assertEquals ("release", events.get (0));
+		assertEquals ("callback fix", events.get (1));
+	}
+
+	@Test
+	public void cancel_releasesOnce () throws Exception {
+		final AtomicInteger releases = new AtomicInteger ();
+		RequestFuture<String> future = new RequestFuture<> (new Runnable () {
+			@Override
+			public void run () {
+				releases.incrementAndGet ();
+			}
+		});
+
+		assertTrue (future.cancel (true));
+		assertFalse (future.cancel (true));
+		assertFalse (future.complete ("late"));
+		assertTrue (future.isCancelled ());
+		assertEquals (1, releases.get ());
+
+		try {
+			future.get ();
+			fail ();
+		} catch (CancellationException expected) {
+		}
+	}
+
+	@Test
+	public void deadlines_compose () throws Exception {
+		final AtomicInteger releases = new AtomicInteger ();
+		RequestFuture<String> future = new RequestFuture<> (new Runnable () {
+			@Override
+			public void run () {
+				releases.incrementAndGet ();
+			}
+		});
+
+		// The earliest deadline wins, whatever the order
+		future.withTimeout (60000).withTimeout (50).withTimeout (30000);
+		assertTrue (future.hasDeadline ());
+
+		try {
+			future.get (5, TimeUnit.SECONDS);
+			fail ();
+		} catch (ExecutionException e) {
+			assertTrue (e.getCause () instanceof TimeoutException);
+		}
+
+		assertTrue (future.isTimedOut ());
+		assertEquals (1, releases.get ());
+	}
+
+	@Test
+	public void failure_carriesTheMessage () throws Exception {
+		RequestFuture<String> future = new RequestFuture<> (null);
+		future.fail ("Permissão negada");
+
+		assertTrue (future.isFailed ());
+		assertEquals ("Permissão negada", future.getError ());
+		try {
+			future.get (1, TimeUnit.SECONDS);
+			fail ();
+		} catch (ExecutionException e) {
+			assertEquals ("Permissão negada", e.getMessage ());
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReverseGeocoderTest {
+
+	private static final Executor DIRECT = new Executor () {
+		@Override
+		public void execute (Runnable command) {
+			command.run ();
+		}
+	};
+
+	/**
+	 * Local stand-in that names each coordinate and counts the lookups
+	 **/
+	private static final class FakeBackend implements ReverseGeocoder.Backend<String> {
+		final List<Integer> batchSizes = Collections.synchronizedList (new ArrayList<Integer> ());
+
+		@Override
+		public List<String> lookup (double[] latitudes, double[] longitudes) {
+			batchSizes.add (latitudes.length);
+
+			List<String> result = new ArrayList<> ();
+			for (int i = 0; i < latitudes.length; i++) {
+				result.add (String.format ("%.3f,%.3f", latitudes[i], longitudes[i]));
+			}
+			return result;
+		}
+	}
+
+	private static final class LatchCallback implements ReverseGeocoder.Callback<String> {
+		final CountDownLatch latch;
+		final List<String> addresses = Collections.synchronizedList (new ArrayList<String> ());
+
+		LatchCallback (int count) {
+			latch = new CountDownLatch (count);
+		}
+
+		@Override
+		public void onAddressResolved (String address) {
+			addresses.add (address);
+			latch.countDown ();
+		}
+
+		@Override
+		public void onAddressError (String message) {
+			fail (message);
+		}
+
+		void await () throws InterruptedException {
+			assertTrue (latch.await (5, TimeUnit.SECONDS));
+		}
+	}
+
+	private ReverseGeocoder<String> geocoder;
+
+	@After
+	public void tearDown () {
+		if (geocoder != null) {
+			geocoder.shutdown ();
+		}
+	}
+
+	@Test
+	public void nearbyRequests_shareOneLookup () throws Exception {
+		FakeBackend backend = new FakeBackend ();
+		geocoder = new ReverseGeocoder<> (backend, DIRECT);
+
+		// A few meters apart, on the same 50m bucket
+		LatchCallback callback = new LatchCallback (3);
+		geocoder.resolve (-30.00001, -51.00001, callback);
+		geocoder.resolve (-30.00002, -51.00002, callback);
+		geocoder.resolve (-30.00003, -51.00001, callback);
+		callback.await ();
+
+		assertEquals (Collections.singletonList (1), backend.batchSizes);
+		assertEquals (3, callback.addresses.size ());
+		assertEquals (callback.addresses.get (0), callback.addresses.get (2));
+
+		// Now served by the cache
+		LatchCallback cached = new LatchCallback (1);
+		assertTrue (geocoder.resolve (-30.00001, -51.00002, cached));
+		cached.await ();
+		assertEquals (1, backend.batchSizes.size ());
+	}
+
+	@Test
+	public void distantRequests_areBatched () throws Exception {
+		FakeBackend backend = new FakeBackend ();
+		geocoder = new ReverseGeocoder<> (backend, DIRECT, 50, 100, 4, 100);
+
+		LatchCallback callback = new LatchCallback (10);
+		for (int i = 0; i < 10; i++) {
+			geocoder.resolve (-30.0 + i * 0.01, -51.0, callback);
+		}
+		callback.await ();
+
+		assertEquals (3, backend.batchSizes.size ());
+		assertEquals (4, (int) backend.batchSizes.get (0));
+		assertEquals (4, (int) backend.batchSizes.get (1));
+		assertEquals (2, (int) backend.batchSizes.get (2));
+	}
+
+	@Test
+	public void cache_evictsLeastRecentlyUsed () throws Exception {
+		FakeBackend backend = new FakeBackend ();
+		geocoder = new ReverseGeocoder<> (backend, DIRECT, 50, 2, 4, 0);
+
+		for (int i = 0; i < 3; i++) {
+			LatchCallback callback = new LatchCallback (1);
+			geocoder.resolve (-30.0 + i * 0.01, -51.0, callback);
+			callback.await ();
+		}
+
+		assertNull (geocoder.getCached (-30.0, -51.0));
+		assertNotNull (geocoder.getCached (-29.99, -51.0));
+		assertNotNull (geocoder.getCached (-29.98, -51.0));
+	}
+
+	@Test
+	public void resolve_afterShutdown_failsTheCallback () throws Exception {
+		FakeBackend backend = new FakeBackend ();
+		geocoder = new ReverseGeocoder<> (backend, DIRECT, 50, 100, 4, 0);
+
+		LatchCallback callback = new LatchCallback (1);
+		geocoder.resolve (-30.0, -51.0, callback);
+		callback.await ();
+		geocoder.shutdown ();
+
+		// The cache still answers
+		LatchCallback cached = new LatchCallback (1);
+		assertTrue (geocoder.resolve (-30.0, -51.0, cached));
+		cached.await ();
+
+		final String[] error = new String[1];
+		assertFalse (geocoder.resolve (-29.9, -51.0, new ReverseGeocoder.Callback<String> () {
+			@Override
+			public void onAddressResolved (String address) {
+				fail (address);
+			}
+
+			@Override
+			public void onAddressError (String message) {
+				error[0] = message;
+			}
+		}));
+		assertNotNull (error[0]);
+		assertEquals (1, backend.batchSizes.size ());
+	}
+}
@@ -0,0 +1,127 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StayPointDetectorTest {
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+	private static final long MINUTE = 60 * 1000;
+
+	@Test
+	public void walkStopWalk_emitsOneStop () {
+		StayPointDetector detector = new StayPointDetector (50.0, 5 * MINUTE);
+		final List<long[]> stops = new ArrayList<> ();
+		detector.setOnStayPointListener (new StayPointDetector.OnStayPointListener () {
+			@Override
+			public void onArrival (double latitude, double longitude, long arrivalTime) {
+				assertEquals (0, stops.size ());
+			}
+
+			@Override
+			public void onDeparture (double latitude, double longitude, long arrivalTime, long departureTime) {
+				assertEquals (1000.0 / METERS_PER_DEGREE, latitude, 5.0 / METERS_PER_DEGREE);
+				stops.add (new long[] {arrivalTime, departureTime});
+			}
+		});
+
+		long time = 0;
+		int arrivals = 0;
+		// Walking north at 1.5 m/s, a fix every 20 seconds
+		for (int i = 0; i <= 33; i++, time += 20000) {
+			assertEquals (StayPointDetector.EVENT_NONE, detector.update (i * 30.0 / METERS_PER_DEGREE, 0.0, 10f, time));
+		}
+		long arrival = time;
+
+		// Ten minutes around the 1km mark, with one outlier
+		for (int i = 0; i < 30; i++, time += 20000) {
+			double jitter = ((i * 7) % 11 - 5) / METERS_PER_DEGREE;
+			double latitude = i == 12 ? 1200.0 / METERS_PER_DEGREE : 1000.0 / METERS_PER_DEGREE + jitter;
+			if (detector.update (latitude, jitter, 8f, time) == StayPointDetector.EVENT_ARRIVAL) {
+				arrivals++;
+				assertTrue (time - detector.getArrivalTime () >= 5 * MINUTE);
+			}
+		}
+		long departure = time - 20000;
+		assertTrue (detector.isAtStop ());
+
+		// Walking again
+		int departures = 0;
+		for (int i = 1; i <= 10; i++, time += 20000) {
+			if (detector.update ((1000.0 + i * 30.0) / METERS_PER_DEGREE, 0.0, 10f, time) == StayPointDetector.EVENT_DEPARTURE) {
+				departures++;
+			}
+		}
+
+		assertEquals (1, arrivals);
+		assertEquals (1, departures);
+		assertEquals (1, stops.size ());
+		// The walking fixes near the stop belong to it
+		assertTrue (stops.get (0)[0] <= arrival && stops.get (0)[0] >= arrival - 2 * 20000);
+		assertTrue (stops.get (0)[1] >= departure && stops.get (0)[1] <= departure + 20000);
+		assertFalse (detector.isAtStop ());
+	}
+
+	@Test
+	public void inaccurateFixes_areIgnored () {
+		StayPointDetector detector = new StayPointDetector (30.0, MINUTE);
+
+		for (int i = 0; i < 10; i++) {
+			detector.update (0.0, 0.0, 500f, i * 20000L);
+		}
+
+		assertFalse (detector.isAtStop ());
+	}
+
+	@Test
+	public void listener_runsOutsideTheLock () throws Exception {
+		final StayPointDetector detector = new StayPointDetector (50.0, MINUTE);
+		final boolean[] readByAnotherThread = new boolean[1];
+		detector.setOnStayPointListener (new StayPointDetector.OnStayPointListener () {
+			@Override
+			public void onArrival (double latitude, double longitude, long arrivalTime) {
+				// Would wait forever for the detector if it was still held
+				Thread reader = new Thread (new Runnable () {
+					@Override
+					public void run () {
+						readByAnotherThread[0] = detector.isAtStop ();
+					}
+				});
+				reader.start ();
+				try {
+					reader.join (5000);
+				} catch (InterruptedException e) {
+					throw new AssertionError (e);
+				}
+			}
+
+			@Override
+			public void onDeparture (double latitude, double longitude, long arrivalTime, long departureTime) {
+			}
+		});
+
+		final List<Runnable> tasks = new ArrayList<> ();
+		Executor executor = new Executor () {
+			@Override
+			public void execute (Runnable task) {
+				tasks.add (task);
+			}
+		};
+
+		int event = StayPointDetector.EVENT_NONE;
+		for (int i = 0; event == StayPointDetector.EVENT_NONE; i++) {
+			event = detector.update (0.0, 0.0, 10f, i * 20000L, executor);
+		}
+		assertEquals (StayPointDetector.EVENT_ARRIVAL, event);
+		assertEquals (1, tasks.size ());
+		assertFalse (readByAnotherThread[0]);
+
+		tasks.get (0).run ();
+		assertTrue (readByAnotherThread[0]);
+	}
+}
@@ -0,0 +1,98 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraceReplayerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder ();
+
+	/**
+	 * Records a track of one fix per second
+	 **/
+	private File recordTrack (int fixes) throws IOException {
+		File file = new File (folder.getRoot (), "track.bin");
+		TrackRecorder recorder = new TrackRecorder (file);
+		for (int i = 0; i < fixes; i++) {
+			recorder.append (-30.0 + i * 0.0001, -51.0, 5f, 10f, 0f, 1000000L + i * 1000L, ProviderCodes.GPS);
+		}
+		recorder.close ();
+
+		return file;
+	}
+
+	@Test
+	public void play_acceleratesTheOriginalPacing () throws Exception {
+		// 200 seconds of fixes at 1000x take about 200ms
+		TrackReader reader = new TrackReader (recordTrack (201));
+		TraceReplayer replayer = new TraceReplayer (reader, 1000);
+
+		final List<Long> times = new ArrayList<> ();
+		long start = System.nanoTime ();
+		int count = replayer.play (new TraceReplayer.FixSink () {
+			@Override
+			public void onFix (String provider, double latitude, double longitude, float accuracy, float speed, float bearing, long time) {
+				assertEquals ("gps", provider);
+				times.add (time);
+			}
+		});
+		long elapsedMillis = (System.nanoTime () - start) / 1000000;
+		reader.close ();
+
+		assertEquals (201, count);
+		assertTrue (replayer.isFinished ());
+		assertTrue ("Too fast: " + elapsedMillis, elapsedMillis >= 195);
+		assertTrue ("Too slow: " + elapsedMillis, elapsedMillis < 2000);
+		for (int i = 0; i < times.size (); i++) {
+			assertEquals (1000000L + i * 1000L, (long) times.get (i));
+		}
+	}
+
+	@Test
+	public void rebaseTime_keepsTheSpacing () throws Exception {
+		TrackReader reader = new TrackReader (recordTrack (3));
+		TraceReplayer replayer = new TraceReplayer (reader, Double.POSITIVE_INFINITY);
+		replayer.setRebaseTime (true);
+
+		final List<Long> times = new ArrayList<> ();
+		long before = System.currentTimeMillis ();
+		replayer.play (new TraceReplayer.FixSink () {
+			@Override
+			public void onFix (String provider, double latitude, double longitude, float accuracy, float speed, float bearing, long time) {
+				times.add (time);
+			}
+		});
+		reader.close ();
+
+		assertTrue (times.get (0) >= before);
+		assertEquals (1000L, times.get (1) - times.get (0));
+		assertEquals (1000L, times.get (2) - times.get (1));
+	}
+
+	@Test
+	public void stop_endsTheReplay () throws Exception {
+		TrackReader reader = new TrackReader (recordTrack (100));
+		final TraceReplayer replayer = new TraceReplayer (reader, 1);
+
+		final int[] count = {0};
+		replayer.play (new TraceReplayer.FixSink () {
+			@Override
+			public void onFix (String provider, double latitude, double longitude, float accuracy, float speed, float bearing, long time) {
+				count[0]++;
+				replayer.stop ();
+			}
+		});
+		reader.close ();
+
+		assertEquals (1, count[0]);
+	}
+}
@@ -0,0 +1,159 @@
+package leandro.soares.quevedo.locationmadeeasy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class TrackRecorderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder ();
+
+	private static void appendFixes (TrackRecorder recorder, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			recorder.append (-30.0 + i * 0.0001, -51.0 - i * 0.00005, 5f + (i % 10), i % 30, (i * 7) % 360, 1000000L + i * 1000L, ProviderCodes.GPS);
+		}
+	}
+
+	private static void assertFixes (TrackReader reader, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			assertTrue ("Missing fix " + i, reader.next ());
+			assertEquals (-30.0 + i * 0.0001, reader.getLatitude (), 1e-7);
+			assertEquals (-51.0 - i * 0.00005, reader.getLongitude (), 1e-7);
+			assertEquals (5f + (i % 10), reader.getAccuracy (), 0.05f);
+			assertEquals (i % 30, reader.getSpeed (), 0.005f);
+			assertEquals ((i * 7) % 360, reader.getBearing (), 0.005f);
+			assertEquals (1000000L + i * 1000L, reader.getTime ());
+			assertEquals ("gps", reader.getProvider ());
+		}
+	}
+
+	@Test
+	public void roundTrip_preservesFixes () throws IOException {
+		File file = folder.newFile ("track.bin");
+		file.delete ();
+
+		TrackRecorder recorder = new TrackRecorder (file);
+		appendFixes (recorder, 0, 1000);
+		recorder.close ();
+
+		// Far smaller than the 37 bytes of the raw fields
+		assertTrue (file.length () < 1000 * 16);
+
+		TrackReader reader = new TrackReader (file);
+		assertFixes (reader, 0, 1000);
+		assertFalse (reader.next ());
+		reader.close ();
+	}
+
+	@Test
+	public void reopen_appendsToExistingTrack () throws IOException {
+		File file = new File (folder.getRoot (), "track.bin");
+
+		TrackRecorder recorder = new TrackRecorder (file);
+		appendFixes (recorder, 0, 10);
+		recorder.close ();
+
+		recorder = new TrackRecorder (file);
+		appendFixes (recorder, 10, 20);
+		recorder.close ();
+
+		TrackReader reader = new TrackReader (file);
+		assertFixes (reader, 0, 20);
+		assertFalse (reader.next ());
+		reader.close ();
+	}
+
+	@Test
+	public void truncatedRecord_isIgnoredAndOverwritten () throws IOException {
+		File file = new File (folder.getRoot (), "track.bin");
+
+		TrackRecorder recorder = new TrackRecorder (file);
+		appendFixes (recorder, 0, 10);
+		recorder.close ();
+
+		// Simulate a crash in the middle of the last record
+		RandomAccessFile randomAccessFile = new RandomAccessFile (file, "rw");
+		randomAccessFile.setLength (file.length () - 2);
+		randomAccessFile.close ();
+
+		TrackReader reader = new TrackReader (file);
+		assertFixes (reader, 0, 9);
+		assertFalse (reader.next ());
+		reader.close ();
+
+		recorder = new TrackRecorder (file);
+		appendFixes (recorder, 9, 12);
+		recorder.close ();
+
+		reader = new TrackReader (file);
+		assertFixes (reader, 0, 12);
+		assertFalse (reader.next ());
+		reader.close ();
+	}
+
+	@Test
+	public void export_streamsEveryFix () throws IOException {
+		File file = new File (folder.getRoot (), "track.bin");
+
+		TrackRecorder recorder = new TrackRecorder (file);
+		appendFixes (recorder, 0, 3);
+		recorder.close ();
+
+		StringWriter gpx = new StringWriter ();
+		TrackReader reader = new TrackReader (file);
+		assertEquals (3, TrackExporter.exportGpx (reader, gpx));
+		reader.close ();
+		assertTrue (gpx.toString ().contains ("<trkpt lat=\"-30.0\" lon=\"-51.0\"><time>1970-01-01T00:16:40.000Z</time></trkpt>"));
+
+		StringWriter geoJson = new StringWriter ();
+		assertEquals (3, TrackExporter.exportGeoJson (file, geoJson));
+		assertTrue (geoJson.toString ().contains ("\"type\":\"LineString\",\"coordinates\":[[-51.0,-30.0],"));
+		assertTrue (geoJson.toString ().endsWith ("\"coordTimes\":[\"1970-01-01T00:16:40.000Z\",\"1970-01-01T00:16:41.000Z\",\"1970-01-01T00:16:42.000Z\"]}}]}\n"));
+	}
+
+	@Test
+	public void export_writesFixedPointCoordinates () throws IOException {
+		File file = new File (folder.getRoot (), "track.bin");
+		TrackRecorder recorder = new TrackRecorder (file);
+		recorder.append (0.0001, -0.00002, 5f, 0f, 0f, 0L, ProviderCodes.GPS);
+		recorder.close ();
+
+		StringWriter gpx = new StringWriter ();
+		TrackReader reader = new TrackReader (file);
+		TrackExporter.exportGpx (reader, gpx);
+		reader.close ();
+		assertTrue (gpx.toString ().contains ("<trkpt lat=\"0.0001\" lon=\"-0.00002\">"));
+
+		StringWriter geoJson = new StringWriter ();
+		TrackExporter.exportGeoJson (file, geoJson);
+		assertTrue (geoJson.toString ().contains ("\"coordinates\":[-0.00002,0.0001]"));
+	}
+
+	@Test
+	public void exportGeoJson_shortTracks () throws IOException {
+		File file = new File (folder.getRoot (), "track.bin");
+		new TrackRecorder (file).close ();
+
+		StringWriter geoJson = new StringWriter ();
+		assertEquals (0, TrackExporter.exportGeoJson (file, geoJson));
+		assertEquals ("{\"type\":\"FeatureCollection\",\"features\":[]}\n", geoJson.toString ());
+
+		TrackRecorder recorder = new TrackRecorder (file);
+		appendFixes (recorder, 0, 1);
+		recorder.close ();
+
+		// A single fix is not a valid LineString
+		geoJson = new StringWriter ();
+		assertEquals (1, TrackExporter.exportGeoJson (file, geoJson));
+		assertTrue (geoJson.toString ().contains ("{\"type\":\"Point\",\"coordinates\":[-51.0,-30.0]}"));
+		assertTrue (geoJson.toString ().contains ("\"time\":\"1970-01-01T00:16:40.000Z\""));
+	}
+}